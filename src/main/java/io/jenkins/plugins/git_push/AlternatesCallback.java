@@ -0,0 +1,54 @@
+package io.jenkins.plugins.git_push;
+
+import hudson.remoting.VirtualChannel;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import org.eclipse.jgit.lib.Repository;
+import org.jenkinsci.plugins.gitclient.RepositoryCallback;
+
+/**
+ * Adds an object directory to the git alternates of a repository, so that the repository reads the
+ * objects it does not have from there.
+ *
+ * @author Réda Housni Alaoui
+ */
+class AlternatesCallback implements RepositoryCallback<Boolean> {
+
+  private static final long serialVersionUID = 1L;
+
+  private final String objectsDirectory;
+
+  /** @param objectsDirectory The objects directory to borrow from, on the node of the repository */
+  AlternatesCallback(String objectsDirectory) {
+    this.objectsDirectory = objectsDirectory;
+  }
+
+  /** @return True if the alternate was added, false if the repository already had it */
+  @Override
+  public Boolean invoke(Repository repository, VirtualChannel channel) throws IOException {
+    if (!new File(objectsDirectory).isDirectory()) {
+      throw new IOException(objectsDirectory + " is not an objects directory");
+    }
+    File alternates = new File(repository.getDirectory(), "objects/info/alternates");
+    List<String> lines =
+        alternates.isFile()
+            ? Files.readAllLines(alternates.toPath(), StandardCharsets.UTF_8)
+            : Collections.emptyList();
+    if (lines.contains(objectsDirectory)) {
+      return false;
+    }
+    Files.createDirectories(alternates.toPath().getParent());
+    Files.write(
+        alternates.toPath(),
+        Collections.singletonList(objectsDirectory),
+        StandardCharsets.UTF_8,
+        StandardOpenOption.CREATE,
+        StandardOpenOption.APPEND);
+    return true;
+  }
+}
@@ -0,0 +1,41 @@
+package io.jenkins.plugins.git_push;
+
+import hudson.remoting.VirtualChannel;
+import java.io.IOException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.jenkinsci.plugins.gitclient.RepositoryCallback;
+
+/**
+ * Tells whether a commit is reachable from another one, using only the objects already present in
+ * the local repository.
+ *
+ * @author Réda Housni Alaoui
+ */
+class AncestryCallback implements RepositoryCallback<Boolean> {
+
+  private static final long serialVersionUID = 1L;
+
+  private final ObjectId ancestor;
+  private final ObjectId descendant;
+
+  AncestryCallback(ObjectId ancestor, ObjectId descendant) {
+    this.ancestor = ancestor;
+    this.descendant = descendant;
+  }
+
+  /**
+   * @return True if {@code ancestor} is known locally and is reachable from {@code descendant}.
+   *     False if it is not, or if the local repository does not have it.
+   */
+  @Override
+  public Boolean invoke(Repository repository, VirtualChannel channel) throws IOException {
+    if (!repository.getObjectDatabase().has(ancestor)) {
+      return false;
+    }
+    try (RevWalk walk = new RevWalk(repository)) {
+      return walk.isMergedInto(walk.parseCommit(ancestor), walk.parseCommit(descendant));
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package io.jenkins.plugins.git_push;
+
+import hudson.remoting.VirtualChannel;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import javax.annotation.CheckForNull;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.BundleWriter;
+import org.jenkinsci.plugins.gitclient.RepositoryCallback;
+
+/**
+ * Writes HEAD, as {@link #HEAD_REF}, and the tags created or moved since the {@link
+ * TagSnapshotCallback snapshot} of the repository to a git bundle, every tag if there is no
+ * snapshot. The objects reachable from the base revision, which the receiving repository already
+ * has, are left out.
+ *
+ * @author Réda Housni Alaoui
+ */
+class BundleCallback implements RepositoryCallback<Integer> {
+
+  private static final long serialVersionUID = 1L;
+
+  static final String HEAD_REF = "refs/git-push/head";
+
+  private final String base;
+  private final OutputStream output;
+
+  /**
+   * @param base The revision the receiving repository has. Null to bundle the whole history.
+   * @param output Where the bundle is written, left open
+   */
+  BundleCallback(@CheckForNull ObjectId base, OutputStream output) {
+    this.base = base == null ? null : base.name();
+    this.output = output;
+  }
+
+  /** @return The number of bundled refs */
+  @Override
+  public Integer invoke(Repository repository, VirtualChannel channel) throws IOException {
+    ObjectId head = repository.resolve(Constants.HEAD);
+    if (head == null) {
+      throw new IOException("No HEAD in " + repository.getDirectory());
+    }
+    BundleWriter writer = new BundleWriter(repository);
+    writer.include(HEAD_REF, head);
+    int refs = 1;
+    Map<String, ObjectId> snapshot = TagSnapshotCallback.read(repository);
+    for (Ref tag : repository.getRefDatabase().getRefsByPrefix(Constants.R_TAGS)) {
+      ObjectId objectId = tag.getObjectId();
+      if (objectId != null
+          && (snapshot == null || !objectId.equals(snapshot.get(tag.getName())))) {
+        writer.include(tag);
+        refs++;
+      }
+    }
+    if (base != null) {
+      ObjectId baseId = ObjectId.fromString(base);
+      if (repository.getObjectDatabase().has(baseId)) {
+        try (RevWalk walk = new RevWalk(repository)) {
+          writer.assume(walk.parseCommit(baseId));
+        }
+      }
+    }
+    writer.writeBundle(NullProgressMonitor.INSTANCE, output);
+    output.flush();
+    return refs;
+  }
+}
@@ -0,0 +1,110 @@
+package io.jenkins.plugins.git_push;
+
+import hudson.remoting.VirtualChannel;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import javax.annotation.CheckForNull;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.jenkinsci.plugins.gitclient.RepositoryCallback;
+
+/**
+ * Reads whether the repository is a shallow clone along with the depth of its history, and whether
+ * it is a partial clone along with the object filter of each promisor remote.
+ *
+ * @author Réda Housni Alaoui
+ */
+class CloneStateCallback implements RepositoryCallback<CloneStateCallback.State> {
+
+  private static final long serialVersionUID = 1L;
+
+  @Override
+  public State invoke(Repository repository, VirtualChannel channel) throws IOException {
+    boolean shallow = new File(repository.getDirectory(), "shallow").isFile();
+    int depth = 0;
+    ObjectId head = repository.resolve(Constants.HEAD);
+    if (shallow && head != null) {
+      // The walk stops at the shallow commits
+      try (RevWalk walk = new RevWalk(repository)) {
+        walk.markStart(walk.parseCommit(head));
+        for (RevCommit ignored : walk) {
+          depth++;
+        }
+      }
+    }
+    Config config = repository.getConfig();
+    HashMap<String, String> filters = new HashMap<>();
+    for (String remote : config.getSubsections("remote")) {
+      if (config.getBoolean("remote", remote, "promisor", false)) {
+        filters.put(remote, config.getString("remote", remote, "partialclonefilter"));
+      }
+    }
+    // Written by git 2.27 and older
+    String legacyRemote = config.getString("extensions", null, "partialclone");
+    if (legacyRemote != null && !filters.containsKey(legacyRemote)) {
+      String filter = config.getString("remote", legacyRemote, "partialclonefilter");
+      if (filter == null) {
+        filter = config.getString("core", null, "partialclonefilter");
+      }
+      filters.put(legacyRemote, filter);
+    }
+    return new State(shallow, depth, filters);
+  }
+
+  static class State implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final boolean shallow;
+    private final int depth;
+    private final HashMap<String, String> filters;
+
+    private State(boolean shallow, int depth, HashMap<String, String> filters) {
+      this.shallow = shallow;
+      this.depth = depth;
+      this.filters = filters;
+    }
+
+    /** @return True if the history is cut at shallow commits */
+    boolean isShallow() {
+      return shallow;
+    }
+
+    /**
+     * @return The number of commits in the history of HEAD down to the shallow commits, at least
+     *     the depth of that history. Zero if the history is complete.
+     */
+    int getDepth() {
+      return depth;
+    }
+
+    /** @return True if objects may be missing, to be fetched lazily from a promisor remote */
+    boolean isPartial() {
+      return !filters.isEmpty();
+    }
+
+    /** @return The object filter of the promisor remote {@code remote}, if any */
+    @CheckForNull
+    String getFilter(String remote) {
+      return filters.get(remote);
+    }
+
+    /** @return The object filters, keyed by promisor remote */
+    Map<String, String> getFilters() {
+      return filters;
+    }
+
+    @Override
+    public String toString() {
+      return (shallow ? "shallow, " + depth + " commit(s) deep" : "complete history")
+          + (filters.isEmpty() ? "" : ", partial clone " + filters);
+    }
+  }
+}
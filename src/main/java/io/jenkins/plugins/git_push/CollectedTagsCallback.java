@@ -0,0 +1,65 @@
+package io.jenkins.plugins.git_push;
+
+import hudson.remoting.VirtualChannel;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.jenkinsci.plugins.gitclient.RepositoryCallback;
+
+/**
+ * Moves the tags fetched under a staging prefix to {@code refs/tags/}, then deletes the staged
+ * refs. A tag the repository already has with another target is left as it is.
+ *
+ * @author Réda Housni Alaoui
+ */
+class CollectedTagsCallback implements RepositoryCallback<List<String>> {
+
+  private static final long serialVersionUID = 1L;
+
+  private final String prefix;
+
+  /** @param prefix The staging prefix the tags were fetched under, ending with a slash */
+  CollectedTagsCallback(String prefix) {
+    this.prefix = prefix;
+  }
+
+  /** @return The names of the tags left out because the repository has them with another target */
+  @Override
+  public List<String> invoke(Repository repository, VirtualChannel channel) throws IOException {
+    List<String> conflicts = new ArrayList<>();
+    for (Ref staged : repository.getRefDatabase().getRefsByPrefix(prefix)) {
+      String tagName = staged.getName().substring(prefix.length());
+      ObjectId objectId = staged.getObjectId();
+      try {
+        if (objectId == null) {
+          continue;
+        }
+        Ref existing = repository.exactRef(Constants.R_TAGS + tagName);
+        if (existing != null) {
+          if (!objectId.equals(existing.getObjectId())) {
+            conflicts.add(tagName);
+          }
+          continue;
+        }
+        RefUpdate update = repository.updateRef(Constants.R_TAGS + tagName);
+        update.setNewObjectId(objectId);
+        update.setExpectedOldObjectId(ObjectId.zeroId());
+        update.setRefLogMessage("git-push: collected", false);
+        RefUpdate.Result result = update.update();
+        if (result != RefUpdate.Result.NEW) {
+          throw new IOException("Failed to create " + Constants.R_TAGS + tagName + ": " + result);
+        }
+      } finally {
+        RefUpdate delete = repository.updateRef(staged.getName());
+        delete.setForceUpdate(true);
+        delete.delete();
+      }
+    }
+    return conflicts;
+  }
+}
@@ -0,0 +1,23 @@
+package io.jenkins.plugins.git_push;
+
+import hudson.util.FormValidation;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * The form checks shared by the descriptors of the plugin.
+ *
+ * @author Réda Housni Alaoui
+ */
+class FormValidations {
+
+  private FormValidations() {}
+
+  static FormValidation checkFieldNotEmpty(String value) {
+    value = StringUtils.strip(value);
+
+    if (value == null || value.equals("")) {
+      return FormValidation.error("This field is required");
+    }
+    return FormValidation.ok();
+  }
+}
@@ -15,6 +15,9 @@ import hudson.tasks.Recorder;
 import hudson.util.FormValidation;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import org.apache.commons.lang.StringUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
@@ -25,6 +28,29 @@ public class GitPush extends Recorder implements Serializable {
 
   private String targetBranch;
   private String targetRepo;
+  private List<GitPushTarget> targets;
+  private boolean singlePush;
+  private boolean narrowFetch;
+  private boolean refetchAfterPush;
+  private boolean preflight;
+  private boolean queue;
+  private int pushRetries;
+  private boolean runOnAgent;
+  private GitPushOptions.Engine engine;
+  private GitPushOptions.MergeMode mergeMode;
+  private GitPushOptions.PushTags pushTags;
+  private int targetConcurrency;
+  private boolean referenceStore;
+  private int maintenanceThreshold;
+  private GitPushOptions.PackTuning packTuning;
+  private int packCompression;
+  private int packWindow;
+  private int packDepth;
+  private int packThreads;
+  private boolean deduplicate;
+  private GitPushOptions.Session session;
+  private String refSpecs;
+  private boolean collectMatrixRuns;
 
   @DataBoundConstructor
   public GitPush() {
@@ -49,6 +75,243 @@ public class GitPush extends Recorder implements Serializable {
     return targetRepo;
   }
 
+  @DataBoundSetter
+  public void setTargets(List<GitPushTarget> targets) {
+    this.targets = targets;
+  }
+
+  /** @return The targets pushed to in addition to the target branch of the target repo */
+  public List<GitPushTarget> getTargets() {
+    return targets == null ? Collections.emptyList() : targets;
+  }
+
+  @DataBoundSetter
+  public void setSinglePush(boolean singlePush) {
+    this.singlePush = singlePush;
+  }
+
+  public boolean isSinglePush() {
+    return singlePush;
+  }
+
+  @DataBoundSetter
+  public void setNarrowFetch(boolean narrowFetch) {
+    this.narrowFetch = narrowFetch;
+  }
+
+  public boolean isNarrowFetch() {
+    return narrowFetch;
+  }
+
+  @DataBoundSetter
+  public void setRefetchAfterPush(boolean refetchAfterPush) {
+    this.refetchAfterPush = refetchAfterPush;
+  }
+
+  public boolean isRefetchAfterPush() {
+    return refetchAfterPush;
+  }
+
+  @DataBoundSetter
+  public void setPreflight(boolean preflight) {
+    this.preflight = preflight;
+  }
+
+  public boolean isPreflight() {
+    return preflight;
+  }
+
+  @DataBoundSetter
+  public void setQueue(boolean queue) {
+    this.queue = queue;
+  }
+
+  public boolean isQueue() {
+    return queue;
+  }
+
+  @DataBoundSetter
+  public void setPushRetries(int pushRetries) {
+    this.pushRetries = pushRetries;
+  }
+
+  public int getPushRetries() {
+    return pushRetries;
+  }
+
+  @DataBoundSetter
+  public void setRunOnAgent(boolean runOnAgent) {
+    this.runOnAgent = runOnAgent;
+  }
+
+  public boolean isRunOnAgent() {
+    return runOnAgent;
+  }
+
+  @DataBoundSetter
+  public void setEngine(GitPushOptions.Engine engine) {
+    this.engine = engine;
+  }
+
+  public GitPushOptions.Engine getEngine() {
+    return engine;
+  }
+
+  @DataBoundSetter
+  public void setMergeMode(GitPushOptions.MergeMode mergeMode) {
+    this.mergeMode = mergeMode;
+  }
+
+  public GitPushOptions.MergeMode getMergeMode() {
+    return mergeMode;
+  }
+
+  @DataBoundSetter
+  public void setPushTags(GitPushOptions.PushTags pushTags) {
+    this.pushTags = pushTags;
+  }
+
+  public GitPushOptions.PushTags getPushTags() {
+    return pushTags;
+  }
+
+  @DataBoundSetter
+  public void setTargetConcurrency(int targetConcurrency) {
+    this.targetConcurrency = targetConcurrency;
+  }
+
+  public int getTargetConcurrency() {
+    return targetConcurrency;
+  }
+
+  @DataBoundSetter
+  public void setReferenceStore(boolean referenceStore) {
+    this.referenceStore = referenceStore;
+  }
+
+  public boolean isReferenceStore() {
+    return referenceStore;
+  }
+
+  @DataBoundSetter
+  public void setMaintenanceThreshold(int maintenanceThreshold) {
+    this.maintenanceThreshold = maintenanceThreshold;
+  }
+
+  public int getMaintenanceThreshold() {
+    return maintenanceThreshold;
+  }
+
+  @DataBoundSetter
+  public void setPackTuning(GitPushOptions.PackTuning packTuning) {
+    this.packTuning = packTuning;
+  }
+
+  public GitPushOptions.PackTuning getPackTuning() {
+    return packTuning;
+  }
+
+  @DataBoundSetter
+  public void setPackCompression(int packCompression) {
+    this.packCompression = packCompression;
+  }
+
+  public int getPackCompression() {
+    return packCompression;
+  }
+
+  @DataBoundSetter
+  public void setPackWindow(int packWindow) {
+    this.packWindow = packWindow;
+  }
+
+  public int getPackWindow() {
+    return packWindow;
+  }
+
+  @DataBoundSetter
+  public void setPackDepth(int packDepth) {
+    this.packDepth = packDepth;
+  }
+
+  public int getPackDepth() {
+    return packDepth;
+  }
+
+  @DataBoundSetter
+  public void setPackThreads(int packThreads) {
+    this.packThreads = packThreads;
+  }
+
+  public int getPackThreads() {
+    return packThreads;
+  }
+
+  @DataBoundSetter
+  public void setDeduplicate(boolean deduplicate) {
+    this.deduplicate = deduplicate;
+  }
+
+  public boolean isDeduplicate() {
+    return deduplicate;
+  }
+
+  @DataBoundSetter
+  public void setSession(GitPushOptions.Session session) {
+    this.session = session;
+  }
+
+  public GitPushOptions.Session getSession() {
+    return session;
+  }
+
+  /** @param refSpecs Additional refspecs pushed along with the target branch, one per line */
+  @DataBoundSetter
+  public void setRefSpecs(String refSpecs) {
+    this.refSpecs = refSpecs;
+  }
+
+  public String getRefSpecs() {
+    return refSpecs;
+  }
+
+  /**
+   * @param collectMatrixRuns True to collect the commits and tags of each configuration run of a
+   *     matrix project as it completes, and push them along with the matrix build
+   */
+  @DataBoundSetter
+  public void setCollectMatrixRuns(boolean collectMatrixRuns) {
+    this.collectMatrixRuns = collectMatrixRuns;
+  }
+
+  public boolean isCollectMatrixRuns() {
+    return collectMatrixRuns;
+  }
+
+  private GitPushOptions options() {
+    return new GitPushOptions()
+        .singlePush(singlePush)
+        .narrowFetch(narrowFetch)
+        .refetchAfterPush(refetchAfterPush)
+        .preflight(preflight)
+        .queue(queue)
+        .pushRetries(pushRetries)
+        .runOnAgent(runOnAgent)
+        .engine(engine)
+        .mergeMode(mergeMode)
+        .pushTags(pushTags)
+        .targetConcurrency(targetConcurrency)
+        .referenceStore(referenceStore)
+        .maintenanceThreshold(maintenanceThreshold)
+        .packTuning(packTuning)
+        .packCompression(packCompression)
+        .packWindow(packWindow)
+        .packDepth(packDepth)
+        .packThreads(packThreads)
+        .deduplicate(deduplicate)
+        .session(session);
+  }
+
   @Override
   public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
       throws InterruptedException, IOException {
@@ -74,14 +337,47 @@ public class GitPush extends Recorder implements Serializable {
 
     GitSCM gitSCM = (GitSCM) scm;
     EnvVars environment = build.getEnvironment(listener);
-    try {
-      new GitPushCommand(gitSCM, build, listener, build.getWorkspace())
-          .call(environment.expand(targetBranch), environment.expand(targetRepo));
-    } catch (GitPushCommand.Failure e) {
-      e.printStackTrace(listener.error(e.getMessage()));
-      return false;
+    List<GitPushTarget> expandedTargets = new ArrayList<>();
+    expandedTargets.add(
+        new GitPushTarget(environment.expand(targetRepo), environment.expand(targetBranch)));
+    for (GitPushTarget target : getTargets()) {
+      GitPushTarget expandedTarget =
+          new GitPushTarget(
+              environment.expand(target.getTargetRepo()),
+              environment.expand(target.getTargetBranch()));
+      expandedTarget.setBestEffort(target.isBestEffort());
+      expandedTargets.add(expandedTarget);
+    }
+
+    List<String> expandedRefSpecs = new ArrayList<>();
+    for (String refSpec : StringUtils.defaultString(refSpecs).split("\\R")) {
+      if (StringUtils.isNotBlank(refSpec)) {
+        expandedRefSpecs.add(environment.expand(refSpec.trim()));
+      }
     }
-    return true;
+
+    List<GitPushTargetResult> results =
+        new GitPushCommand(gitSCM, build, listener, build.getWorkspace())
+            .options(options().refSpecs(expandedRefSpecs))
+            .environment(environment)
+            .call(expandedTargets);
+    boolean success = true;
+    for (GitPushTargetResult result : results) {
+      Exception error = result.getError();
+      if (error == null) {
+        continue;
+      }
+      if (result.getTarget().isBestEffort()) {
+        listener
+            .getLogger()
+            .println(
+                "Best-effort push to " + result.getTarget() + " failed: " + error.getMessage());
+      } else {
+        error.printStackTrace(listener.error(error.getMessage()));
+        success = false;
+      }
+    }
+    return success;
   }
 
   @Extension
@@ -98,20 +394,11 @@ public class GitPush extends Recorder implements Serializable {
     }
 
     public FormValidation doCheckTargetBranch(@QueryParameter String targetBranch) {
-      return checkFieldNotEmpty(targetBranch);
+      return FormValidations.checkFieldNotEmpty(targetBranch);
     }
 
     public FormValidation doCheckTargetRepo(@QueryParameter String targetRepo) {
-      return checkFieldNotEmpty(targetRepo);
-    }
-
-    private FormValidation checkFieldNotEmpty(String value) {
-      value = StringUtils.strip(value);
-
-      if (value == null || value.equals("")) {
-        return FormValidation.error("This field is required");
-      }
-      return FormValidation.ok();
+      return FormValidations.checkFieldNotEmpty(targetRepo);
     }
   }
 }
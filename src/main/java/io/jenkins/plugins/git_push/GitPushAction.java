@@ -0,0 +1,216 @@
+package io.jenkins.plugins.git_push;
+
+import hudson.model.Api;
+import hudson.model.Run;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.CheckForNull;
+import jenkins.model.RunAction2;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * The pushes done by a run, with the duration of each phase. Shown on the run page, at {@code
+ * <run>/git-push/} and through {@code <run>/git-push/api/json}.
+ *
+ * @author Réda Housni Alaoui
+ */
+@ExportedBean
+public class GitPushAction implements RunAction2 {
+
+  private final List<Entry> entries = new ArrayList<>();
+  /** Null when loaded from a run recorded before checkpoints existed */
+  private Map<String, GitPushCheckpoint> checkpoints = new LinkedHashMap<>();
+
+  private transient Run<?, ?> run;
+
+  /** @return The action of {@code run}, attached to it if it did not have one yet */
+  static GitPushAction of(Run<?, ?> run) {
+    synchronized (run) {
+      GitPushAction action = run.getAction(GitPushAction.class);
+      if (action == null) {
+        action = new GitPushAction();
+        run.addAction(action);
+      }
+      return action;
+    }
+  }
+
+  synchronized void add(Entry entry) {
+    entries.add(entry);
+  }
+
+  @Exported
+  public synchronized List<Entry> getEntries() {
+    return new ArrayList<>(entries);
+  }
+
+  /**
+   * @param target The target repo and target branch
+   * @return The checkpoint of the last unfinished push to {@code target}
+   */
+  @CheckForNull
+  synchronized GitPushCheckpoint getCheckpoint(String target) {
+    return checkpoints == null ? null : checkpoints.get(target);
+  }
+
+  /** @param checkpoint The checkpoint of {@code target}. Null once the push is done. */
+  synchronized void putCheckpoint(String target, @CheckForNull GitPushCheckpoint checkpoint) {
+    if (checkpoints == null) {
+      checkpoints = new LinkedHashMap<>();
+    }
+    if (checkpoint == null) {
+      checkpoints.remove(target);
+    } else {
+      checkpoints.put(target, checkpoint);
+    }
+  }
+
+  /** @return The checkpoints of the unfinished pushes, keyed by target */
+  @Exported
+  public synchronized Map<String, GitPushCheckpoint> getCheckpoints() {
+    return checkpoints == null
+        ? Collections.emptyMap()
+        : Collections.unmodifiableMap(new LinkedHashMap<>(checkpoints));
+  }
+
+  public Api getApi() {
+    return new Api(this);
+  }
+
+  @CheckForNull
+  public Run<?, ?> getRun() {
+    return run;
+  }
+
+  @Override
+  public void onAttached(Run<?, ?> run) {
+    this.run = run;
+  }
+
+  @Override
+  public void onLoad(Run<?, ?> run) {
+    this.run = run;
+  }
+
+  @Override
+  public String getIconFileName() {
+    return null;
+  }
+
+  @Override
+  public String getDisplayName() {
+    return "Git Push";
+  }
+
+  @Override
+  public String getUrlName() {
+    return "git-push";
+  }
+
+  /** One push to one target, successful or not */
+  @ExportedBean(defaultVisibility = 2)
+  public static class Entry {
+
+    private final String target;
+    private String remote;
+    private final Map<String, Long> phaseMillis = new LinkedHashMap<>();
+    private long totalMillis;
+    private int attempts;
+    private int rejections;
+    private int pushedRefs;
+    private String pushedRev;
+    private String error;
+
+    Entry(String target) {
+      this.target = target;
+    }
+
+    void setRemote(String remote) {
+      this.remote = remote;
+    }
+
+    void recordAttempt(boolean rejected) {
+      attempts++;
+      if (rejected) {
+        rejections++;
+      }
+    }
+
+    void succeeded(GitPushResult result) {
+      phaseMillis.putAll(result.getPhaseMillis());
+      pushedRefs = result.getRefStatuses().size();
+      pushedRev = result.getPushedRev() == null ? null : result.getPushedRev().name();
+    }
+
+    void failed(Exception error) {
+      this.error = error.getMessage() == null ? error.toString() : error.getMessage();
+    }
+
+    void setTotalMillis(long totalMillis) {
+      this.totalMillis = totalMillis;
+    }
+
+    /** @return The target repo and target branch */
+    @Exported
+    public String getTarget() {
+      return target;
+    }
+
+    /** @return The URL of the target repo, without password. Null if it could not be resolved. */
+    @Exported
+    @CheckForNull
+    public String getRemote() {
+      return remote;
+    }
+
+    /** @return The duration of each phase of the successful attempt, in execution order */
+    @Exported
+    public Map<String, Long> getPhaseMillis() {
+      return Collections.unmodifiableMap(phaseMillis);
+    }
+
+    /** @return The duration of the whole push, retries and waits included */
+    @Exported
+    public long getTotalMillis() {
+      return totalMillis;
+    }
+
+    @Exported
+    public int getAttempts() {
+      return attempts;
+    }
+
+    /** @return The number of attempts the remote rejected */
+    @Exported
+    public int getRejections() {
+      return rejections;
+    }
+
+    /** @return The number of refs (branch, tags) sent by the successful attempt */
+    @Exported
+    public int getPushedRefs() {
+      return pushedRefs;
+    }
+
+    @Exported
+    @CheckForNull
+    public String getPushedRev() {
+      return pushedRev;
+    }
+
+    @Exported
+    public boolean isSuccess() {
+      return error == null;
+    }
+
+    @Exported
+    @CheckForNull
+    public String getError() {
+      return error;
+    }
+  }
+}
@@ -0,0 +1,50 @@
+package io.jenkins.plugins.git_push;
+
+import hudson.FilePath;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import jenkins.MasterToSlaveFileCallable;
+import org.jenkinsci.plugins.gitclient.GitClient;
+
+/**
+ * Runs a whole {@link GitPushSequence} on the node owning the workspace. The git client is created
+ * on that node, so none of the git commands needs a remoting round trip.
+ *
+ * @author Réda Housni Alaoui
+ */
+class GitPushCallable extends MasterToSlaveFileCallable<GitPushResult> {
+
+  private static final long serialVersionUID = 1L;
+
+  private final GitPushSequence sequence;
+  private final GitPushClientFactory clientFactory;
+  private final GitPushCheckpoint.Store checkpoints;
+  private final TaskListener listener;
+
+  /** @param checkpoints The store of the controller, exported through the remoting channel */
+  GitPushCallable(
+      GitPushSequence sequence,
+      GitPushClientFactory clientFactory,
+      GitPushCheckpoint.Store checkpoints,
+      TaskListener listener) {
+    this.sequence = sequence;
+    this.clientFactory = clientFactory;
+    this.checkpoints = checkpoints;
+    this.listener = listener;
+  }
+
+  @Override
+  public GitPushResult invoke(File workingDirectory, VirtualChannel channel)
+      throws IOException, InterruptedException {
+    long start = System.nanoTime();
+    GitClient git = clientFactory.create(new FilePath(workingDirectory), listener);
+    GitPushResult result = new GitPushResult();
+    result.recordPhase("client", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+    sequence.run(git, listener, result, checkpoints);
+    return result;
+  }
+}
@@ -0,0 +1,138 @@
+package io.jenkins.plugins.git_push;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import javax.annotation.CheckForNull;
+import org.eclipse.jgit.lib.ObjectId;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * The phases of a {@link GitPushSequence} already done for one target: the fetched tip of the
+ * target branch, the commit to push and the refs already pushed. A failed push run again, by a
+ * retry or after a controller restart, resumes from there instead of fetching, merging and pushing
+ * from scratch.
+ *
+ * <p>A checkpoint only holds for the HEAD it was taken from. The revisions are kept as names so
+ * that the checkpoint can be stored with the run.
+ *
+ * @author Réda Housni Alaoui
+ */
+@ExportedBean(defaultVisibility = 2)
+public class GitPushCheckpoint implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final String head;
+  private String fetchedRev;
+  private String pushedRev;
+  private final ArrayList<String> pushedRefs = new ArrayList<>();
+
+  GitPushCheckpoint(ObjectId head) {
+    this.head = head.name();
+  }
+
+  /**
+   * @return True if the checkpoint was taken from {@code currentHead}, or from the commit {@code
+   *     currentHead} was merged into by a working tree merge
+   */
+  boolean isValidFor(ObjectId currentHead) {
+    return currentHead.name().equals(head) || currentHead.name().equals(pushedRev);
+  }
+
+  void fetched(ObjectId fetchedRev) {
+    this.fetchedRev = fetchedRev.name();
+  }
+
+  void merged(ObjectId pushedRev) {
+    this.pushedRev = pushedRev.name();
+  }
+
+  void pushed(Collection<String> refs) {
+    for (String ref : refs) {
+      if (!pushedRefs.contains(ref)) {
+        pushedRefs.add(ref);
+      }
+    }
+  }
+
+  boolean isPushed(String ref) {
+    return pushedRefs.contains(ref);
+  }
+
+  @CheckForNull
+  ObjectId getFetchedObjectId() {
+    return fetchedRev == null ? null : ObjectId.fromString(fetchedRev);
+  }
+
+  @CheckForNull
+  ObjectId getPushedObjectId() {
+    return pushedRev == null ? null : ObjectId.fromString(pushedRev);
+  }
+
+  /** @return The HEAD of the workspace when the push started */
+  @Exported
+  public String getHead() {
+    return head;
+  }
+
+  /** @return The tip of the target branch, once fetched */
+  @Exported
+  @CheckForNull
+  public String getFetchedRev() {
+    return fetchedRev;
+  }
+
+  /** @return The commit to push, once merged */
+  @Exported
+  @CheckForNull
+  public String getPushedRev() {
+    return pushedRev;
+  }
+
+  /** @return The refs already pushed, {@link GitPushSequence#ALL_TAGS} standing for the tags */
+  @Exported
+  public List<String> getPushedRefs() {
+    return Collections.unmodifiableList(pushedRefs);
+  }
+
+  @Override
+  public String toString() {
+    if (pushedRev != null) {
+      return "merged " + pushedRev + (pushedRefs.isEmpty() ? "" : ", pushed " + pushedRefs);
+    }
+    return fetchedRev == null ? "started from " + head : "fetched " + fetchedRev;
+  }
+
+  /**
+   * Where the checkpoints of a target are kept. It lives on the controller, a sequence running on
+   * an agent reaches it through the remoting channel, hence the public visibility.
+   */
+  public interface Store {
+
+    @CheckForNull
+    GitPushCheckpoint get();
+
+    /** @param checkpoint The new checkpoint. Null to start over. */
+    void put(@CheckForNull GitPushCheckpoint checkpoint);
+
+    /**
+     * @return The commit a recent push, possibly from another build, sent to the target ref from
+     *     {@code head}, according to the {@link GitPushDedupCache}. Null if there is none.
+     */
+    @CheckForNull
+    ObjectId recall(ObjectId head);
+
+    /**
+     * @param confirmed True if the target ref still points to the recalled commit, false if it
+     *     moved since
+     */
+    void recalled(ObjectId head, boolean confirmed);
+
+    /** Remembers that the target ref was pushed {@code pushedRev} from {@code head} */
+    void remember(ObjectId head, ObjectId pushedRev);
+  }
+}
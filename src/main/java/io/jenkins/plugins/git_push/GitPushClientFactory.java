@@ -0,0 +1,68 @@
+package io.jenkins.plugins.git_push;
+
+import com.cloudbees.plugins.credentials.common.StandardCredentials;
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.model.TaskListener;
+import java.io.IOException;
+import java.io.Serializable;
+import javax.annotation.CheckForNull;
+import org.jenkinsci.plugins.gitclient.Git;
+import org.jenkinsci.plugins.gitclient.GitClient;
+import org.jenkinsci.plugins.gitclient.JGitTool;
+
+/**
+ * Creates git clients without going through {@link hudson.plugins.git.GitSCM#createClient}, so that
+ * the git implementation can be chosen freely and the client can be created on any node.
+ *
+ * @author Réda Housni Alaoui
+ */
+class GitPushClientFactory implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final String gitExe;
+  private final EnvVars environment;
+  private final String credentialsURL;
+  private final StandardCredentials credentials;
+
+  /**
+   * @param gitExe The git executable, or {@link JGitTool#MAGIC_EXENAME} for JGit
+   * @param credentialsURL The URL the credentials must be used for
+   * @param credentials A snapshot of the credentials of the target remote, if any
+   */
+  GitPushClientFactory(
+      String gitExe,
+      EnvVars environment,
+      String credentialsURL,
+      @CheckForNull StandardCredentials credentials) {
+    this.gitExe = gitExe;
+    this.environment = environment;
+    this.credentialsURL = credentialsURL;
+    this.credentials = credentials;
+  }
+
+  /**
+   * @param workingDirectory The directory of the git repository. When it belongs to another node,
+   *     the returned client forwards every command to that node.
+   */
+  GitClient create(FilePath workingDirectory, TaskListener listener)
+      throws IOException, InterruptedException {
+    GitClient git = Git.with(listener, environment).in(workingDirectory).using(gitExe).getClient();
+    if (credentials != null) {
+      git.addCredentials(credentialsURL, credentials);
+    }
+    // The command line git reads the identity from the environment, JGit needs it explicitly
+    String committerName = environment.get("GIT_COMMITTER_NAME");
+    String committerEmail = environment.get("GIT_COMMITTER_EMAIL");
+    if (committerName != null && committerEmail != null) {
+      git.setCommitter(committerName, committerEmail);
+    }
+    String authorName = environment.get("GIT_AUTHOR_NAME");
+    String authorEmail = environment.get("GIT_AUTHOR_EMAIL");
+    if (authorName != null && authorEmail != null) {
+      git.setAuthor(authorName, authorEmail);
+    }
+    return git;
+  }
+}
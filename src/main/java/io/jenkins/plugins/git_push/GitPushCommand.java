@@ -1,25 +1,79 @@
 package io.jenkins.plugins.git_push;
 
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.common.StandardCredentials;
+import com.cloudbees.plugins.credentials.domains.URIRequirementBuilder;
 import hudson.AbortException;
 import hudson.EnvVars;
 import hudson.FilePath;
+import hudson.model.Computer;
+import hudson.model.Node;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.plugins.git.GitException;
 import hudson.plugins.git.GitSCM;
+import hudson.plugins.git.UserRemoteConfig;
+import hudson.plugins.git.extensions.GitSCMExtension;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import javax.annotation.CheckForNull;
+import jenkins.model.Jenkins;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.transport.RefSpec;
 import org.eclipse.jgit.transport.RemoteConfig;
 import org.eclipse.jgit.transport.URIish;
+import org.jenkinsci.plugins.gitclient.Git;
 import org.jenkinsci.plugins.gitclient.GitClient;
+import org.jenkinsci.plugins.gitclient.JGitTool;
 
 /** @author Réda Housni Alaoui */
 public class GitPushCommand {
 
+  private static final long INITIAL_BACKOFF_MILLIS = 1000;
+  private static final long MAX_BACKOFF_MILLIS = 30000;
+  /** The share of binary content above which {@link GitPushOptions.PackTuning#AUTO} kicks in */
+  private static final double MIN_BINARY_SHARE = 0.5;
+
   private final GitSCM scm;
   private final Run<?, ?> run;
   private final TaskListener listener;
   private final FilePath workspace;
+  /** The environment the caller already resolved, if any */
+  private EnvVars environment;
+  /** True if run by a {@code gitPush} step, see {@link GitPushLimits#MAX_STEP_PUSHES} */
+  private boolean fromStep;
+  /** The session held during a call, if any */
+  private GitPushSession session;
+  /** The HEAD the working tree merges of a call start from, if several targets share them */
+  private ObjectId startHead;
+  /** The duration of the maintenance run once per call, recorded in the phases of each target */
+  private Map<String, Long> maintenanceMillis = Collections.emptyMap();
+  /** The clone state of the workspace repository, read once per call. Null if it failed. */
+  private CloneStateCallback.State cloneState;
+
+  private GitPushOptions options = new GitPushOptions();
+  private ConcurrentMap<String, GitPushCheckpoint> checkpoints = new ConcurrentHashMap<>();
+  /** True if the checkpoints have to survive a restart, see {@link #checkpoints(ConcurrentMap)} */
+  private boolean durableCheckpoints;
 
   public GitPushCommand(GitSCM scm, Run<?, ?> run, TaskListener listener, FilePath workspace) {
     this.scm = scm;
@@ -28,13 +82,295 @@ public class GitPushCommand {
     this.workspace = workspace;
   }
 
-  public void call(String targetBranch, String targetRepo)
+  public GitPushCommand options(GitPushOptions options) {
+    this.options = options;
+    return this;
+  }
+
+  /** Makes the pushes take a slot of the {@code gitPush} steps */
+  GitPushCommand fromStep() {
+    this.fromStep = true;
+    return this;
+  }
+
+  /** @param environment The build environment, when the caller already resolved it */
+  public GitPushCommand environment(EnvVars environment) {
+    this.environment = environment;
+    return this;
+  }
+
+  /**
+   * Makes the checkpoints survive a restart of the controller: the run is saved each time the
+   * checkpoint of a target changes. Without it, the checkpoints only live in the run in memory,
+   * enough to resume a push run again by the same build.
+   *
+   * @param checkpoints Where the checkpoints of the targets are kept, in addition to the run. A
+   *     push resumes from the checkpoint of its target.
+   */
+  public GitPushCommand checkpoints(ConcurrentMap<String, GitPushCheckpoint> checkpoints) {
+    this.checkpoints = checkpoints;
+    this.durableCheckpoints = true;
+    return this;
+  }
+
+  public GitPushResult call(String targetBranch, String targetRepo)
       throws IOException, InterruptedException, Failure {
-    EnvVars environment = run.getEnvironment(listener);
+    GitPushTargetResult result =
+        call(Collections.singletonList(new GitPushTarget(targetRepo, targetBranch))).get(0);
+    Exception error = result.getError();
+    if (error instanceof Failure) {
+      throw (Failure) error;
+    }
+    if (error instanceof IOException) {
+      throw (IOException) error;
+    }
+    return result.getResult();
+  }
+
+  /**
+   * Pushes to every target in parallel, running at most {@link
+   * GitPushOptions#getTargetConcurrency()} pushes at a time. A failed push does not stop the
+   * others.
+   *
+   * @return The outcome of each target, in the order of {@code targets}
+   */
+  public List<GitPushTargetResult> call(List<GitPushTarget> targets)
+      throws IOException, InterruptedException {
+    for (String refSpec : options.getRefSpecs()) {
+      try {
+        GitPushSequence.parseRefSpec(refSpec);
+      } catch (IllegalArgumentException e) {
+        throw new AbortException(e.getMessage());
+      }
+    }
+    if (options.getSession() != GitPushOptions.Session.NONE) {
+      session =
+          GitPushSession.acquire(
+              run, workspace, options.getSession() == GitPushOptions.Session.RENEW, listener);
+    }
+    if (session == null) {
+      return callTargets(targets);
+    }
+    session.attach(listener);
+    try {
+      return callTargets(targets);
+    } finally {
+      session.release(listener);
+      session = null;
+    }
+  }
+
+  private List<GitPushTargetResult> callTargets(List<GitPushTarget> targets)
+      throws IOException, InterruptedException {
+    // Only the environment of the build is kept, the one given by the caller may change between
+    // the pushes of a session
+    EnvVars environment =
+        new EnvVars(
+            this.environment == null
+                ? cached("environment", () -> run.getEnvironment(listener))
+                : this.environment);
+    if (options.getPushTags() == GitPushOptions.PushTags.CREATED) {
+      GitPushTagSnapshot.request(run);
+    }
+    if (options.isNarrowFetch()) {
+      TransientGitConfig.apply(environment, Collections.singletonMap("protocol.version", "2"));
+    }
+    FilePath workingDirectory =
+        cached(
+            Arrays.asList("working directory", new EnvVars(environment)),
+            () -> workingDirectory(environment));
+    if (options.isReferenceStore()) {
+      ReferenceStore.used(run);
+    } else if (ReferenceStore.wasUsed(run)) {
+      releaseReferenceStore(environment, workingDirectory);
+    }
+    Map<String, String> packSettings = packSettings(targets, environment, workingDirectory);
+    if (!packSettings.isEmpty()) {
+      listener.getLogger().println("Building the pack with " + packSettings);
+      TransientGitConfig.apply(environment, packSettings);
+    }
+    cloneState = cloneState(environment, workingDirectory);
+    Map<String, String> partialCloneSettings =
+        cloneState == null ? Collections.emptyMap() : partialCloneSettings(targets, environment);
+    if (!partialCloneSettings.isEmpty()) {
+      TransientGitConfig.apply(environment, partialCloneSettings);
+    }
+
+    // Once for all the targets, concurrent writes of the commit-graph would fail on its lock
+    maintenanceMillis = new LinkedHashMap<>();
+    if (options.getMaintenanceThreshold() > 0) {
+      GitPushTarget probeTarget = targets.get(0);
+      maintain(
+          probeTarget.getTargetRepo(),
+          probeTarget.getTargetBranch(),
+          environment,
+          workingDirectory,
+          maintenanceMillis);
+    }
+
+    if (targets.size() == 1) {
+      startHead = null;
+      long start = System.nanoTime();
+      GitClient sharedClient = createSharedClient(environment, null);
+      long sharedClientMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      return Collections.singletonList(
+          callTarget(
+              targets.get(0), environment, workingDirectory, sharedClient, sharedClientMillis));
+    }
+
+    int concurrency = options.getTargetConcurrency();
+    if (concurrency <= 0 || concurrency > targets.size()) {
+      concurrency = targets.size();
+    }
+    listener.getLogger().println("Pushing to " + targets + ", " + concurrency + " at a time");
+    // Each target merges into the HEAD of the checkout, not into the merge of another target
+    startHead =
+        options.getMergeMode() == GitPushOptions.MergeMode.WORKING_TREE
+            ? nodeJGit(environment, workingDirectory).revParse(Constants.HEAD)
+            : null;
+    ExecutorService executor =
+        Executors.newFixedThreadPool(
+            concurrency,
+            new NamingThreadFactory(
+                new DaemonThreadFactory(), "git-push " + run.getExternalizableId()));
+    try {
+      List<Future<GitPushTargetResult>> futures = new ArrayList<>();
+      for (GitPushTarget target : targets) {
+        futures.add(
+            executor.submit(
+                () -> {
+                  long start = System.nanoTime();
+                  GitClient targetClient = createSharedClient(environment, target);
+                  long targetClientMillis =
+                      TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                  return callTarget(
+                      target, environment, workingDirectory, targetClient, targetClientMillis);
+                }));
+      }
+      List<GitPushTargetResult> results = new ArrayList<>();
+      for (Future<GitPushTargetResult> future : futures) {
+        try {
+          results.add(future.get());
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof InterruptedException) {
+            throw (InterruptedException) cause;
+          }
+          if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          }
+          if (cause instanceof Error) {
+            throw (Error) cause;
+          }
+          throw new IOException(cause);
+        }
+      }
+      return results;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * @param target The target pushed concurrently with others, which gets a client of its own since
+   *     the clients are not thread-safe. Null if the target is pushed alone.
+   * @return The client any target can use, or null if each target needs its own. The command line
+   *     git client created by the SCM holds the credentials of every remote.
+   */
+  @CheckForNull
+  private GitClient createSharedClient(EnvVars environment, @CheckForNull GitPushTarget target)
+      throws IOException, InterruptedException {
+    if (options.isRunOnAgent() || options.getEngine() == GitPushOptions.Engine.JGIT) {
+      return null;
+    }
+    return cached(
+        target == null
+            ? Arrays.asList("client", new EnvVars(environment))
+            : Arrays.asList(
+                "client",
+                new EnvVars(environment),
+                target.getTargetRepo(),
+                target.getTargetBranch()),
+        () ->
+            scm.createClient(
+                clientListener(), environment, run, workspace, new GitPushUnsupportedCommand()));
+  }
+
+  /**
+   * @param key What the value depends on
+   * @return The value resolved by an earlier push of the {@link GitPushSession}, if any
+   */
+  private <T> T cached(Object key, GitPushSession.Resolver<T> resolver)
+      throws IOException, InterruptedException {
+    return session == null ? resolver.resolve() : session.get(key, resolver);
+  }
 
-    GitClient git =
-        scm.createClient(listener, environment, run, workspace, new GitPushUnsupportedCommand());
+  /** @return The listener to create the git clients with */
+  private TaskListener clientListener() {
+    return session == null ? listener : session.getClientListener();
+  }
+
+  private GitPushTargetResult callTarget(
+      GitPushTarget target,
+      EnvVars environment,
+      FilePath workingDirectory,
+      @CheckForNull GitClient sharedClient,
+      long sharedClientMillis)
+      throws InterruptedException {
+    String targetRepo = target.getTargetRepo();
+    GitPushAction.Entry entry = new GitPushAction.Entry(target.toString());
+    long start = System.nanoTime();
+    GitPushTargetResult targetResult;
+    try {
+      GitPushResult result =
+          push(
+              target.getTargetBranch(),
+              targetRepo,
+              environment,
+              workingDirectory,
+              sharedClient,
+              sharedClientMillis,
+              entry);
+      entry.succeeded(result);
+      targetResult = GitPushTargetResult.success(target, result);
+    } catch (Failure | IOException e) {
+      targetResult = GitPushTargetResult.failure(target, e);
+    } catch (GitException e) {
+      targetResult =
+          GitPushTargetResult.failure(target, new Failure("Failed to push to " + targetRepo, e));
+    }
+    entry.setTotalMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+    Exception error = targetResult.getError();
+    if (error == null) {
+      listener
+          .getLogger()
+          .println(
+              "Pushed to "
+                  + target
+                  + " in "
+                  + entry.getTotalMillis()
+                  + " ms ("
+                  + describe(entry.getPhaseMillis())
+                  + ")");
+    } else {
+      entry.failed(error);
+    }
+    GitPushAction.of(run).add(entry);
+    String remote = entry.getRemote();
+    GitPushMetrics.get().record(remote == null ? targetRepo : remote, entry);
+    return targetResult;
+  }
 
+  private GitPushResult push(
+      String targetBranch,
+      String targetRepo,
+      EnvVars environment,
+      FilePath workingDirectory,
+      @CheckForNull GitClient sharedClient,
+      long sharedClientMillis,
+      GitPushAction.Entry entry)
+      throws IOException, InterruptedException, Failure {
     RemoteConfig remote = scm.getRepositoryByName(targetRepo);
     if (remote == null) {
       throw new AbortException("No repository found for target repo name '" + targetRepo + "'");
@@ -42,22 +378,586 @@ public class GitPushCommand {
 
     remote = scm.getParamExpandedRepo(environment, remote);
     URIish remoteURI = remote.getURIs().get(0);
+    entry.setRemote(remoteURI.toString());
+
+    String remoteTrackingRef = Constants.R_REMOTES + targetRepo + "/" + targetBranch;
+    List<RefSpec> fetchRefSpecs;
+    if (options.isNarrowFetch()) {
+      fetchRefSpecs =
+          Collections.singletonList(
+              new RefSpec("+" + Constants.R_HEADS + targetBranch + ":" + remoteTrackingRef));
+      listener.getLogger().println("Fetching only " + fetchRefSpecs.get(0));
+    } else {
+      fetchRefSpecs = remote.getFetchRefSpecs();
+    }
+
+    GitClient git = sharedClient;
+    GitPushClientFactory clientFactory = null;
+    long clientMillis = sharedClientMillis;
+    if (options.isRunOnAgent()) {
+      clientFactory = createClientFactory(environment, workingDirectory, targetRepo, remoteURI);
+    } else if (git == null) {
+      long start = System.nanoTime();
+      GitPushClientFactory targetClientFactory =
+          createClientFactory(environment, workingDirectory, targetRepo, remoteURI);
+      git =
+          cached(
+              Arrays.asList("client", targetClientFactory, targetBranch),
+              () -> targetClientFactory.create(workingDirectory, clientListener()));
+      clientMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    // Phases run once, before the first attempt
+    Map<String, Long> preparationMillis = new LinkedHashMap<>();
+    if (options.isReferenceStore()) {
+      long start = System.nanoTime();
+      GitPushClientFactory storeClientFactory =
+          clientFactory == null
+              ? createClientFactory(environment, workingDirectory, targetRepo, remoteURI)
+              : clientFactory;
+      ReferenceStore.prepare(
+          git == null ? storeClientFactory.create(workingDirectory, listener) : git,
+          workingDirectory,
+          storeClientFactory,
+          remoteURI,
+          fetchRefSpecs,
+          gitExe(workingDirectory),
+          environment,
+          listener);
+      preparationMillis.put(
+          "reference store", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+    preparationMillis.putAll(maintenanceMillis);
+
+    GitPushCheckpoint.Store checkpointStore =
+        new CheckpointStore(
+            entry.getTarget(), remoteURI.toString(), Constants.R_HEADS + targetBranch);
+    GitPushSequence sequence =
+        new GitPushSequence(
+            options,
+            remoteURI,
+            targetRepo,
+            targetBranch,
+            fetchRefSpecs,
+            identity(environment, "GIT_AUTHOR"),
+            identity(environment, "GIT_COMMITTER"),
+            startHead,
+            cloneState);
 
+    for (int attempt = 0; ; attempt++) {
+      GitPushQueue.Permit permit =
+          options.isQueue()
+              ? GitPushQueue.get().acquire(remoteURI.toString(), targetBranch, listener)
+              : null;
+      GitPushLimits.Permit slot = GitPushLimits.get().acquire(remoteURI, fromStep, listener);
+      try {
+        GitPushResult result;
+        if (git == null) {
+          result = runOnAgent(sequence, workingDirectory, clientFactory, checkpointStore);
+          preparationMillis.forEach(result::recordPhase);
+        } else {
+          result = new GitPushResult();
+          result.recordPhase("client", clientMillis);
+          preparationMillis.forEach(result::recordPhase);
+          sequence.run(git, listener, result, checkpointStore);
+        }
+        checkpointStore.put(null);
+        entry.recordAttempt(false);
+        return result;
+      } catch (GitException e) {
+        List<PushRefStatus> refStatuses = PushRefStatus.parse(e.getMessage());
+        for (PushRefStatus refStatus : refStatuses) {
+          listener.getLogger().println(refStatus);
+        }
+        boolean rejected = refStatuses.stream().anyMatch(PushRefStatus::isRejected);
+        entry.recordAttempt(rejected);
+        if (rejected) {
+          // The merge is outdated, a retry or a later push of the build has to fetch again
+          checkpointStore.put(null);
+          if (permit != null) {
+            permit.recordRejection();
+          }
+        }
+        // Only a remote that moved since the fetch can be fixed by merging again
+        boolean retryable =
+            rejected
+                && refStatuses.stream()
+                    .filter(PushRefStatus::isRejected)
+                    .allMatch(PushRefStatus::isRetryable);
+        if (!retryable || attempt >= options.getPushRetries()) {
+          throw new Failure("Failed to push to " + targetRepo, e, refStatuses);
+        }
+      } finally {
+        slot.close();
+        if (permit != null) {
+          permit.close();
+        }
+      }
+      long backoff = backoffMillis(attempt);
+      listener
+          .getLogger()
+          .printf(
+              "Push to %s/%s rejected, retrying in %d ms (%d/%d)%n",
+              targetRepo, targetBranch, backoff, attempt + 1, options.getPushRetries());
+      Thread.sleep(backoff);
+    }
+  }
+
+  /**
+   * @return The git settings the pack sent by the push is built with, according to {@link
+   *     GitPushOptions#getPackTuning()}
+   */
+  private Map<String, String> packSettings(
+      List<GitPushTarget> targets, EnvVars environment, FilePath workingDirectory)
+      throws IOException, InterruptedException {
+    Map<String, String> settings = new LinkedHashMap<>();
+    if (options.getPackTuning() != GitPushOptions.PackTuning.DEFAULT
+        && options.getEngine() == GitPushOptions.Engine.JGIT) {
+      listener.getLogger().println("The pack tuning needs the command line git, skipping it");
+      return settings;
+    }
+    switch (options.getPackTuning()) {
+      case MANUAL:
+        settings.put("pack.compression", String.valueOf(options.getPackCompression()));
+        settings.put("pack.window", String.valueOf(options.getPackWindow()));
+        settings.put("pack.depth", String.valueOf(options.getPackDepth()));
+        settings.put("pack.threads", String.valueOf(options.getPackThreads()));
+        break;
+      case AUTO:
+        List<String> remoteTrackingRefs = new ArrayList<>();
+        for (GitPushTarget target : targets) {
+          remoteTrackingRefs.add(
+              Constants.R_REMOTES + target.getTargetRepo() + "/" + target.getTargetBranch());
+        }
+        PackProfileCallback.Profile profile;
+        try {
+          profile =
+              nodeJGit(environment, workingDirectory)
+                  .withRepository(new PackProfileCallback(remoteTrackingRefs));
+        } catch (GitException e) {
+          listener.getLogger().println("Failed to profile the pack: " + e.getMessage());
+          break;
+        }
+        if (profile == null) {
+          listener
+              .getLogger()
+              .println(
+                  "None of "
+                      + remoteTrackingRefs
+                      + " exists yet, skipping the profile of the pack");
+          break;
+        }
+        listener.getLogger().println("Objects to push: " + profile);
+        if (profile.getBinaryShare() >= MIN_BINARY_SHARE) {
+          // Binary files are mostly incompressible and rarely delta well, skip both
+          settings.put("pack.compression", "0");
+          settings.put("pack.window", "0");
+          settings.put("pack.depth", "0");
+        }
+        break;
+      default:
+        break;
+    }
+    return settings;
+  }
+
+  /**
+   * @return The clone state of the workspace repository, or null if it could not be read, in which
+   *     case each target reads it again when it fetches
+   */
+  @CheckForNull
+  private CloneStateCallback.State cloneState(EnvVars environment, FilePath workingDirectory)
+      throws IOException, InterruptedException {
     try {
-      git.fetch_().from(remoteURI, remote.getFetchRefSpecs()).execute();
-      ObjectId remoteRev = git.revParse(targetRepo + "/" + targetBranch);
-      git.merge().setRevisionToMerge(remoteRev).execute();
-      git.push().to(remoteURI).ref("HEAD:" + targetBranch).execute();
-      git.push().to(remoteURI).ref("HEAD:" + targetBranch).tags(true).execute();
-      git.fetch_().from(remoteURI, remote.getFetchRefSpecs()).execute();
+      return nodeJGit(environment, workingDirectory).withRepository(new CloneStateCallback());
     } catch (GitException e) {
-      throw new Failure("Failed to push to " + targetRepo, e);
+      listener.getLogger().println("Failed to read the clone state: " + e.getMessage());
+      return null;
     }
   }
 
+  /**
+   * @return The git settings applying the object filter of the workspace, a partial clone, to the
+   *     fetches from the targets. Git only applies the filter of a promisor remote when fetching by
+   *     remote name, while the push fetches by URL.
+   */
+  private Map<String, String> partialCloneSettings(
+      List<GitPushTarget> targets, EnvVars environment) {
+    Map<String, String> settings = new LinkedHashMap<>();
+    if (!cloneState.isPartial()) {
+      return settings;
+    }
+    if (options.getEngine() == GitPushOptions.Engine.JGIT) {
+      listener
+          .getLogger()
+          .println("The partial clone needs the command line git, fetching every object");
+      return settings;
+    }
+    for (GitPushTarget target : targets) {
+      String filter = cloneState.getFilter(target.getTargetRepo());
+      RemoteConfig remote = scm.getRepositoryByName(target.getTargetRepo());
+      if (filter == null || remote == null) {
+        continue;
+      }
+      URIish remoteURI = scm.getParamExpandedRepo(environment, remote).getURIs().get(0);
+      // The settings end up in the environment of every git process, readable by other users
+      if (remoteURI.getPass() != null) {
+        listener
+            .getLogger()
+            .println(
+                "Partial clone: the URL of "
+                    + target.getTargetRepo()
+                    + " holds a password, fetching every object");
+        continue;
+      }
+      String url = remoteURI.toASCIIString();
+      settings.put("remote." + url + ".promisor", "true");
+      settings.put("remote." + url + ".partialclonefilter", filter);
+      listener
+          .getLogger()
+          .println("Partial clone: fetching from " + target.getTargetRepo() + " with " + filter);
+    }
+    return settings;
+  }
+
+  /**
+   * @return A JGit client of the workspace repository. JGit reads the objects in the node process,
+   *     whatever the engine of the push.
+   */
+  private GitClient nodeJGit(EnvVars environment, FilePath workingDirectory)
+      throws IOException, InterruptedException {
+    return Git.with(listener, environment)
+        .in(workingDirectory)
+        .using(JGitTool.MAGIC_EXENAME)
+        .getClient();
+  }
+
+  /**
+   * Makes the workspace repository stop borrowing from a {@link ReferenceStore} it used in earlier
+   * pushes. A failure is printed and the push goes on, the repository still borrowing until the
+   * next build tries again.
+   */
+  private void releaseReferenceStore(EnvVars environment, FilePath workingDirectory)
+      throws InterruptedException {
+    try {
+      ReferenceStore.release(workingDirectory, gitExe(workingDirectory), environment, listener);
+    } catch (IOException e) {
+      listener
+          .getLogger()
+          .println("Failed to stop borrowing from the reference store: " + e.getMessage());
+      ReferenceStore.used(run);
+    }
+  }
+
+  /**
+   * Runs the {@link MaintenanceCallable maintenance} of the workspace repository. Since it is only
+   * an optimization, a failure is printed and the push goes on.
+   */
+  private void maintain(
+      String targetRepo,
+      String targetBranch,
+      EnvVars environment,
+      FilePath workingDirectory,
+      Map<String, Long> preparationMillis)
+      throws InterruptedException {
+    if (options.getEngine() == GitPushOptions.Engine.JGIT) {
+      listener.getLogger().println("The maintenance needs the command line git, skipping it");
+      return;
+    }
+    long start = System.nanoTime();
+    MaintenanceCallable.Outcome outcome;
+    try {
+      outcome =
+          workingDirectory.act(
+              new MaintenanceCallable(
+                  gitExe(workingDirectory),
+                  environment,
+                  options.getMaintenanceThreshold(),
+                  Constants.R_REMOTES + targetRepo + "/" + targetBranch,
+                  listener));
+    } catch (IOException e) {
+      listener.getLogger().println("Maintenance failed, going on without it: " + e.getMessage());
+      return;
+    }
+    if (!outcome.isDone()) {
+      preparationMillis.put(
+          "maintenance", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      listener
+          .getLogger()
+          .println(
+              "Skipping the maintenance, "
+                  + outcome.getStaleness()
+                  + " object file(s) added since the last one");
+      return;
+    }
+    preparationMillis.put("maintenance", outcome.getWriteMillis());
+    listener
+        .getLogger()
+        .println(
+            "Wrote the commit-graph and the multi-pack-index in "
+                + outcome.getWriteMillis()
+                + " ms, "
+                + outcome.getStaleness()
+                + " object file(s) were added since the last write");
+    if (outcome.getSavedMillis() >= 0) {
+      preparationMillis.put("maintenance probe", outcome.getProbeMillis());
+      preparationMillis.put("maintenance saved", outcome.getSavedMillis());
+    }
+  }
+
+  /**
+   * Ships the whole sequence to the node owning the workspace and runs it there with a git client
+   * created on that node. Only the credentials of the target remote and the build environment are
+   * transferred, the {@link GitSCMExtension#decorate(GitSCM, GitClient)} customizations are not
+   * applied.
+   */
+  private GitPushResult runOnAgent(
+      GitPushSequence sequence,
+      FilePath workingDirectory,
+      GitPushClientFactory clientFactory,
+      GitPushCheckpoint.Store checkpointStore)
+      throws IOException, InterruptedException {
+    Computer computer = workingDirectory.toComputer();
+    GitPushCheckpoint.Store exportedStore =
+        workingDirectory.getChannel().export(GitPushCheckpoint.Store.class, checkpointStore);
+
+    long start = System.nanoTime();
+    Future<GitPushResult> future =
+        workingDirectory.actAsync(
+            new GitPushCallable(sequence, clientFactory, exportedStore, listener));
+    GitPushResult result;
+    try {
+      result = future.get();
+    } catch (InterruptedException e) {
+      // Stops the sequence on the node, killing its git process
+      future.cancel(true);
+      throw e;
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof InterruptedException) {
+        throw (InterruptedException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException(cause);
+    }
+    long totalMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    listener
+        .getLogger()
+        .println(
+            "Push sequence ran on "
+                + (computer == null ? "the controller" : computer.getDisplayName())
+                + " in "
+                + totalMillis
+                + " ms ("
+                + describe(result.getPhaseMillis())
+                + ")");
+    return result;
+  }
+
+  /**
+   * Resolves, on the controller, everything a git client needs to be created without the help of
+   * {@link GitSCM#createClient}: the git implementation, the credentials of the target remote and
+   * the build environment.
+   */
+  private GitPushClientFactory createClientFactory(
+      EnvVars environment, FilePath workingDirectory, String targetRepo, URIish remoteURI)
+      throws IOException, InterruptedException {
+    return cached(
+        Arrays.asList(
+            "client factory", targetRepo, remoteURI, options.getEngine(), new EnvVars(environment)),
+        () -> {
+          String gitExe =
+              options.getEngine() == GitPushOptions.Engine.JGIT
+                  ? JGitTool.MAGIC_EXENAME
+                  : gitExe(workingDirectory);
+          return new GitPushClientFactory(
+              gitExe,
+              environment,
+              remoteURI.toPrivateString(),
+              lookupCredentials(targetRepo, remoteURI, environment));
+        });
+  }
+
+  /** @return The command line git of the node owning {@code workingDirectory} */
+  private String gitExe(FilePath workingDirectory) {
+    Computer computer = workingDirectory.toComputer();
+    Node node = computer == null ? null : computer.getNode();
+    return scm.getGitExe(node == null ? Jenkins.get() : node, listener);
+  }
+
+  private static String describe(Map<String, Long> phaseMillis) {
+    return phaseMillis.entrySet().stream()
+        .map(entry -> entry.getKey() + ": " + entry.getValue() + " ms")
+        .collect(Collectors.joining(", "));
+  }
+
+  /**
+   * @param prefix GIT_AUTHOR or GIT_COMMITTER
+   * @return The identity set by the build environment, if any
+   */
+  @CheckForNull
+  private static PersonIdent identity(EnvVars environment, String prefix) {
+    String name = environment.get(prefix + "_NAME");
+    String email = environment.get(prefix + "_EMAIL");
+    if (name == null || email == null) {
+      return null;
+    }
+    return new PersonIdent(name, email);
+  }
+
+  /** The directory the git repository lives in, which may be a sub-directory of the workspace */
+  private FilePath workingDirectory(EnvVars environment) throws IOException, InterruptedException {
+    for (GitSCMExtension extension : scm.getExtensions()) {
+      FilePath directory =
+          extension.getWorkingDirectory(scm, run.getParent(), workspace, environment, listener);
+      if (directory != null) {
+        return directory;
+      }
+    }
+    return workspace;
+  }
+
+  @CheckForNull
+  private StandardCredentials lookupCredentials(
+      String targetRepo, URIish remoteURI, EnvVars environment) {
+    for (UserRemoteConfig remoteConfig : scm.getUserRemoteConfigs()) {
+      boolean sameName = targetRepo.equals(remoteConfig.getName());
+      boolean sameURL = remoteURI.toString().equals(environment.expand(remoteConfig.getUrl()));
+      if (!sameName && !sameURL) {
+        continue;
+      }
+      String credentialsId = remoteConfig.getCredentialsId();
+      if (credentialsId == null) {
+        return null;
+      }
+      StandardCredentials credentials =
+          CredentialsProvider.findCredentialById(
+              credentialsId,
+              StandardCredentials.class,
+              run,
+              URIRequirementBuilder.fromUri(remoteURI.toString()).build());
+      if (credentials == null) {
+        listener.getLogger().println("Credentials '" + credentialsId + "' not found");
+        return null;
+      }
+      CredentialsProvider.track(run, credentials);
+      return CredentialsProvider.snapshot(credentials);
+    }
+    return null;
+  }
+
+  /**
+   * Keeps the checkpoint of a target both in the map given by the caller, e.g. the state of a
+   * pipeline step, and on the run, saved at each change when the checkpoints are durable. Recalls
+   * the recent pushes from the {@link GitPushDedupCache}.
+   */
+  private class CheckpointStore implements GitPushCheckpoint.Store {
+
+    private final String target;
+    private final String remote;
+    private final String targetRef;
+    /** The checkpoint as last saved with the run */
+    private List<Object> saved;
+
+    private CheckpointStore(String target, String remote, String targetRef) {
+      this.target = target;
+      this.remote = remote;
+      this.targetRef = targetRef;
+      this.saved = state(get());
+    }
+
+    @Override
+    @CheckForNull
+    public GitPushCheckpoint get() {
+      GitPushCheckpoint checkpoint = checkpoints.get(target);
+      return checkpoint == null ? GitPushAction.of(run).getCheckpoint(target) : checkpoint;
+    }
+
+    @Override
+    public void put(@CheckForNull GitPushCheckpoint checkpoint) {
+      if (checkpoint == null) {
+        checkpoints.remove(target);
+      } else {
+        checkpoints.put(target, checkpoint);
+      }
+      GitPushAction.of(run).putCheckpoint(target, checkpoint);
+      List<Object> state = state(checkpoint);
+      if (!durableCheckpoints || Objects.equals(state, saved)) {
+        return;
+      }
+      try {
+        run.save();
+        saved = state;
+      } catch (IOException e) {
+        listener.getLogger().println("Failed to save the checkpoint: " + e.getMessage());
+      }
+    }
+
+    /** @return What {@code checkpoint} holds, the same instance being updated as the push goes */
+    @CheckForNull
+    private List<Object> state(@CheckForNull GitPushCheckpoint checkpoint) {
+      return checkpoint == null
+          ? null
+          : Arrays.asList(
+              checkpoint.getHead(),
+              checkpoint.getFetchedRev(),
+              checkpoint.getPushedRev(),
+              new ArrayList<>(checkpoint.getPushedRefs()));
+    }
+
+    @Override
+    @CheckForNull
+    public ObjectId recall(ObjectId head) {
+      return GitPushDedupCache.get().lookup(remote, targetRef, head);
+    }
+
+    @Override
+    public void recalled(ObjectId head, boolean confirmed) {
+      GitPushDedupCache cache = GitPushDedupCache.get();
+      if (confirmed) {
+        cache.hit();
+      } else {
+        cache.invalidate(remote, targetRef, head);
+      }
+    }
+
+    @Override
+    public void remember(ObjectId head, ObjectId pushedRev) {
+      GitPushDedupCache.get().put(remote, targetRef, head, pushedRev);
+    }
+  }
+
+  /** Exponential backoff, capped and jittered so that rejected pushes do not retry in lockstep */
+  private static long backoffMillis(int attempt) {
+    long base = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << Math.min(attempt, 10));
+    return base / 2 + ThreadLocalRandom.current().nextLong(base / 2 + 1);
+  }
+
   public static class Failure extends Exception {
+
+    private final List<PushRefStatus> refStatuses;
+
     public Failure(String message, Throwable cause) {
+      this(message, cause, Collections.emptyList());
+    }
+
+    public Failure(String message, Throwable cause, List<PushRefStatus> refStatuses) {
       super(message, cause);
+      this.refStatuses = refStatuses;
+    }
+
+    /** @return The status of each ref git reported before failing */
+    public List<PushRefStatus> getRefStatuses() {
+      return refStatuses;
     }
   }
 }
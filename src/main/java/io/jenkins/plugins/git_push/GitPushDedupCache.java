@@ -0,0 +1,121 @@
+package io.jenkins.plugins.git_push;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.CheckForNull;
+import jenkins.util.SystemProperties;
+import org.eclipse.jgit.lib.ObjectId;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * The pushes the remotes recently confirmed, keyed by remote URL, target ref and the HEAD they were
+ * pushed from, with the commit each one sent. Entries expire after {@link #TTL_MILLIS}, and the
+ * least recently used ones are evicted beyond {@link #MAX_ENTRIES}. Kept in memory only.
+ *
+ * <p>Its statistics are listed with the {@link GitPushMetrics}.
+ *
+ * @author Réda Housni Alaoui
+ */
+@Extension
+@ExportedBean(defaultVisibility = 2)
+public class GitPushDedupCache {
+
+  static final int MAX_ENTRIES =
+      SystemProperties.getInteger(GitPushDedupCache.class.getName() + ".maxEntries", 10000);
+  static final long TTL_MILLIS =
+      TimeUnit.MINUTES.toMillis(
+          SystemProperties.getLong(GitPushDedupCache.class.getName() + ".ttlMinutes", 60L));
+
+  private final Map<String, Entry> entries =
+      new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+          return size() > MAX_ENTRIES;
+        }
+      };
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong stale = new AtomicLong();
+
+  public static GitPushDedupCache get() {
+    return ExtensionList.lookupSingleton(GitPushDedupCache.class);
+  }
+
+  /**
+   * @return The commit pushed to {@code ref} of {@code remote} from {@code head}, if recently
+   *     confirmed. It still has to be compared with the current tip of the remote ref.
+   */
+  @CheckForNull
+  synchronized ObjectId lookup(String remote, String ref, ObjectId head) {
+    String key = key(remote, ref, head);
+    Entry entry = entries.get(key);
+    if (entry != null && System.currentTimeMillis() - entry.confirmedAt > TTL_MILLIS) {
+      entries.remove(key);
+      entry = null;
+    }
+    if (entry == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+    return ObjectId.fromString(entry.pushedRev);
+  }
+
+  /** Counts a looked up push the remote still has */
+  void hit() {
+    hits.incrementAndGet();
+  }
+
+  /** Drops a looked up push the remote ref moved away from */
+  synchronized void invalidate(String remote, String ref, ObjectId head) {
+    entries.remove(key(remote, ref, head));
+    stale.incrementAndGet();
+  }
+
+  synchronized void put(String remote, String ref, ObjectId head, ObjectId pushedRev) {
+    entries.put(key(remote, ref, head), new Entry(pushedRev.name(), System.currentTimeMillis()));
+  }
+
+  private static String key(String remote, String ref, ObjectId head) {
+    return remote + ' ' + ref + ' ' + head.name();
+  }
+
+  @Exported
+  public synchronized int getSize() {
+    return entries.size();
+  }
+
+  /** @return The pushes skipped because the remote already had them */
+  @Exported
+  public long getHits() {
+    return hits.get();
+  }
+
+  /** @return The lookups that found no recent push */
+  @Exported
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /** @return The lookups that found a push the remote ref has since moved away from */
+  @Exported
+  public long getStale() {
+    return stale.get();
+  }
+
+  private static class Entry {
+
+    private final String pushedRev;
+    private final long confirmedAt;
+
+    private Entry(String pushedRev, long confirmedAt) {
+      this.pushedRev = pushedRev;
+      this.confirmedAt = confirmedAt;
+    }
+  }
+}
@@ -0,0 +1,296 @@
+package io.jenkins.plugins.git_push;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.TaskListener;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import jenkins.model.GlobalConfiguration;
+import jenkins.util.SystemProperties;
+import net.sf.json.JSONObject;
+import org.eclipse.jgit.transport.URIish;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Limits the number of pushes running at the same time, over all remotes and per remote host. A
+ * push waits, in arrival order, until a slot of its host then a slot of the global limit are free.
+ * Waiting for a busy host does not hold a global slot, so pushes to the other hosts keep going.
+ * The pushes of the {@code gitPush} steps finally take a slot of the steps, see {@link
+ * #MAX_STEP_PUSHES}.
+ *
+ * <p>The limits in use are listed with the {@link GitPushQueue}.
+ *
+ * @author Réda Housni Alaoui
+ */
+@Extension
+public class GitPushLimits extends GlobalConfiguration {
+
+  private static final String GLOBAL = "*";
+
+  private static final String STEPS = "gitPush steps";
+
+  /**
+   * The maximum number of pushes of the {@code gitPush} steps running at the same time. Their slots
+   * are taken last, so a step waiting in the {@link GitPushQueue} or for another slot does not hold
+   * one.
+   */
+  static final int MAX_STEP_PUSHES =
+      SystemProperties.getInteger(GitPushStep.class.getName() + ".maxPushes", 20);
+
+  private int maxPushes;
+  private int maxPushesPerHost;
+  private List<HostLimit> hostLimits;
+
+  private final transient ConcurrentMap<String, Limit> limits = new ConcurrentHashMap<>();
+
+  public GitPushLimits() {
+    load();
+  }
+
+  public static GitPushLimits get() {
+    return ExtensionList.lookupSingleton(GitPushLimits.class);
+  }
+
+  @Override
+  public boolean configure(StaplerRequest req, JSONObject json) throws FormException {
+    // An empty repeatable property is not submitted
+    hostLimits = null;
+    req.bindJSON(this, json);
+    save();
+    return true;
+  }
+
+  /** @return The maximum number of pushes running at the same time. 0 for no limit. */
+  public int getMaxPushes() {
+    return maxPushes;
+  }
+
+  @DataBoundSetter
+  public void setMaxPushes(int maxPushes) {
+    this.maxPushes = maxPushes;
+  }
+
+  /**
+   * @return The maximum number of pushes running at the same time to a host without a {@link
+   *     HostLimit}. 0 for no limit.
+   */
+  public int getMaxPushesPerHost() {
+    return maxPushesPerHost;
+  }
+
+  @DataBoundSetter
+  public void setMaxPushesPerHost(int maxPushesPerHost) {
+    this.maxPushesPerHost = maxPushesPerHost;
+  }
+
+  public List<HostLimit> getHostLimits() {
+    return hostLimits == null ? Collections.emptyList() : hostLimits;
+  }
+
+  @DataBoundSetter
+  public void setHostLimits(List<HostLimit> hostLimits) {
+    this.hostLimits = hostLimits;
+  }
+
+  /**
+   * Waits for a slot of the host of {@code remoteURI}, then for a global slot.
+   *
+   * @return The permit to close once the push is done
+   */
+  public Permit acquire(@Nonnull URIish remoteURI, @Nonnull TaskListener listener)
+      throws InterruptedException {
+    return acquire(remoteURI, false, listener);
+  }
+
+  /**
+   * Waits for a slot of the host of {@code remoteURI}, then for a global slot, then for a slot of
+   * the steps if {@code step} is true.
+   *
+   * @param step True if the push is run by a {@code gitPush} step
+   * @return The permit to close once the push is done
+   */
+  public Permit acquire(@Nonnull URIish remoteURI, boolean step, @Nonnull TaskListener listener)
+      throws InterruptedException {
+    String host = host(remoteURI);
+    Limit[] scopes = {
+      limit(host, maxPushesFor(host)),
+      limit(GLOBAL, maxPushes),
+      step ? limit(STEPS, MAX_STEP_PUSHES) : null
+    };
+    List<Limit> acquired = new ArrayList<>();
+    try {
+      for (Limit limit : scopes) {
+        if (limit == null) {
+          continue;
+        }
+        limit.acquire(listener);
+        acquired.add(limit);
+      }
+    } catch (InterruptedException e) {
+      new Permit(acquired).close();
+      throw e;
+    }
+    return new Permit(acquired);
+  }
+
+  /** @return The limits pushes currently wait on, the global one first */
+  public List<Limit> getLimits() {
+    List<Limit> result = new ArrayList<>(limits.values());
+    result.sort(
+        Comparator.comparing((Limit limit) -> !GLOBAL.equals(limit.getScope()))
+            .thenComparing(Limit::getScope));
+    return result;
+  }
+
+  private int maxPushesFor(String host) {
+    for (HostLimit hostLimit : getHostLimits()) {
+      if (host.equalsIgnoreCase(hostLimit.getHost())) {
+        return hostLimit.getMaxPushes();
+      }
+    }
+    return maxPushesPerHost;
+  }
+
+  /**
+   * @return The limit of {@code scope}, replaced if its maximum changed since its creation. Null
+   *     if the scope is not limited.
+   */
+  @CheckForNull
+  private Limit limit(String scope, int max) {
+    if (max <= 0) {
+      limits.remove(scope);
+      return null;
+    }
+    return limits.compute(
+        scope,
+        (key, existing) ->
+            existing != null && existing.maxPushes == max ? existing : new Limit(key, max));
+  }
+
+  private static String host(URIish remoteURI) {
+    String host = remoteURI.getHost();
+    return host == null ? "localhost" : host.toLowerCase(Locale.ENGLISH);
+  }
+
+  /** Held while pushing. Closing it frees the slots taken by the push. */
+  public static class Permit implements AutoCloseable {
+
+    private final List<Limit> limits;
+    private boolean closed;
+
+    private Permit(List<Limit> limits) {
+      this.limits = limits;
+    }
+
+    @Override
+    public void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      for (int i = limits.size() - 1; i >= 0; i--) {
+        limits.get(i).semaphore.release();
+      }
+    }
+  }
+
+  @ExportedBean(defaultVisibility = 2)
+  public static class Limit {
+
+    private final String scope;
+    private final int maxPushes;
+    private final Semaphore semaphore;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong totalWaitMillis = new AtomicLong();
+    private final AtomicLong maxWaitMillis = new AtomicLong();
+    private final AtomicInteger waits = new AtomicInteger();
+
+    private Limit(String scope, int maxPushes) {
+      this.scope = scope;
+      this.maxPushes = maxPushes;
+      this.semaphore = new Semaphore(maxPushes, true);
+    }
+
+    private void acquire(TaskListener listener) throws InterruptedException {
+      // Unlike tryAcquire(), a timed tryAcquire honors the fairness of the semaphore
+      if (semaphore.tryAcquire(0, TimeUnit.SECONDS)) {
+        return;
+      }
+      String description = GLOBAL.equals(scope) ? "all hosts" : scope;
+      listener
+          .getLogger()
+          .println(
+              "Waiting for one of the "
+                  + maxPushes
+                  + " push slots of "
+                  + description
+                  + ", "
+                  + waiting.get()
+                  + " other push(es) waiting");
+      long start = System.currentTimeMillis();
+      waiting.incrementAndGet();
+      try {
+        semaphore.acquire();
+      } finally {
+        waiting.decrementAndGet();
+      }
+      long waited = System.currentTimeMillis() - start;
+      waits.incrementAndGet();
+      totalWaitMillis.addAndGet(waited);
+      maxWaitMillis.accumulateAndGet(waited, Math::max);
+      listener.getLogger().println("Waited " + waited + " ms for a push slot of " + description);
+    }
+
+    /** @return The host, or * for the global limit */
+    @Exported
+    public String getScope() {
+      return scope;
+    }
+
+    @Exported
+    public int getMaxPushes() {
+      return maxPushes;
+    }
+
+    @Exported
+    public int getRunning() {
+      return maxPushes - semaphore.availablePermits();
+    }
+
+    @Exported
+    public int getWaiting() {
+      return waiting.get();
+    }
+
+    /** @return The number of pushes that had to wait for a slot */
+    @Exported
+    public int getWaits() {
+      return waits.get();
+    }
+
+    @Exported
+    public long getAverageWaitMillis() {
+      int count = waits.get();
+      return count == 0 ? 0 : totalWaitMillis.get() / count;
+    }
+
+    @Exported
+    public long getMaxWaitMillis() {
+      return maxWaitMillis.get();
+    }
+  }
+}
@@ -0,0 +1,170 @@
+package io.jenkins.plugins.git_push;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.Api;
+import hudson.model.RootAction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.Nonnull;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Rolling statistics of the pushes done by this controller, per remote, over the last {@link
+ * #WINDOW} pushes of each remote. They are kept in memory only.
+ *
+ * <p>They are listed at {@code /git-push-metrics/} and {@code /git-push-metrics/api/json}.
+ *
+ * @author Réda Housni Alaoui
+ */
+@Extension
+@ExportedBean
+public class GitPushMetrics implements RootAction {
+
+  static final int WINDOW = 1000;
+
+  private final ConcurrentMap<String, Remote> remotes = new ConcurrentHashMap<>();
+
+  public static GitPushMetrics get() {
+    return ExtensionList.lookupSingleton(GitPushMetrics.class);
+  }
+
+  void record(@Nonnull String remote, GitPushAction.Entry entry) {
+    remotes
+        .computeIfAbsent(remote, Remote::new)
+        .record(
+            entry.getTotalMillis(), entry.getAttempts(), entry.getRejections(), entry.isSuccess());
+  }
+
+  @Exported
+  public List<Remote> getRemotes() {
+    List<Remote> result = new ArrayList<>(remotes.values());
+    result.sort(Comparator.comparing(Remote::getRemote));
+    return result;
+  }
+
+  /** @return The pushes recently confirmed, see {@link GitPushOptions#isDeduplicate()} */
+  @Exported
+  public GitPushDedupCache getDedupCache() {
+    return GitPushDedupCache.get();
+  }
+
+  public Api getApi() {
+    Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+    return new Api(this);
+  }
+
+  @Override
+  public String getIconFileName() {
+    return null;
+  }
+
+  @Override
+  public String getDisplayName() {
+    return "Git Push Metrics";
+  }
+
+  @Override
+  public String getUrlName() {
+    return "git-push-metrics";
+  }
+
+  @ExportedBean(defaultVisibility = 2)
+  public static class Remote {
+
+    private final String remote;
+    private final long[] millis = new long[WINDOW];
+    private final int[] attempts = new int[WINDOW];
+    private final int[] rejections = new int[WINDOW];
+    private final boolean[] failures = new boolean[WINDOW];
+    /** The number of pushes recorded since the start, the window holds the last ones */
+    private long count;
+
+    private Remote(String remote) {
+      this.remote = remote;
+    }
+
+    private synchronized void record(
+        long totalMillis, int attemptCount, int rejectionCount, boolean success) {
+      int index = (int) (count % WINDOW);
+      millis[index] = totalMillis;
+      attempts[index] = attemptCount;
+      rejections[index] = rejectionCount;
+      failures[index] = !success;
+      count++;
+    }
+
+    private int size() {
+      return (int) Math.min(count, WINDOW);
+    }
+
+    @Exported
+    public String getRemote() {
+      return remote;
+    }
+
+    /** @return The number of pushes in the window */
+    @Exported
+    public synchronized int getPushes() {
+      return size();
+    }
+
+    @Exported
+    public synchronized long getP50Millis() {
+      return percentile(50);
+    }
+
+    @Exported
+    public synchronized long getP95Millis() {
+      return percentile(95);
+    }
+
+    @Exported
+    public synchronized long getP99Millis() {
+      return percentile(99);
+    }
+
+    /** @return The share of push attempts the remote rejected, between 0 and 1 */
+    @Exported
+    public synchronized double getRejectionRate() {
+      long attemptSum = 0;
+      long rejectionSum = 0;
+      for (int i = 0; i < size(); i++) {
+        attemptSum += attempts[i];
+        rejectionSum += rejections[i];
+      }
+      return attemptSum == 0 ? 0 : (double) rejectionSum / attemptSum;
+    }
+
+    /** @return The share of pushes that failed, between 0 and 1 */
+    @Exported
+    public synchronized double getFailureRate() {
+      int size = size();
+      int failureCount = 0;
+      for (int i = 0; i < size; i++) {
+        if (failures[i]) {
+          failureCount++;
+        }
+      }
+      return size == 0 ? 0 : (double) failureCount / size;
+    }
+
+    /** Nearest-rank percentile of the push durations in the window */
+    private long percentile(int percent) {
+      int size = size();
+      if (size == 0) {
+        return 0;
+      }
+      long[] sorted = Arrays.copyOf(millis, size);
+      Arrays.sort(sorted);
+      int rank = (int) Math.ceil(percent / 100.0 * size);
+      return sorted[Math.max(rank, 1) - 1];
+    }
+  }
+}
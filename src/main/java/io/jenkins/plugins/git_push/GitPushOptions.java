@@ -0,0 +1,346 @@
+package io.jenkins.plugins.git_push;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The optional behaviours of a {@link GitPushCommand}. Every option is disabled by default, which
+ * gives the original fetch, merge, push branch, push tags and fetch sequence.
+ *
+ * @author Réda Housni Alaoui
+ */
+public class GitPushOptions implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private boolean singlePush;
+  private boolean narrowFetch;
+  private boolean refetchAfterPush;
+  private boolean preflight;
+  private boolean queue;
+  private int pushRetries;
+  private boolean runOnAgent;
+  private Engine engine = Engine.CLI;
+  private MergeMode mergeMode = MergeMode.WORKING_TREE;
+  private PushTags pushTags = PushTags.ALL;
+  private int targetConcurrency;
+  private boolean referenceStore;
+  private int maintenanceThreshold;
+  private PackTuning packTuning = PackTuning.DEFAULT;
+  private int packCompression;
+  private int packWindow;
+  private int packDepth;
+  private int packThreads;
+  private boolean deduplicate;
+  private Session session = Session.NONE;
+  private ArrayList<String> refSpecs = new ArrayList<>();
+
+  /**
+   * @param singlePush True to send the branch update and the tags through a single push, sharing
+   *     one connection, ref advertisement and pack. False to push the branch, then the tags.
+   */
+  public GitPushOptions singlePush(boolean singlePush) {
+    this.singlePush = singlePush;
+    return this;
+  }
+
+  public boolean isSinglePush() {
+    return singlePush;
+  }
+
+  /**
+   * @param narrowFetch True to fetch only the target branch instead of every fetch refspec of the
+   *     target remote. Git protocol v2 is requested so that the server only advertises the target
+   *     branch.
+   */
+  public GitPushOptions narrowFetch(boolean narrowFetch) {
+    this.narrowFetch = narrowFetch;
+    return this;
+  }
+
+  public boolean isNarrowFetch() {
+    return narrowFetch;
+  }
+
+  /**
+   * @param refetchAfterPush True to fetch the target remote again once the push is done. False to
+   *     only point the local remote-tracking ref of the target branch to the pushed commit.
+   */
+  public GitPushOptions refetchAfterPush(boolean refetchAfterPush) {
+    this.refetchAfterPush = refetchAfterPush;
+    return this;
+  }
+
+  public boolean isRefetchAfterPush() {
+    return refetchAfterPush;
+  }
+
+  /**
+   * @param preflight True to compare the tip of the target branch, read through a ls-remote, with
+   *     HEAD before doing anything else. The fetch and the merge are skipped when the tip is
+   *     already part of HEAD, and the branch push is skipped when the tip is HEAD.
+   */
+  public GitPushOptions preflight(boolean preflight) {
+    this.preflight = preflight;
+    return this;
+  }
+
+  public boolean isPreflight() {
+    return preflight;
+  }
+
+  /**
+   * @param queue True to wait for the other pushes of this controller targeting the same remote
+   *     branch before fetching, merging and pushing
+   * @see GitPushQueue
+   */
+  public GitPushOptions queue(boolean queue) {
+    this.queue = queue;
+    return this;
+  }
+
+  public boolean isQueue() {
+    return queue;
+  }
+
+  /**
+   * @param pushRetries The number of times the whole fetch, merge and push sequence is retried
+   *     after the remote rejected the push, waiting a bounded exponential backoff in between
+   */
+  public GitPushOptions pushRetries(int pushRetries) {
+    this.pushRetries = pushRetries;
+    return this;
+  }
+
+  public int getPushRetries() {
+    return pushRetries;
+  }
+
+  /**
+   * @param runOnAgent True to run the whole fetch, merge and push sequence as a single callable on
+   *     the node owning the workspace, instead of one remoting round trip per git command
+   */
+  public GitPushOptions runOnAgent(boolean runOnAgent) {
+    this.runOnAgent = runOnAgent;
+    return this;
+  }
+
+  public boolean isRunOnAgent() {
+    return runOnAgent;
+  }
+
+  /**
+   * @param engine The git implementation running the fetch, the merge and the push. Null means
+   *     {@link Engine#CLI}.
+   */
+  public GitPushOptions engine(Engine engine) {
+    this.engine = engine == null ? Engine.CLI : engine;
+    return this;
+  }
+
+  public Engine getEngine() {
+    return engine;
+  }
+
+  /**
+   * @param mergeMode How the target branch is merged into HEAD before the push. Null means {@link
+   *     MergeMode#WORKING_TREE}.
+   */
+  public GitPushOptions mergeMode(MergeMode mergeMode) {
+    this.mergeMode = mergeMode == null ? MergeMode.WORKING_TREE : mergeMode;
+    return this;
+  }
+
+  public MergeMode getMergeMode() {
+    return mergeMode;
+  }
+
+  /**
+   * @param pushTags The tags to push along with the target branch. Null means {@link
+   *     PushTags#ALL}.
+   */
+  public GitPushOptions pushTags(PushTags pushTags) {
+    this.pushTags = pushTags == null ? PushTags.ALL : pushTags;
+    return this;
+  }
+
+  public PushTags getPushTags() {
+    return pushTags;
+  }
+
+  /**
+   * @param targetConcurrency The maximum number of targets pushed at the same time. 0 or less means
+   *     no limit.
+   */
+  public GitPushOptions targetConcurrency(int targetConcurrency) {
+    this.targetConcurrency = targetConcurrency;
+    return this;
+  }
+
+  public int getTargetConcurrency() {
+    return targetConcurrency;
+  }
+
+  /**
+   * @param referenceStore True to fetch through a reference repository shared by the workspaces of
+   *     the agent
+   */
+  public GitPushOptions referenceStore(boolean referenceStore) {
+    this.referenceStore = referenceStore;
+    return this;
+  }
+
+  public boolean isReferenceStore() {
+    return referenceStore;
+  }
+
+  /**
+   * @param maintenanceThreshold The number of pack files and loose objects added since the last
+   *     commit-graph write that triggers a new one. 0 or less disables the maintenance.
+   */
+  public GitPushOptions maintenanceThreshold(int maintenanceThreshold) {
+    this.maintenanceThreshold = maintenanceThreshold;
+    return this;
+  }
+
+  public int getMaintenanceThreshold() {
+    return maintenanceThreshold;
+  }
+
+  /** @param packTuning How the settings of the pack sent by the push are chosen */
+  public GitPushOptions packTuning(PackTuning packTuning) {
+    this.packTuning = packTuning == null ? PackTuning.DEFAULT : packTuning;
+    return this;
+  }
+
+  public PackTuning getPackTuning() {
+    return packTuning;
+  }
+
+  /** @param packCompression The pack.compression git setting, for the MANUAL pack tuning */
+  public GitPushOptions packCompression(int packCompression) {
+    this.packCompression = packCompression;
+    return this;
+  }
+
+  public int getPackCompression() {
+    return packCompression;
+  }
+
+  /** @param packWindow The pack.window git setting, for the MANUAL pack tuning */
+  public GitPushOptions packWindow(int packWindow) {
+    this.packWindow = packWindow;
+    return this;
+  }
+
+  public int getPackWindow() {
+    return packWindow;
+  }
+
+  /** @param packDepth The pack.depth git setting, for the MANUAL pack tuning */
+  public GitPushOptions packDepth(int packDepth) {
+    this.packDepth = packDepth;
+    return this;
+  }
+
+  public int getPackDepth() {
+    return packDepth;
+  }
+
+  /** @param packThreads The pack.threads git setting, for the MANUAL pack tuning */
+  public GitPushOptions packThreads(int packThreads) {
+    this.packThreads = packThreads;
+    return this;
+  }
+
+  public int getPackThreads() {
+    return packThreads;
+  }
+
+  /** @param deduplicate True to skip the pushes of commits the remote recently confirmed */
+  public GitPushOptions deduplicate(boolean deduplicate) {
+    this.deduplicate = deduplicate;
+    return this;
+  }
+
+  public boolean isDeduplicate() {
+    return deduplicate;
+  }
+
+  /**
+   * @param session Whether the push reuses, and keeps for the next pushes of the build, the
+   *     environment and git clients it resolves. Null for {@link Session#NONE}.
+   */
+  public GitPushOptions session(Session session) {
+    this.session = session == null ? Session.NONE : session;
+    return this;
+  }
+
+  public Session getSession() {
+    return session;
+  }
+
+  /**
+   * @param refSpecs Additional refspecs, pushed in the same push as the target branch. A source of
+   *     {@code HEAD} designates the commit pushed to the target branch, a destination that does not
+   *     start with {@code refs/} designates a branch.
+   */
+  public GitPushOptions refSpecs(List<String> refSpecs) {
+    this.refSpecs = refSpecs == null ? new ArrayList<>() : new ArrayList<>(refSpecs);
+    return this;
+  }
+
+  public List<String> getRefSpecs() {
+    return Collections.unmodifiableList(refSpecs);
+  }
+
+  public enum Engine {
+    /** The command line git of the node, as selected by the job */
+    CLI,
+    /** JGit, running in the Jenkins process of the node, without forking any process */
+    JGIT
+  }
+
+  public enum MergeMode {
+    /** The merge is done in the workspace, updating the working tree, the index and HEAD */
+    WORKING_TREE,
+    /**
+     * The merge is computed in the object database only. The merge commit is pushed without being
+     * checked out.
+     */
+    IN_CORE,
+    /** Nothing is merged, the push fails if the target branch is not an ancestor of HEAD */
+    FAST_FORWARD_ONLY
+  }
+
+  public enum PushTags {
+    /** Every local tag, git negotiating all of them with the remote */
+    ALL,
+    /** Only the tags created or moved since the snapshot taken by {@link GitPushTagSnapshot} */
+    CREATED
+  }
+
+  public enum PackTuning {
+    /** The pack is built with the git settings of the node */
+    DEFAULT,
+    /** The pack is built with the compression, delta and thread settings of the options */
+    MANUAL,
+    /**
+     * The blobs to push are profiled. When binary content makes up most of their size, the pack is
+     * built without compression nor delta search.
+     */
+    AUTO
+  }
+
+  /** See {@link GitPushSession} */
+  public enum Session {
+    /** Everything is resolved again for each push */
+    NONE,
+    /** The session of the build and workspace is reused, or started if there is none */
+    REUSE,
+    /** The session of the build and workspace is discarded, then a new one is started */
+    RENEW
+  }
+}
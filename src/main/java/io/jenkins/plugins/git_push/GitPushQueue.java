@@ -0,0 +1,329 @@
+package io.jenkins.plugins.git_push;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.Api;
+import hudson.model.RootAction;
+import hudson.model.TaskListener;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nonnull;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Serializes the pushes targeting the same branch of the same remote, in arrival order. Pushes to
+ * different branches or remotes do not wait for each other.
+ *
+ * <p>The lanes currently in use, the wait and rejection statistics of the {@link #MAX_BRANCHES}
+ * branches most recently pushed to, and the {@link GitPushLimits} pushes wait on, are listed at
+ * {@code /git-push-queue/} and {@code /git-push-queue/api/json}.
+ *
+ * @author Réda Housni Alaoui
+ */
+@Extension
+@ExportedBean
+public class GitPushQueue implements RootAction {
+
+  /** The number of branches whose statistics are kept, the least recently pushed to is dropped */
+  static final int MAX_BRANCHES = 1000;
+
+  private final ConcurrentMap<Key, Lane> lanes = new ConcurrentHashMap<>();
+
+  /** Outlives the lanes, which are dropped as soon as no push holds or waits for them */
+  private final Map<Key, Branch> branches =
+      new LinkedHashMap<Key, Branch>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Branch> eldest) {
+          return size() > MAX_BRANCHES;
+        }
+      };
+
+  public static GitPushQueue get() {
+    return ExtensionList.lookupSingleton(GitPushQueue.class);
+  }
+
+  /**
+   * Waits until every push previously queued for the same remote and branch is done.
+   *
+   * @return The permit to close once the push is done
+   */
+  public Permit acquire(
+      @Nonnull String remoteURI, @Nonnull String targetBranch, @Nonnull TaskListener listener)
+      throws InterruptedException {
+    Key key = new Key(remoteURI, targetBranch);
+    Lane lane =
+        lanes.compute(
+            key,
+            (k, existing) -> {
+              Lane result = existing == null ? new Lane(k, branch(k)) : existing;
+              result.members++;
+              return result;
+            });
+
+    // Unlike tryAcquire(), a timed tryAcquire honors the fairness of the semaphore
+    if (!lane.semaphore.tryAcquire(0, TimeUnit.SECONDS)) {
+      listener
+          .getLogger()
+          .println(
+              "Waiting for "
+                  + lane.getDepth()
+                  + " other push(es) to "
+                  + targetBranch
+                  + " on "
+                  + remoteURI);
+      long start = System.currentTimeMillis();
+      lane.waiting.incrementAndGet();
+      try {
+        lane.semaphore.acquire();
+      } catch (InterruptedException e) {
+        leave(lane);
+        throw e;
+      } finally {
+        lane.waiting.decrementAndGet();
+      }
+      long waited = System.currentTimeMillis() - start;
+      lane.branch.recordWait(waited);
+      listener.getLogger().println("Waited " + waited + " ms for the push queue");
+    }
+    return new Permit(lane);
+  }
+
+  private void leave(Lane lane) {
+    lanes.computeIfPresent(
+        lane.key,
+        (k, existing) -> {
+          existing.members--;
+          return existing.members == 0 ? null : existing;
+        });
+  }
+
+  /** @return The statistics of {@code key}, created if missing */
+  private Branch branch(Key key) {
+    synchronized (branches) {
+      return branches.computeIfAbsent(key, Branch::new);
+    }
+  }
+
+  @Exported
+  public List<Lane> getLanes() {
+    List<Lane> result = new ArrayList<>(lanes.values());
+    result.sort(Comparator.comparing(Lane::getRemoteURI).thenComparing(Lane::getTargetBranch));
+    return result;
+  }
+
+  /** @return The statistics of the branches recently pushed to, whether pushed to now or not */
+  @Exported
+  public List<Branch> getBranches() {
+    List<Branch> result;
+    synchronized (branches) {
+      result = new ArrayList<>(branches.values());
+    }
+    result.sort(Comparator.comparing(Branch::getRemoteURI).thenComparing(Branch::getTargetBranch));
+    return result;
+  }
+
+  @Exported
+  public List<GitPushLimits.Limit> getLimits() {
+    return GitPushLimits.get().getLimits();
+  }
+
+  public Api getApi() {
+    Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+    return new Api(this);
+  }
+
+  @Override
+  public String getIconFileName() {
+    return null;
+  }
+
+  @Override
+  public String getDisplayName() {
+    return "Git Push Queue";
+  }
+
+  @Override
+  public String getUrlName() {
+    return "git-push-queue";
+  }
+
+  /** Held while pushing. Closing it lets the next queued push of the same lane start. */
+  public class Permit implements AutoCloseable {
+
+    private final Lane lane;
+    private boolean closed;
+
+    private Permit(Lane lane) {
+      this.lane = lane;
+    }
+
+    /** Counts a push attempt rejected by the remote */
+    public void recordRejection() {
+      lane.branch.rejections.incrementAndGet();
+    }
+
+    @Override
+    public void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      lane.semaphore.release();
+      leave(lane);
+    }
+  }
+
+  @ExportedBean(defaultVisibility = 2)
+  public static class Lane {
+
+    private final Key key;
+    private final Branch branch;
+    private final Semaphore semaphore = new Semaphore(1, true);
+    private final AtomicInteger waiting = new AtomicInteger();
+    /**
+     * The number of pushes holding or waiting for the lane. Only accessed while computing the lane
+     * entry of {@link GitPushQueue#lanes}, the lane is dropped when it reaches zero.
+     */
+    private int members;
+
+    private Lane(Key key, Branch branch) {
+      this.key = key;
+      this.branch = branch;
+    }
+
+    @Exported
+    public String getRemoteURI() {
+      return key.remoteURI;
+    }
+
+    @Exported
+    public String getTargetBranch() {
+      return key.targetBranch;
+    }
+
+    /** @return The number of pushes running or waiting in this lane */
+    @Exported
+    public int getDepth() {
+      return waiting.get() + (semaphore.availablePermits() == 0 ? 1 : 0);
+    }
+
+    @Exported
+    public long getTotalWaitMillis() {
+      return branch.getTotalWaitMillis();
+    }
+
+    @Exported
+    public long getMaxWaitMillis() {
+      return branch.getMaxWaitMillis();
+    }
+
+    @Exported
+    public long getAverageWaitMillis() {
+      return branch.getAverageWaitMillis();
+    }
+
+    @Exported
+    public int getRejections() {
+      return branch.getRejections();
+    }
+  }
+
+  /** The wait and rejection statistics of a branch, kept after its lane is dropped */
+  @ExportedBean(defaultVisibility = 2)
+  public class Branch {
+
+    private final Key key;
+    private final AtomicLong totalWaitMillis = new AtomicLong();
+    private final AtomicLong maxWaitMillis = new AtomicLong();
+    private final AtomicInteger waits = new AtomicInteger();
+    private final AtomicInteger rejections = new AtomicInteger();
+
+    private Branch(Key key) {
+      this.key = key;
+    }
+
+    private void recordWait(long millis) {
+      waits.incrementAndGet();
+      totalWaitMillis.addAndGet(millis);
+      maxWaitMillis.accumulateAndGet(millis, Math::max);
+    }
+
+    @Exported
+    public String getRemoteURI() {
+      return key.remoteURI;
+    }
+
+    @Exported
+    public String getTargetBranch() {
+      return key.targetBranch;
+    }
+
+    /** @return The number of pushes running or waiting for the branch, 0 if it is idle */
+    @Exported
+    public int getDepth() {
+      Lane lane = lanes.get(key);
+      return lane == null ? 0 : lane.getDepth();
+    }
+
+    @Exported
+    public long getTotalWaitMillis() {
+      return totalWaitMillis.get();
+    }
+
+    @Exported
+    public long getMaxWaitMillis() {
+      return maxWaitMillis.get();
+    }
+
+    @Exported
+    public long getAverageWaitMillis() {
+      int count = waits.get();
+      return count == 0 ? 0 : totalWaitMillis.get() / count;
+    }
+
+    @Exported
+    public int getRejections() {
+      return rejections.get();
+    }
+  }
+
+  private static class Key {
+
+    private final String remoteURI;
+    private final String targetBranch;
+
+    private Key(String remoteURI, String targetBranch) {
+      this.remoteURI = remoteURI;
+      this.targetBranch = targetBranch;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Key key = (Key) o;
+      return remoteURI.equals(key.remoteURI) && targetBranch.equals(key.targetBranch);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(remoteURI, targetBranch);
+    }
+  }
+}
@@ -0,0 +1,52 @@
+package io.jenkins.plugins.git_push;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.CheckForNull;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * What a push sequence did: how long each phase took, the commit sent to the target branch and the
+ * status of each pushed ref.
+ *
+ * @author Réda Housni Alaoui
+ */
+public class GitPushResult implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final Map<String, Long> phaseMillis = new LinkedHashMap<>();
+  private final List<PushRefStatus> refStatuses = new ArrayList<>();
+  private ObjectId pushedRev;
+
+  void recordPhase(String phase, long millis) {
+    phaseMillis.merge(phase, millis, Long::sum);
+  }
+
+  void addRefStatus(PushRefStatus refStatus) {
+    refStatuses.add(refStatus);
+  }
+
+  void setPushedRev(ObjectId pushedRev) {
+    this.pushedRev = pushedRev;
+  }
+
+  /** @return The duration of each phase, in execution order */
+  public Map<String, Long> getPhaseMillis() {
+    return Collections.unmodifiableMap(phaseMillis);
+  }
+
+  public List<PushRefStatus> getRefStatuses() {
+    return Collections.unmodifiableList(refStatuses);
+  }
+
+  /** @return The commit the target branch points to after the push */
+  @CheckForNull
+  public ObjectId getPushedRev() {
+    return pushedRev;
+  }
+}
@@ -0,0 +1,673 @@
+package io.jenkins.plugins.git_push;
+
+import hudson.model.TaskListener;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.CheckForNull;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.URIish;
+import org.jenkinsci.plugins.gitclient.GitClient;
+
+/**
+ * The fetch, merge and push phases of a push to a single target branch. It only relies on a {@link
+ * GitClient}, so that it can run either on the controller, driving a remote client, or directly on
+ * the node owning the workspace.
+ *
+ * @author Réda Housni Alaoui
+ */
+class GitPushSequence implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  static final String ALL_TAGS = Constants.R_TAGS + "*:" + Constants.R_TAGS + "*";
+
+  /**
+   * The depth the first fetch into a shallow clone adds to the depth of the local history, doubled
+   * until a merge base is found
+   */
+  private static final int SHALLOW_FETCH_DEPTH = 16;
+
+  /** Beyond that depth, a shallow clone fetches the whole history */
+  private static final int MAX_SHALLOW_FETCH_DEPTH = 4096;
+
+  /** The depth git takes for the whole history */
+  private static final int COMPLETE_DEPTH = Integer.MAX_VALUE;
+
+  /** Serializes the working tree merges of the targets pushed concurrently from a workspace */
+  private static final Map<String, WorkTreeLock> WORK_TREE_LOCKS = new HashMap<>();
+
+  private final GitPushOptions options;
+  private final URIish remoteURI;
+  private final String targetRepo;
+  private final String targetBranch;
+  private final ArrayList<RefSpec> fetchRefSpecs;
+  private final PersonIdent author;
+  private final PersonIdent committer;
+  private final ObjectId startHead;
+  private final CloneStateCallback.State cloneState;
+
+  /**
+   * @param author The author of the merge commit created by an in-core merge. Null to use the
+   *     identity configured in the workspace repository.
+   * @param committer The committer of the merge commit created by an in-core merge. Null to use the
+   *     identity configured in the workspace repository.
+   * @param startHead The commit to merge the target branch into, when the working tree is shared
+   *     with the merges of other targets. Null to merge into HEAD.
+   * @param cloneState The clone state of the workspace repository, read once for all the targets.
+   *     Null to read it when a fetch is needed.
+   */
+  GitPushSequence(
+      GitPushOptions options,
+      URIish remoteURI,
+      String targetRepo,
+      String targetBranch,
+      List<RefSpec> fetchRefSpecs,
+      @CheckForNull PersonIdent author,
+      @CheckForNull PersonIdent committer,
+      @CheckForNull ObjectId startHead,
+      @CheckForNull CloneStateCallback.State cloneState) {
+    this.options = options;
+    this.remoteURI = remoteURI;
+    this.targetRepo = targetRepo;
+    this.targetBranch = targetBranch;
+    this.fetchRefSpecs = new ArrayList<>(fetchRefSpecs);
+    this.author = author;
+    this.committer = committer;
+    this.startHead = startHead == null ? null : startHead.copy();
+    this.cloneState = cloneState;
+  }
+
+  /**
+   * Runs the phases, recording their duration and outcome in {@code result}. The phases already
+   * done according to the checkpoint of {@code checkpoints} are skipped, and the checkpoint is
+   * updated as the phases complete.
+   */
+  void run(
+      GitClient git,
+      TaskListener listener,
+      GitPushResult result,
+      GitPushCheckpoint.Store checkpoints)
+      throws IOException, InterruptedException {
+    String targetRef = Constants.R_HEADS + targetBranch;
+    ObjectId head = startHead == null ? git.revParse(Constants.HEAD) : startHead;
+    GitPushCheckpoint checkpoint = checkpoints.get();
+    if (checkpoint != null && !checkpoint.isValidFor(head)) {
+      listener.getLogger().println("HEAD moved since the last checkpoint, starting over");
+      checkpoint = null;
+    }
+    if (checkpoint == null) {
+      checkpoint = new GitPushCheckpoint(head);
+      if (options.isDeduplicate()) {
+        deduplicate(git, listener, result, checkpoints, checkpoint);
+      }
+    } else {
+      listener.getLogger().println("Resuming from the checkpoint: " + checkpoint);
+    }
+
+    ObjectId pushedRev = checkpoint.getPushedObjectId();
+    if (pushedRev == null) {
+      ObjectId fetchedRev = checkpoint.getFetchedObjectId();
+      Preflight outcome =
+          options.isPreflight() && fetchedRev == null
+              ? timed(result, "preflight", () -> runPreflight(git, listener, head))
+              : Preflight.NONE;
+      if (outcome.fetchAndMerge) {
+        CloneStateCallback.State cloneState =
+            this.cloneState == null
+                ? git.withRepository(new CloneStateCallback())
+                : this.cloneState;
+        if (fetchedRev == null) {
+          fetchedRev = timed(result, "fetch", () -> fetch(git, listener, cloneState, head));
+          checkpoint.fetched(fetchedRev);
+          checkpoints.put(checkpoint);
+        }
+        ObjectId remoteRev = fetchedRev;
+        pushedRev =
+            timed(result, "merge", () -> merge(git, listener, cloneState, head, remoteRev));
+      } else {
+        pushedRev = head;
+      }
+      checkpoint.merged(pushedRev);
+      if (!outcome.pushBranch) {
+        checkpoint.pushed(Collections.singletonList(targetRef));
+      }
+      checkpoints.put(checkpoint);
+    }
+    result.setPushedRev(pushedRev);
+
+    // Pushed by id: an in-core merge commit is not reachable from HEAD, and the merge of another
+    // target may have moved HEAD since the merge of this one
+    String branchRefSpec = pushedRev.name() + ":" + targetRef;
+    boolean pushBranch = !checkpoint.isPushed(targetRef);
+    boolean pushTags = !checkpoint.isPushed(ALL_TAGS);
+
+    Map<String, ObjectId> refs = new LinkedHashMap<>();
+    Map<String, ObjectId> forcedRefs = new LinkedHashMap<>();
+    for (String value : options.getRefSpecs()) {
+      RefSpec refSpec = parseRefSpec(value);
+      if (checkpoint.isPushed(refSpec.getDestination())) {
+        continue;
+      }
+      String source = refSpec.getSource();
+      ObjectId objectId = Constants.HEAD.equals(source) ? pushedRev : git.revParse(source);
+      (refSpec.isForceUpdate() ? forcedRefs : refs).put(refSpec.getDestination(), objectId);
+    }
+    boolean extraRefs = !refs.isEmpty() || !forcedRefs.isEmpty();
+    boolean createdTags = pushTags && options.getPushTags() == GitPushOptions.PushTags.CREATED;
+    // The additional refs go through the outbox, so the branch goes with them
+    boolean branchStaged = pushBranch && (options.isSinglePush() || extraRefs);
+
+    String outbox = StageOutboxCallback.outbox(targetRepo, targetBranch);
+    String forcedOutbox = StageOutboxCallback.forcedOutbox(outbox);
+    StageOutboxCallback.TagDelta tagDelta = null;
+    if (createdTags || extraRefs) {
+      String stagedBranch = branchStaged ? targetBranch : null;
+      ObjectId stagedRev = pushedRev;
+      tagDelta =
+          timed(
+              result,
+              "stage",
+              () ->
+                  git.withRepository(
+                      new StageOutboxCallback(outbox, createdTags, stagedBranch, stagedRev, refs)));
+      if (!forcedRefs.isEmpty()) {
+        timed(
+            result,
+            "stage",
+            () ->
+                git.withRepository(
+                    new StageOutboxCallback(forcedOutbox, false, null, null, forcedRefs)));
+      }
+      if (createdTags && tagDelta == null) {
+        listener.getLogger().println("No snapshot of the tags found, pushing every tag");
+      } else if (createdTags) {
+        listener.getLogger().println("Tags since the snapshot: " + tagDelta);
+      }
+    }
+
+    if (tagDelta != null || extraRefs) {
+      try {
+        pushStaged(
+            git,
+            listener,
+            result,
+            checkpoints,
+            checkpoint,
+            pushedRev,
+            branchRefSpec,
+            pushBranch,
+            branchStaged,
+            pushTags,
+            createdTags ? tagDelta : null,
+            refs,
+            forcedRefs);
+      } finally {
+        for (String staged : git.getRefNames(outbox)) {
+          git.deleteRef(staged);
+        }
+        for (String staged : git.getRefNames(forcedOutbox)) {
+          git.deleteRef(staged);
+        }
+      }
+    } else if (!pushBranch) {
+      if (pushTags) {
+        timed(result, "push tags", () -> git.push().to(remoteURI).ref(ALL_TAGS).execute());
+        result.addRefStatus(sent(ALL_TAGS, ALL_TAGS));
+        pushed(checkpoints, checkpoint, ALL_TAGS);
+      }
+    } else if (options.isSinglePush() && pushTags) {
+      timed(result, "push", () -> git.push().to(remoteURI).ref(branchRefSpec).tags(true).execute());
+      listener
+          .getLogger()
+          .println(
+              "Pushed "
+                  + pushedRev.name()
+                  + " to "
+                  + targetRepo
+                  + "/"
+                  + targetBranch
+                  + " with tags");
+      result.addRefStatus(sent(pushedRev.name(), targetRef));
+      result.addRefStatus(sent(ALL_TAGS, ALL_TAGS));
+      pushed(checkpoints, checkpoint, targetRef, ALL_TAGS);
+    } else {
+      timed(result, "push branch", () -> git.push().to(remoteURI).ref(branchRefSpec).execute());
+      result.addRefStatus(sent(pushedRev.name(), targetRef));
+      pushed(checkpoints, checkpoint, targetRef);
+      if (pushTags) {
+        timed(
+            result,
+            "push tags",
+            () -> git.push().to(remoteURI).ref(branchRefSpec).tags(true).execute());
+        result.addRefStatus(sent(ALL_TAGS, ALL_TAGS));
+        pushed(checkpoints, checkpoint, ALL_TAGS);
+      }
+    }
+
+    if (options.isDeduplicate()) {
+      ObjectId startHead = ObjectId.fromString(checkpoint.getHead());
+      checkpoints.remember(startHead, pushedRev);
+      if (!startHead.equals(pushedRev)) {
+        checkpoints.remember(pushedRev, pushedRev);
+      }
+    }
+
+    if (options.isRefetchAfterPush()) {
+      timed(result, "refetch", () -> git.fetch_().from(remoteURI, fetchRefSpecs).execute());
+    } else {
+      String remoteTrackingRef = Constants.R_REMOTES + targetRepo + "/" + targetBranch;
+      ObjectId updatedRev = pushedRev;
+      timed(
+          result,
+          "update remote-tracking ref",
+          () -> git.withRepository(new UpdateRefCallback(remoteTrackingRef, updatedRev)));
+    }
+  }
+
+  /**
+   * Looks for a recent push of HEAD to the target branch. If the target branch still points to the
+   * commit pushed back then, the checkpoint is moved past the branch push.
+   */
+  private void deduplicate(
+      GitClient git,
+      TaskListener listener,
+      GitPushResult result,
+      GitPushCheckpoint.Store checkpoints,
+      GitPushCheckpoint checkpoint)
+      throws IOException, InterruptedException {
+    ObjectId head = ObjectId.fromString(checkpoint.getHead());
+    ObjectId recalled = checkpoints.recall(head);
+    if (recalled == null) {
+      return;
+    }
+    String targetRef = Constants.R_HEADS + targetBranch;
+    ObjectId remoteTip = timed(result, "dedup", () -> remoteTip(git));
+    boolean confirmed = recalled.equals(remoteTip);
+    checkpoints.recalled(head, confirmed);
+    if (!confirmed) {
+      listener.getLogger().println(targetRef + " moved since HEAD was last pushed, pushing again");
+      return;
+    }
+    listener
+        .getLogger()
+        .println(
+            "HEAD was recently pushed to "
+                + targetRef
+                + ", which is still at "
+                + recalled.name()
+                + ", skipping fetch, merge and branch push");
+    checkpoint.merged(recalled);
+    checkpoint.pushed(Collections.singletonList(targetRef));
+    checkpoints.put(checkpoint);
+  }
+
+  /** @return The tip of the target branch on the remote, or null if it does not exist */
+  @CheckForNull
+  private ObjectId remoteTip(GitClient git) throws InterruptedException {
+    String targetRef = Constants.R_HEADS + targetBranch;
+    return git.getRemoteReferences(remoteURI.toPrivateString(), targetRef, true, false)
+        .get(targetRef);
+  }
+
+  /** Records in the checkpoint that {@code refs} were pushed */
+  private static void pushed(
+      GitPushCheckpoint.Store checkpoints, GitPushCheckpoint checkpoint, String... refs) {
+    checkpoint.pushed(Arrays.asList(refs));
+    checkpoints.put(checkpoint);
+  }
+
+  /**
+   * Pushes the target branch, the tags and the additional refs staged by {@link
+   * StageOutboxCallback}. When the branch is staged, everything but the forced refs goes through
+   * one push of the outbox.
+   *
+   * @param pushTags False if the tags were already pushed
+   * @param tagDelta The staged tags. Null if every tag is to be pushed.
+   */
+  private void pushStaged(
+      GitClient git,
+      TaskListener listener,
+      GitPushResult result,
+      GitPushCheckpoint.Store checkpoints,
+      GitPushCheckpoint checkpoint,
+      ObjectId pushedRev,
+      String branchRefSpec,
+      boolean pushBranch,
+      boolean branchStaged,
+      boolean pushTags,
+      @CheckForNull StageOutboxCallback.TagDelta tagDelta,
+      Map<String, ObjectId> refs,
+      Map<String, ObjectId> forcedRefs)
+      throws IOException, InterruptedException {
+    String targetRef = Constants.R_HEADS + targetBranch;
+    String outbox = StageOutboxCallback.outbox(targetRepo, targetBranch);
+    if (pushBranch && !branchStaged) {
+      timed(result, "push branch", () -> git.push().to(remoteURI).ref(branchRefSpec).execute());
+      result.addRefStatus(sent(pushedRev.name(), targetRef));
+      pushed(checkpoints, checkpoint, targetRef);
+    }
+    boolean allTags = pushTags && tagDelta == null;
+    if (!branchStaged && refs.isEmpty() && !allTags && (tagDelta == null || tagDelta.isEmpty())) {
+      if (pushTags) {
+        listener.getLogger().println("No tag to push");
+      }
+    } else {
+      timed(
+          result,
+          branchStaged || !refs.isEmpty() ? "push" : "push tags",
+          () ->
+              git.push()
+                  .to(remoteURI)
+                  .ref(StageOutboxCallback.refSpec(outbox))
+                  .tags(allTags)
+                  .execute());
+      List<String> pushedRefs = new ArrayList<>(refs.keySet());
+      if (branchStaged) {
+        result.addRefStatus(sent(pushedRev.name(), targetRef));
+        pushedRefs.add(targetRef);
+      }
+      addRefStatuses(result, refs);
+      if (allTags) {
+        result.addRefStatus(sent(ALL_TAGS, ALL_TAGS));
+      } else if (tagDelta != null) {
+        List<String> tags = new ArrayList<>(tagDelta.getCreated());
+        tags.addAll(tagDelta.getMoved());
+        for (String tag : tags) {
+          result.addRefStatus(sent(tag, tag));
+        }
+      }
+      if (pushTags) {
+        pushedRefs.add(ALL_TAGS);
+      }
+      pushed(checkpoints, checkpoint, pushedRefs.toArray(new String[0]));
+    }
+
+    if (!forcedRefs.isEmpty()) {
+      String forcedRefSpec =
+          "+" + StageOutboxCallback.refSpec(StageOutboxCallback.forcedOutbox(outbox));
+      timed(
+          result, "push forced refs", () -> git.push().to(remoteURI).ref(forcedRefSpec).execute());
+      addRefStatuses(result, forcedRefs);
+      pushed(checkpoints, checkpoint, forcedRefs.keySet().toArray(new String[0]));
+    }
+  }
+
+  /**
+   * @return The status of a ref sent by a push that succeeded. The git client reports no outcome
+   *     per ref, only the failure of the whole push.
+   */
+  private static PushRefStatus sent(String source, String destination) {
+    return new PushRefStatus(source, destination, PushRefStatus.Status.UNKNOWN, null);
+  }
+
+  private static void addRefStatuses(GitPushResult result, Map<String, ObjectId> refs) {
+    for (Map.Entry<String, ObjectId> ref : refs.entrySet()) {
+      result.addRefStatus(sent(ref.getValue().name(), ref.getKey()));
+    }
+  }
+
+  /**
+   * @return The refspec, with a full destination ref name: the source when the destination is
+   *     omitted, a branch when the destination does not start with {@code refs/}
+   * @throws IllegalArgumentException If the refspec is invalid or not supported
+   */
+  static RefSpec parseRefSpec(String value) {
+    RefSpec refSpec = new RefSpec(value.trim());
+    String source = refSpec.getSource();
+    if (source == null || source.isEmpty()) {
+      throw new IllegalArgumentException("Deleting a ref is not supported: " + value);
+    }
+    if (refSpec.isWildcard()) {
+      throw new IllegalArgumentException("Wildcard refspecs are not supported: " + value);
+    }
+    String destination = refSpec.getDestination();
+    if (destination == null || destination.isEmpty()) {
+      if (Constants.HEAD.equals(source)) {
+        throw new IllegalArgumentException("HEAD needs a destination: " + value);
+      }
+      destination = source;
+    }
+    if (!destination.startsWith(Constants.R_REFS)) {
+      destination = Constants.R_HEADS + destination;
+    }
+    return refSpec.setDestination(destination);
+  }
+
+  /**
+   * Fetches the target branch. In a shallow clone, the history is only fetched as deep as needed to
+   * find a merge base with HEAD, doubling the depth at each step, rather than down to the commits
+   * already present. The depth counts from the tip of the target branch and git cuts the history
+   * at that depth, so the first fetch goes past the depth of the local history not to shorten it.
+   *
+   * @param head The commit a shallow clone needs a merge base with
+   * @return The fetched tip of the target branch
+   */
+  private ObjectId fetch(
+      GitClient git, TaskListener listener, CloneStateCallback.State cloneState, ObjectId head)
+      throws InterruptedException, IOException {
+    String remoteBranch = targetRepo + "/" + targetBranch;
+    // JGit does not fetch into shallow clones
+    if (!cloneState.isShallow() || options.getEngine() == GitPushOptions.Engine.JGIT) {
+      git.fetch_().from(remoteURI, fetchRefSpecs).execute();
+      return git.revParse(remoteBranch);
+    }
+    int startDepth = cloneState.getDepth() + SHALLOW_FETCH_DEPTH;
+    int maxDepth = Math.max(MAX_SHALLOW_FETCH_DEPTH, startDepth);
+    for (int depth = startDepth; ; depth *= 2) {
+      boolean complete = depth > maxDepth;
+      git.fetch_()
+          .from(remoteURI, fetchRefSpecs)
+          .shallow(true)
+          .depth(complete ? COMPLETE_DEPTH : depth)
+          .execute();
+      ObjectId fetchedRev = git.revParse(remoteBranch);
+      if (complete) {
+        listener.getLogger().println("Shallow clone: fetched the whole history of " + remoteBranch);
+        return fetchedRev;
+      }
+      if (git.withRepository(new MergeBaseCallback(head, fetchedRev))) {
+        listener
+            .getLogger()
+            .println(
+                "Shallow clone: found a merge base with "
+                    + remoteBranch
+                    + " fetched "
+                    + depth
+                    + " commit(s) deep");
+        return fetchedRev;
+      }
+    }
+  }
+
+  /**
+   * Merges the fetched target branch according to the merge mode. A working tree merge checks out
+   * {@code head} again if the merge of another target moved HEAD.
+   *
+   * @param head The commit to merge the target branch into
+   * @param remoteRev The fetched tip of the target branch
+   * @return The commit to push
+   */
+  private ObjectId merge(
+      GitClient git,
+      TaskListener listener,
+      CloneStateCallback.State cloneState,
+      ObjectId head,
+      ObjectId remoteRev)
+      throws InterruptedException, IOException {
+    String remoteBranch = targetRepo + "/" + targetBranch;
+    if (options.getMergeMode() == GitPushOptions.MergeMode.WORKING_TREE) {
+      WorkTreeLock lock = WorkTreeLock.acquire(git.getWorkTree().getRemote());
+      try {
+        synchronized (lock) {
+          if (!head.equals(git.revParse(Constants.HEAD))) {
+            listener
+                .getLogger()
+                .println(
+                    "HEAD was moved by the merge of another target, checking out " + head.name());
+            git.checkout().ref(head.name()).execute();
+          }
+          git.merge().setRevisionToMerge(remoteRev).execute();
+          return git.revParse(Constants.HEAD);
+        }
+      } finally {
+        lock.release();
+      }
+    }
+
+    // Unlike the command line git, JGit does not fetch the objects missing from a partial clone
+    if (cloneState.isPartial() && options.getEngine() != GitPushOptions.Engine.JGIT) {
+      List<String> blobs = git.withRepository(new MergeBlobsCallback(head, remoteRev));
+      if (!blobs.isEmpty()) {
+        listener
+            .getLogger()
+            .println("Partial clone: fetching the " + blobs.size() + " blob(s) the merge reads");
+        List<RefSpec> blobRefSpecs = new ArrayList<>();
+        for (String blob : blobs) {
+          blobRefSpecs.add(new RefSpec(blob));
+        }
+        git.fetch_().from(remoteURI, blobRefSpecs).execute();
+      }
+    }
+    ObjectId merged =
+        git.withRepository(
+            new InCoreMergeCallback(
+                head,
+                remoteRev,
+                options.getMergeMode() == GitPushOptions.MergeMode.FAST_FORWARD_ONLY,
+                "Merge remote-tracking branch '" + remoteBranch + "'",
+                author,
+                committer));
+    if (!merged.equals(head) && !merged.equals(remoteRev)) {
+      listener
+          .getLogger()
+          .println(
+              "Merged "
+                  + remoteBranch
+                  + " into HEAD in-core, pushing merge commit "
+                  + merged.name());
+    }
+    return merged;
+  }
+
+  /**
+   * Compares the tip of the target branch, obtained through a ls-remote of that single ref, with
+   * the local HEAD to find out which phases can be skipped.
+   */
+  private Preflight runPreflight(GitClient git, TaskListener listener, ObjectId head)
+      throws InterruptedException, IOException {
+    String targetRef = Constants.R_HEADS + targetBranch;
+    ObjectId remoteTip = remoteTip(git);
+
+    PrintStream logger = listener.getLogger();
+    if (remoteTip == null) {
+      logger.println("Pre-flight: " + targetRef + " does not exist yet, skipping fetch and merge");
+      return Preflight.PUSH_ONLY;
+    }
+    if (remoteTip.equals(head)) {
+      logger.println(
+          "Pre-flight: "
+              + targetRef
+              + " is already at HEAD ("
+              + head.name()
+              + "), skipping fetch, merge and branch push");
+      return Preflight.TAGS_ONLY;
+    }
+    if (git.withRepository(new AncestryCallback(remoteTip, head))) {
+      logger.println(
+          "Pre-flight: "
+              + targetRef
+              + " ("
+              + remoteTip.name()
+              + ") is an ancestor of HEAD, skipping fetch and merge");
+      return Preflight.PUSH_ONLY;
+    }
+    logger.println(
+        "Pre-flight: " + targetRef + " (" + remoteTip.name() + ") has moved, fetching and merging");
+    return Preflight.NONE;
+  }
+
+  private static <T> T timed(GitPushResult result, String phase, Phase<T> action)
+      throws IOException, InterruptedException {
+    long start = System.nanoTime();
+    try {
+      return action.run();
+    } finally {
+      result.recordPhase(phase, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+  }
+
+  private static void timed(GitPushResult result, String phase, VoidPhase action)
+      throws IOException, InterruptedException {
+    timed(
+        result,
+        phase,
+        () -> {
+          action.run();
+          return null;
+        });
+  }
+
+  private interface Phase<T> {
+    T run() throws IOException, InterruptedException;
+  }
+
+  private interface VoidPhase {
+    void run() throws IOException, InterruptedException;
+  }
+
+  /** The lock of the working tree merges of a workspace, dropped once no merge holds it */
+  private static class WorkTreeLock {
+
+    private final String workTree;
+    private int holders;
+
+    private WorkTreeLock(String workTree) {
+      this.workTree = workTree;
+    }
+
+    static WorkTreeLock acquire(String workTree) {
+      synchronized (WORK_TREE_LOCKS) {
+        WorkTreeLock lock = WORK_TREE_LOCKS.computeIfAbsent(workTree, WorkTreeLock::new);
+        lock.holders++;
+        return lock;
+      }
+    }
+
+    void release() {
+      synchronized (WORK_TREE_LOCKS) {
+        if (--holders == 0) {
+          WORK_TREE_LOCKS.remove(workTree);
+        }
+      }
+    }
+  }
+
+  private enum Preflight {
+    /** Every phase is needed */
+    NONE(true, true),
+    /** The remote branch does not need to be merged */
+    PUSH_ONLY(false, true),
+    /** The remote branch already points to HEAD, only the tags may be missing */
+    TAGS_ONLY(false, false);
+
+    private final boolean fetchAndMerge;
+    private final boolean pushBranch;
+
+    Preflight(boolean fetchAndMerge, boolean pushBranch) {
+      this.fetchAndMerge = fetchAndMerge;
+      this.pushBranch = pushBranch;
+    }
+  }
+}
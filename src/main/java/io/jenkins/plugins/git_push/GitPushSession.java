@@ -0,0 +1,207 @@
+package io.jenkins.plugins.git_push;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.Computer;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import hudson.util.StreamTaskListener;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+/**
+ * What the pushes of a build from a workspace resolve before running git, kept for the next pushes
+ * of the same build: the build environment, the working directory, the git clients and their
+ * factories. See {@link GitPushOptions.Session}.
+ *
+ * <p>A session serves one push at a time, a concurrent push of the same build resolves everything
+ * on its own. The git clients of the session write to the listener of the push currently holding
+ * it. Sessions are discarded explicitly, through {@link GitPushOptions.Session#RENEW} or {@link
+ * #invalidate(Run)}, and when their build completes.
+ *
+ * @author Réda Housni Alaoui
+ */
+public class GitPushSession {
+
+  private static final ConcurrentMap<String, GitPushSession> SESSIONS = new ConcurrentHashMap<>();
+
+  private final String runId;
+  private final AtomicBoolean busy = new AtomicBoolean();
+  private final Forwarder output = new Forwarder();
+  private final TaskListener clientListener =
+      new StreamTaskListener(output, StandardCharsets.UTF_8);
+  /** Completed once resolved, so that the targets pushed concurrently resolve a value once */
+  private final ConcurrentMap<Object, CompletableFuture<Resolved>> values =
+      new ConcurrentHashMap<>();
+  private final AtomicInteger reused = new AtomicInteger();
+  private final AtomicLong savedMillis = new AtomicLong();
+
+  private GitPushSession(String runId) {
+    this.runId = runId;
+  }
+
+  /**
+   * @param renew True to discard the session of the build and workspace first
+   * @return The session of {@code run} and {@code workspace}, to {@link #release(TaskListener)}
+   *     once the push is done. Null if another push of the build holds it.
+   */
+  @CheckForNull
+  static GitPushSession acquire(
+      Run<?, ?> run, FilePath workspace, boolean renew, TaskListener listener) {
+    Computer computer = workspace.toComputer();
+    String key =
+        run.getExternalizableId()
+            + ' '
+            + (computer == null ? "" : computer.getName())
+            + ':'
+            + workspace.getRemote();
+    if (renew && SESSIONS.remove(key) != null) {
+      listener.getLogger().println("Discarded the push session of " + workspace.getRemote());
+    }
+    GitPushSession session =
+        SESSIONS.computeIfAbsent(key, k -> new GitPushSession(run.getExternalizableId()));
+    if (!session.busy.compareAndSet(false, true)) {
+      listener
+          .getLogger()
+          .println("The push session is held by another push of the build, not using it");
+      return null;
+    }
+    return session;
+  }
+
+  /** Discards the sessions of {@code run} */
+  public static void invalidate(@Nonnull Run<?, ?> run) {
+    SESSIONS.values().removeIf(session -> session.runId.equals(run.getExternalizableId()));
+  }
+
+  /** Makes the git clients of the session write to {@code listener} */
+  void attach(TaskListener listener) {
+    output.target = listener.getLogger();
+  }
+
+  /** @return The listener the git clients of the session must be created with */
+  TaskListener getClientListener() {
+    return clientListener;
+  }
+
+  /**
+   * Only the values of {@code key} are locked while {@code resolver} runs: a concurrent call with
+   * the same key waits for the value, the calls with other keys go on. A failed resolution is
+   * forgotten, the calls waiting for it resolve the value again.
+   *
+   * @param key What the value depends on, compared with {@link Object#equals(Object)}
+   * @return The value resolved by an earlier push of the session, or just resolved
+   */
+  @SuppressWarnings("unchecked")
+  <T> T get(Object key, Resolver<T> resolver) throws IOException, InterruptedException {
+    CompletableFuture<Resolved> placeholder = new CompletableFuture<>();
+    CompletableFuture<Resolved> existing = values.putIfAbsent(key, placeholder);
+    if (existing == null) {
+      long start = System.nanoTime();
+      try {
+        T value = resolver.resolve();
+        placeholder.complete(
+            new Resolved(value, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        return value;
+      } catch (Throwable e) {
+        values.remove(key, placeholder);
+        placeholder.completeExceptionally(e);
+        throw e;
+      }
+    }
+    Resolved resolved;
+    try {
+      resolved = existing.get();
+    } catch (ExecutionException e) {
+      return get(key, resolver);
+    }
+    reused.incrementAndGet();
+    savedMillis.addAndGet(resolved.millis);
+    return (T) resolved.value;
+  }
+
+  /** Lets the next push of the build use the session, printing the setup time it saved */
+  void release(TaskListener listener) {
+    int reusedCount = reused.getAndSet(0);
+    long saved = savedMillis.getAndSet(0);
+    if (reusedCount > 0) {
+      listener
+          .getLogger()
+          .println(
+              "Reused "
+                  + reusedCount
+                  + " item(s) of the push session, saving "
+                  + saved
+                  + " ms of setup");
+    }
+    output.target = null;
+    busy.set(false);
+  }
+
+  interface Resolver<T> {
+    T resolve() throws IOException, InterruptedException;
+  }
+
+  private static class Resolved {
+
+    private final Object value;
+    private final long millis;
+
+    private Resolved(Object value, long millis) {
+      this.value = value;
+      this.millis = millis;
+    }
+  }
+
+  /** Writes to the listener of the push holding the session, if any */
+  private static class Forwarder extends OutputStream {
+
+    private volatile PrintStream target;
+
+    @Override
+    public void write(int b) {
+      PrintStream current = target;
+      if (current != null) {
+        current.write(b);
+      }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      PrintStream current = target;
+      if (current != null) {
+        current.write(b, off, len);
+      }
+    }
+
+    @Override
+    public void flush() {
+      PrintStream current = target;
+      if (current != null) {
+        current.flush();
+      }
+    }
+  }
+
+  @Extension
+  public static class Cleanup extends RunListener<Run<?, ?>> {
+
+    @Override
+    public void onCompleted(Run<?, ?> run, @Nonnull TaskListener listener) {
+      invalidate(run);
+    }
+  }
+}
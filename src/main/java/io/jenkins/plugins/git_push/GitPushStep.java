@@ -7,16 +7,29 @@ import hudson.FilePath;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.plugins.git.GitSCM;
+import hudson.scm.SCM;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.annotation.Nonnull;
+import jenkins.scm.RunWithSCM;
+import jenkins.util.ClassLoaderSanityThreadFactory;
 import org.jenkinsci.plugins.workflow.steps.Step;
 import org.jenkinsci.plugins.workflow.steps.StepContext;
 import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
 import org.jenkinsci.plugins.workflow.steps.StepExecution;
-import org.jenkinsci.plugins.workflow.steps.SynchronousNonBlockingStepExecution;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 
@@ -26,6 +39,28 @@ public class GitPushStep extends Step {
   private GitSCM gitScm;
   private String targetBranch;
   private String targetRepo;
+  private List<GitPushTarget> targets;
+  private boolean singlePush;
+  private boolean narrowFetch;
+  private boolean refetchAfterPush;
+  private boolean preflight;
+  private boolean queue;
+  private int pushRetries;
+  private boolean runOnAgent;
+  private GitPushOptions.Engine engine;
+  private GitPushOptions.MergeMode mergeMode;
+  private GitPushOptions.PushTags pushTags;
+  private int targetConcurrency;
+  private boolean referenceStore;
+  private int maintenanceThreshold;
+  private GitPushOptions.PackTuning packTuning;
+  private int packCompression;
+  private int packWindow;
+  private int packDepth;
+  private int packThreads;
+  private boolean deduplicate;
+  private GitPushOptions.Session session;
+  private List<String> refSpecs;
 
   @DataBoundConstructor
   public GitPushStep() {
@@ -59,56 +94,447 @@ public class GitPushStep extends Step {
     return targetRepo;
   }
 
+  @DataBoundSetter
+  public void setTargets(List<GitPushTarget> targets) {
+    this.targets = targets;
+  }
+
+  /** @return The targets pushed to in addition to the target branch of the target repo */
+  public List<GitPushTarget> getTargets() {
+    return targets == null ? Collections.emptyList() : targets;
+  }
+
+  @DataBoundSetter
+  public void setSinglePush(boolean singlePush) {
+    this.singlePush = singlePush;
+  }
+
+  public boolean isSinglePush() {
+    return singlePush;
+  }
+
+  @DataBoundSetter
+  public void setNarrowFetch(boolean narrowFetch) {
+    this.narrowFetch = narrowFetch;
+  }
+
+  public boolean isNarrowFetch() {
+    return narrowFetch;
+  }
+
+  @DataBoundSetter
+  public void setRefetchAfterPush(boolean refetchAfterPush) {
+    this.refetchAfterPush = refetchAfterPush;
+  }
+
+  public boolean isRefetchAfterPush() {
+    return refetchAfterPush;
+  }
+
+  @DataBoundSetter
+  public void setPreflight(boolean preflight) {
+    this.preflight = preflight;
+  }
+
+  public boolean isPreflight() {
+    return preflight;
+  }
+
+  @DataBoundSetter
+  public void setQueue(boolean queue) {
+    this.queue = queue;
+  }
+
+  public boolean isQueue() {
+    return queue;
+  }
+
+  @DataBoundSetter
+  public void setPushRetries(int pushRetries) {
+    this.pushRetries = pushRetries;
+  }
+
+  public int getPushRetries() {
+    return pushRetries;
+  }
+
+  @DataBoundSetter
+  public void setRunOnAgent(boolean runOnAgent) {
+    this.runOnAgent = runOnAgent;
+  }
+
+  public boolean isRunOnAgent() {
+    return runOnAgent;
+  }
+
+  @DataBoundSetter
+  public void setEngine(GitPushOptions.Engine engine) {
+    this.engine = engine;
+  }
+
+  public GitPushOptions.Engine getEngine() {
+    return engine;
+  }
+
+  @DataBoundSetter
+  public void setMergeMode(GitPushOptions.MergeMode mergeMode) {
+    this.mergeMode = mergeMode;
+  }
+
+  public GitPushOptions.MergeMode getMergeMode() {
+    return mergeMode;
+  }
+
+  @DataBoundSetter
+  public void setPushTags(GitPushOptions.PushTags pushTags) {
+    this.pushTags = pushTags;
+  }
+
+  public GitPushOptions.PushTags getPushTags() {
+    return pushTags;
+  }
+
+  @DataBoundSetter
+  public void setTargetConcurrency(int targetConcurrency) {
+    this.targetConcurrency = targetConcurrency;
+  }
+
+  public int getTargetConcurrency() {
+    return targetConcurrency;
+  }
+
+  @DataBoundSetter
+  public void setReferenceStore(boolean referenceStore) {
+    this.referenceStore = referenceStore;
+  }
+
+  public boolean isReferenceStore() {
+    return referenceStore;
+  }
+
+  @DataBoundSetter
+  public void setMaintenanceThreshold(int maintenanceThreshold) {
+    this.maintenanceThreshold = maintenanceThreshold;
+  }
+
+  public int getMaintenanceThreshold() {
+    return maintenanceThreshold;
+  }
+
+  @DataBoundSetter
+  public void setPackTuning(GitPushOptions.PackTuning packTuning) {
+    this.packTuning = packTuning;
+  }
+
+  public GitPushOptions.PackTuning getPackTuning() {
+    return packTuning;
+  }
+
+  @DataBoundSetter
+  public void setPackCompression(int packCompression) {
+    this.packCompression = packCompression;
+  }
+
+  public int getPackCompression() {
+    return packCompression;
+  }
+
+  @DataBoundSetter
+  public void setPackWindow(int packWindow) {
+    this.packWindow = packWindow;
+  }
+
+  public int getPackWindow() {
+    return packWindow;
+  }
+
+  @DataBoundSetter
+  public void setPackDepth(int packDepth) {
+    this.packDepth = packDepth;
+  }
+
+  public int getPackDepth() {
+    return packDepth;
+  }
+
+  @DataBoundSetter
+  public void setPackThreads(int packThreads) {
+    this.packThreads = packThreads;
+  }
+
+  public int getPackThreads() {
+    return packThreads;
+  }
+
+  @DataBoundSetter
+  public void setDeduplicate(boolean deduplicate) {
+    this.deduplicate = deduplicate;
+  }
+
+  public boolean isDeduplicate() {
+    return deduplicate;
+  }
+
+  @DataBoundSetter
+  public void setSession(GitPushOptions.Session session) {
+    this.session = session;
+  }
+
+  public GitPushOptions.Session getSession() {
+    return session;
+  }
+
+  /** @param refSpecs Additional refspecs pushed along with the target branch */
+  @DataBoundSetter
+  public void setRefSpecs(List<String> refSpecs) {
+    this.refSpecs = refSpecs;
+  }
+
+  public List<String> getRefSpecs() {
+    return refSpecs == null ? Collections.emptyList() : refSpecs;
+  }
+
+  private GitPushOptions options() {
+    return new GitPushOptions()
+        .singlePush(singlePush)
+        .narrowFetch(narrowFetch)
+        .refetchAfterPush(refetchAfterPush)
+        .preflight(preflight)
+        .queue(queue)
+        .pushRetries(pushRetries)
+        .runOnAgent(runOnAgent)
+        .engine(engine)
+        .mergeMode(mergeMode)
+        .pushTags(pushTags)
+        .targetConcurrency(targetConcurrency)
+        .referenceStore(referenceStore)
+        .refSpecs(refSpecs)
+        .maintenanceThreshold(maintenanceThreshold)
+        .packTuning(packTuning)
+        .packCompression(packCompression)
+        .packWindow(packWindow)
+        .packDepth(packDepth)
+        .packThreads(packThreads)
+        .deduplicate(deduplicate)
+        .session(session);
+  }
+
   @Override
   public StepExecution start(StepContext context) {
-    return new Execution(context, gitScm, targetBranch, targetRepo);
+    List<GitPushTarget> allTargets = new ArrayList<>();
+    if (targetBranch != null || targetRepo != null) {
+      allTargets.add(new GitPushTarget(targetRepo, targetBranch));
+    }
+    allTargets.addAll(getTargets());
+    return new Execution(context, gitScm, allTargets, options());
   }
 
-  private static class Execution extends SynchronousNonBlockingStepExecution<Void> {
+  /**
+   * Runs the push on a pool owned by the step, and completes the step context from there. The
+   * number of pushes running at the same time is bounded by {@link GitPushLimits#MAX_STEP_PUSHES},
+   * whose slots are taken once the push is through the {@link GitPushQueue} and the other limits,
+   * so pushes waiting on a busy branch or host never keep the others from running.
+   *
+   * <p>The versions running the step synchronously extended {@code
+   * SynchronousNonBlockingStepExecution}. The serialization skips the data of a superclass removed
+   * from the hierarchy, and {@code readObject} reads their format, so an execution interrupted by
+   * the upgrade is resumed as any other.
+   */
+  private static class Execution extends StepExecution {
 
     private static final long serialVersionUID = 1L;
 
+    /** Written first by {@link #writeObject(ObjectOutputStream)}, to be raised on format changes */
+    private static final Integer FORMAT_VERSION = 1;
+
+    private static final ExecutorService EXECUTOR =
+        Executors.newCachedThreadPool(
+            new NamingThreadFactory(
+                new ClassLoaderSanityThreadFactory(new DaemonThreadFactory()),
+                GitPushStep.class.getName()));
+
     private transient GitSCM gitScm;
-    private String targetBranch;
-    private String targetRepo;
+    private ArrayList<GitPushTarget> targets;
+    private GitPushOptions options;
+    /** The phases already done per target, so that a resumed push does not redo them */
+    private ConcurrentHashMap<String, GitPushCheckpoint> checkpoints = new ConcurrentHashMap<>();
+
+    private transient volatile Future<?> task;
+    private transient volatile boolean stopped;
 
     protected Execution(
         @Nonnull StepContext context,
         @Nonnull GitSCM gitScm,
-        @Nonnull String targetBranch,
-        @Nonnull String targetRepo) {
+        @Nonnull List<GitPushTarget> targets,
+        @Nonnull GitPushOptions options) {
       super(context);
       this.gitScm = gitScm;
-      this.targetBranch = targetBranch;
-      this.targetRepo = targetRepo;
+      this.targets = new ArrayList<>(targets);
+      this.options = options;
     }
 
     @Override
-    protected Void run() throws Exception {
+    public boolean start() throws Exception {
       if (gitScm == null) {
         throw new AbortException("gitScm is missing");
       }
+      if (targets.isEmpty()) {
+        throw new AbortException("targetBranch and targetRepo, or targets, are missing");
+      }
+      submit();
+      return false;
+    }
 
-      new GitPushCommand(
-              gitScm,
-              getContext().get(Run.class),
-              getContext().get(TaskListener.class),
-              getContext().get(FilePath.class))
-          .call(targetBranch, targetRepo);
+    /**
+     * Interrupts the push. An interrupted command line git client kills its git process, the JGit
+     * engine stops at its next interruption check.
+     */
+    @Override
+    public void stop(@Nonnull Throwable cause) throws Exception {
+      stopped = true;
+      Future<?> running = task;
+      if (running != null) {
+        running.cancel(true);
+      }
+      getContext().onFailure(cause);
+    }
 
-      return null;
+    /**
+     * The push in flight did not survive the restart, so it is run again. It resumes from the
+     * checkpoint of each target, skipping the fetch, merge and pushes already done.
+     */
+    @Override
+    public void onResume() {
+      submit();
+    }
+
+    @Override
+    public String getStatus() {
+      Future<?> running = task;
+      if (running == null) {
+        return "not started";
+      }
+      return running.isDone() ? "done" : "pushing to " + targets;
+    }
+
+    private void submit() {
+      task =
+          EXECUTOR.submit(
+              () -> {
+                try {
+                  Map<String, Map<String, Object>> result = push();
+                  if (!stopped) {
+                    getContext().onSuccess(result);
+                  }
+                } catch (Throwable e) {
+                  if (!stopped) {
+                    getContext().onFailure(e);
+                  }
+                }
+              });
+    }
+
+    /** @return The result of each target, keyed by target repo and target branch */
+    private Map<String, Map<String, Object>> push() throws Exception {
+      Run<?, ?> run = getContext().get(Run.class);
+      TaskListener listener = getContext().get(TaskListener.class);
+      FilePath workspace = getContext().get(FilePath.class);
+      if (workspace == null) {
+        throw new AbortException("The workspace of " + run + " is not available");
+      }
+      if (gitScm == null) {
+        gitScm = recoverGitScm(run);
+        listener.getLogger().println("Resuming the push to " + targets);
+      }
+
+      List<GitPushTargetResult> results =
+          new GitPushCommand(gitScm, run, listener, workspace)
+              .options(options)
+              .checkpoints(checkpoints)
+              .fromStep()
+              .call(targets);
+
+      if (results.size() == 1
+          && results.get(0).getError() != null
+          && !results.get(0).getTarget().isBestEffort()) {
+        throw results.get(0).getError();
+      }
+      Map<String, Map<String, Object>> resultsByTarget = new LinkedHashMap<>();
+      List<GitPushTarget> failedTargets = new ArrayList<>();
+      for (GitPushTargetResult result : results) {
+        resultsByTarget.put(result.getTarget().toString(), result.toMap());
+        Exception error = result.getError();
+        if (error == null) {
+          continue;
+        }
+        if (result.getTarget().isBestEffort()) {
+          listener
+              .getLogger()
+              .println(
+                  "Best-effort push to " + result.getTarget() + " failed: " + error.getMessage());
+        } else {
+          error.printStackTrace(listener.error(error.getMessage()));
+          failedTargets.add(result.getTarget());
+        }
+      }
+      if (!failedTargets.isEmpty()) {
+        throw new AbortException("Failed to push to " + failedTargets);
+      }
+      return resultsByTarget;
+    }
+
+    /**
+     * The {@link GitSCM} given to the step is not persisted. After a restart, it is looked up among
+     * the checkouts of the run, as the first one knowing every target repo.
+     */
+    private GitSCM recoverGitScm(Run<?, ?> run) throws AbortException {
+      if (run instanceof RunWithSCM) {
+        for (SCM scm : ((RunWithSCM<?, ?>) run).getSCMs()) {
+          if (!(scm instanceof GitSCM)) {
+            continue;
+          }
+          GitSCM candidate = (GitSCM) scm;
+          if (targets.stream()
+              .allMatch(target -> candidate.getRepositoryByName(target.getTargetRepo()) != null)) {
+            return candidate;
+          }
+        }
+      }
+      throw new AbortException(
+          "gitScm was lost by the restart and no checkout of "
+              + run
+              + " knows every repo of "
+              + targets);
     }
 
     private void writeObject(ObjectOutputStream outputStream) throws IOException {
-      outputStream.writeObject(targetBranch);
-      outputStream.writeObject(targetRepo);
+      outputStream.writeObject(FORMAT_VERSION);
+      outputStream.writeObject(targets);
+      outputStream.writeObject(options);
+      outputStream.writeObject(checkpoints);
     }
 
+    /**
+     * Reads the versioned format, and the unversioned one written by the previous versions: the
+     * target branch and repo. What the unversioned format lacks gets its default value.
+     */
+    @SuppressWarnings("unchecked")
     private void readObject(ObjectInputStream inputStream)
         throws IOException, ClassNotFoundException {
       gitScm = null;
-      targetBranch = (String) inputStream.readObject();
-      targetRepo = (String) inputStream.readObject();
+      Object first = inputStream.readObject();
+      if (first instanceof Integer) {
+        targets = (ArrayList<GitPushTarget>) inputStream.readObject();
+        options = (GitPushOptions) inputStream.readObject();
+        checkpoints = (ConcurrentHashMap<String, GitPushCheckpoint>) inputStream.readObject();
+        return;
+      }
+      String targetBranch = (String) first;
+      String targetRepo = (String) inputStream.readObject();
+      targets = new ArrayList<>();
+      targets.add(new GitPushTarget(targetRepo, targetBranch));
+      options = new GitPushOptions();
+      checkpoints = new ConcurrentHashMap<>();
     }
   }
 
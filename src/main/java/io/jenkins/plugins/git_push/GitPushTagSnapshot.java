@@ -0,0 +1,81 @@
+package io.jenkins.plugins.git_push;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.AbstractProject;
+import hudson.model.InvisibleAction;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.SCMListener;
+import hudson.plugins.git.GitException;
+import hudson.plugins.git.GitSCM;
+import hudson.scm.SCM;
+import hudson.scm.SCMRevisionState;
+import java.io.File;
+import java.io.IOException;
+import org.jenkinsci.plugins.gitclient.GitClient;
+
+/**
+ * Snapshots the tags of the workspace right after a git checkout, so that {@link
+ * GitPushOptions.PushTags#CREATED} can push only the tags the build created or moved, and {@link
+ * MatrixGitPush} only collects those of the configuration runs.
+ *
+ * <p>Reading and writing every tag has a cost on repositories with many tags, so the snapshot is
+ * only taken for jobs that need it: projects having a {@link GitPush} publisher configured either
+ * way, and jobs whose previous build pushed with that mode.
+ *
+ * @author Réda Housni Alaoui
+ */
+@Extension
+public class GitPushTagSnapshot extends SCMListener {
+
+  @Override
+  public void onCheckout(
+      Run<?, ?> build,
+      SCM scm,
+      FilePath workspace,
+      TaskListener listener,
+      File changelogFile,
+      SCMRevisionState pollingBaseline)
+      throws Exception {
+    if (!(scm instanceof GitSCM) || workspace == null || !isNeeded(build)) {
+      return;
+    }
+    GitClient git =
+        ((GitSCM) scm).createClient(listener, build.getEnvironment(listener), build, workspace);
+    try {
+      int tags = git.withRepository(new TagSnapshotCallback());
+      listener.getLogger().println("Recorded a snapshot of " + tags + " tags");
+    } catch (GitException | IOException e) {
+      // The push falls back to every tag
+      e.printStackTrace(listener.error("Failed to record the snapshot of the tags"));
+    }
+  }
+
+  private static boolean isNeeded(Run<?, ?> build) {
+    Job<?, ?> job = build.getParent();
+    if (job instanceof AbstractProject) {
+      GitPush gitPush = ((AbstractProject<?, ?>) job).getPublishersList().get(GitPush.class);
+      if (gitPush != null
+          && (gitPush.getPushTags() == GitPushOptions.PushTags.CREATED
+              || gitPush.isCollectMatrixRuns())) {
+        return true;
+      }
+    }
+    Run<?, ?> previousBuild = build.getPreviousBuild();
+    return previousBuild != null && previousBuild.getAction(Requested.class) != null;
+  }
+
+  /**
+   * Remembers that a build pushed only the tags it created, so that the next builds of the job
+   * take a snapshot at checkout.
+   */
+  static void request(Run<?, ?> build) {
+    if (build.getAction(Requested.class) == null) {
+      build.addAction(new Requested());
+    }
+  }
+
+  public static class Requested extends InvisibleAction {}
+}
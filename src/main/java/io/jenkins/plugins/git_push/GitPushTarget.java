@@ -0,0 +1,70 @@
+package io.jenkins.plugins.git_push;
+
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+import java.io.Serializable;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * A remote branch to push to. A failed push to a best-effort target is reported without failing
+ * the build.
+ *
+ * @author Réda Housni Alaoui
+ */
+public class GitPushTarget extends AbstractDescribableImpl<GitPushTarget> implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final String targetRepo;
+  private final String targetBranch;
+  private boolean bestEffort;
+
+  @DataBoundConstructor
+  public GitPushTarget(String targetRepo, String targetBranch) {
+    this.targetRepo = targetRepo;
+    this.targetBranch = targetBranch;
+  }
+
+  public String getTargetRepo() {
+    return targetRepo;
+  }
+
+  public String getTargetBranch() {
+    return targetBranch;
+  }
+
+  @DataBoundSetter
+  public void setBestEffort(boolean bestEffort) {
+    this.bestEffort = bestEffort;
+  }
+
+  public boolean isBestEffort() {
+    return bestEffort;
+  }
+
+  @Override
+  public String toString() {
+    return targetRepo + "/" + targetBranch;
+  }
+
+  @Extension
+  public static class DescriptorImpl extends Descriptor<GitPushTarget> {
+
+    @Override
+    public String getDisplayName() {
+      return "Push target";
+    }
+
+    public FormValidation doCheckTargetBranch(@QueryParameter String targetBranch) {
+      return FormValidations.checkFieldNotEmpty(targetBranch);
+    }
+
+    public FormValidation doCheckTargetRepo(@QueryParameter String targetRepo) {
+      return FormValidations.checkFieldNotEmpty(targetRepo);
+    }
+  }
+}
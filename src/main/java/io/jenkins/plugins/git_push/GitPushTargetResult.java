@@ -0,0 +1,70 @@
+package io.jenkins.plugins.git_push;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.annotation.CheckForNull;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * The outcome of the push to one {@link GitPushTarget}: either a {@link GitPushResult} or the
+ * error that stopped the push.
+ *
+ * @author Réda Housni Alaoui
+ */
+public class GitPushTargetResult implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final GitPushTarget target;
+  private final GitPushResult result;
+  private final Exception error;
+
+  private GitPushTargetResult(
+      GitPushTarget target, @CheckForNull GitPushResult result, @CheckForNull Exception error) {
+    this.target = target;
+    this.result = result;
+    this.error = error;
+  }
+
+  static GitPushTargetResult success(GitPushTarget target, GitPushResult result) {
+    return new GitPushTargetResult(target, result, null);
+  }
+
+  static GitPushTargetResult failure(GitPushTarget target, Exception error) {
+    return new GitPushTargetResult(target, null, error);
+  }
+
+  public GitPushTarget getTarget() {
+    return target;
+  }
+
+  /** @return The result of the push, null if it failed */
+  @CheckForNull
+  public GitPushResult getResult() {
+    return result;
+  }
+
+  /** @return What made the push fail, null if it succeeded */
+  @CheckForNull
+  public Exception getError() {
+    return error;
+  }
+
+  public boolean isSuccess() {
+    return error == null;
+  }
+
+  /** @return A plain representation, safe to hand over to a Pipeline script */
+  public Map<String, Object> toMap() {
+    Map<String, Object> map = new LinkedHashMap<>();
+    map.put("targetRepo", target.getTargetRepo());
+    map.put("targetBranch", target.getTargetBranch());
+    map.put("required", !target.isBestEffort());
+    map.put("success", isSuccess());
+    ObjectId pushedRev = result == null ? null : result.getPushedRev();
+    map.put("pushedRev", pushedRev == null ? null : pushedRev.name());
+    map.put("error", error == null ? null : error.getMessage());
+    return map;
+  }
+}
@@ -0,0 +1,52 @@
+package io.jenkins.plugins.git_push;
+
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * The maximum number of pushes running at the same time to a given host, overriding {@link
+ * GitPushLimits#getMaxPushesPerHost()}.
+ *
+ * @author Réda Housni Alaoui
+ */
+public class HostLimit extends AbstractDescribableImpl<HostLimit> {
+
+  private final String host;
+  private final int maxPushes;
+
+  @DataBoundConstructor
+  public HostLimit(String host, int maxPushes) {
+    this.host = StringUtils.strip(host);
+    this.maxPushes = maxPushes;
+  }
+
+  public String getHost() {
+    return host;
+  }
+
+  /** @return The maximum number of pushes. 0 for no limit. */
+  public int getMaxPushes() {
+    return maxPushes;
+  }
+
+  @Extension
+  public static class DescriptorImpl extends Descriptor<HostLimit> {
+
+    @Override
+    public String getDisplayName() {
+      return "Host limit";
+    }
+
+    public FormValidation doCheckHost(@QueryParameter String host) {
+      if (StringUtils.isBlank(host)) {
+        return FormValidation.error("This field is required");
+      }
+      return FormValidation.ok();
+    }
+  }
+}
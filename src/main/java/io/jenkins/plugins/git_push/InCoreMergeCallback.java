@@ -0,0 +1,112 @@
+package io.jenkins.plugins.git_push;
+
+import hudson.plugins.git.GitException;
+import hudson.remoting.VirtualChannel;
+import java.io.IOException;
+import javax.annotation.CheckForNull;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.merge.MergeStrategy;
+import org.eclipse.jgit.merge.ResolveMerger;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.jenkinsci.plugins.gitclient.RepositoryCallback;
+
+/**
+ * Merges a commit into another one using only the object database: neither the working tree, nor
+ * the index, nor HEAD are modified. The merge commit, if one is needed, is written to the object
+ * database and returned.
+ *
+ * @author Réda Housni Alaoui
+ */
+class InCoreMergeCallback implements RepositoryCallback<ObjectId> {
+
+  private static final long serialVersionUID = 1L;
+
+  private final ObjectId head;
+  private final ObjectId remoteRev;
+  private final boolean fastForwardOnly;
+  private final String message;
+  private final PersonIdent author;
+  private final PersonIdent committer;
+
+  /**
+   * @param fastForwardOnly True to fail instead of creating a merge commit
+   * @param author The author of the merge commit. Null to use the identity configured in the
+   *     repository.
+   * @param committer The committer of the merge commit. Null to use the identity configured in the
+   *     repository.
+   */
+  InCoreMergeCallback(
+      ObjectId head,
+      ObjectId remoteRev,
+      boolean fastForwardOnly,
+      String message,
+      @CheckForNull PersonIdent author,
+      @CheckForNull PersonIdent committer) {
+    this.head = head;
+    this.remoteRev = remoteRev;
+    this.fastForwardOnly = fastForwardOnly;
+    this.message = message;
+    this.author = author;
+    this.committer = committer;
+  }
+
+  /**
+   * @return {@code head} if it already contains {@code remoteRev}, {@code remoteRev} if it contains
+   *     {@code head}, the merge commit otherwise
+   * @throws GitException If a merge commit is needed but {@code fastForwardOnly} is set, or if the
+   *     merge has conflicts
+   */
+  @Override
+  public ObjectId invoke(Repository repository, VirtualChannel channel) throws IOException {
+    try (RevWalk walk = new RevWalk(repository)) {
+      RevCommit headCommit = walk.parseCommit(head);
+      RevCommit remoteCommit = walk.parseCommit(remoteRev);
+      if (walk.isMergedInto(remoteCommit, headCommit)) {
+        return head;
+      }
+      if (walk.isMergedInto(headCommit, remoteCommit)) {
+        return remoteRev;
+      }
+      if (fastForwardOnly) {
+        throw new GitException(
+            remoteRev.name() + " is not an ancestor of " + head.name() + ", a merge is needed");
+      }
+
+      ResolveMerger merger = (ResolveMerger) MergeStrategy.RECURSIVE.newMerger(repository, true);
+      if (!merger.merge(headCommit, remoteCommit)) {
+        throw new GitException(
+            "Merging "
+                + remoteRev.name()
+                + " into "
+                + head.name()
+                + " has conflicts: "
+                + merger.getUnmergedPaths());
+      }
+
+      CommitBuilder commit = new CommitBuilder();
+      commit.setTreeId(merger.getResultTreeId());
+      commit.setParentIds(headCommit, remoteCommit);
+      commit.setAuthor(identity(repository, author));
+      commit.setCommitter(identity(repository, committer));
+      commit.setMessage(message);
+      try (ObjectInserter inserter = repository.newObjectInserter()) {
+        ObjectId mergeCommit = inserter.insert(commit);
+        inserter.flush();
+        return mergeCommit;
+      }
+    }
+  }
+
+  private static PersonIdent identity(Repository repository, @CheckForNull PersonIdent identity) {
+    if (identity == null) {
+      return new PersonIdent(repository);
+    }
+    // Stamped now rather than when the callback was created
+    return new PersonIdent(identity.getName(), identity.getEmailAddress());
+  }
+}
@@ -0,0 +1,245 @@
+package io.jenkins.plugins.git_push;
+
+import hudson.EnvVars;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Writes the commit-graph and the multi-pack-index of the workspace repository, on the node owning
+ * it, when enough objects were added since they were last written. They speed up the history walks
+ * of the merge and the pack building of the push on long histories.
+ *
+ * <p>To measure what the maintenance brings, a merge-base of HEAD and the remote-tracking ref of
+ * the target branch is timed once before and once after it. The timings are reported apart from
+ * the duration of the writes.
+ *
+ * @author Réda Housni Alaoui
+ */
+class MaintenanceCallable extends MasterToSlaveFileCallable<MaintenanceCallable.Outcome> {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final Pattern LOOSE_OBJECT_DIRECTORY = Pattern.compile("[0-9a-f]{2}");
+
+  private static final Pattern VERSION = Pattern.compile("git version (\\d+)\\.(\\d+)");
+
+  /** Touched after each maintenance, git leaves the commit-graph untouched when it has no change */
+  private static final String MARKER = "info/git-push-maintenance";
+
+  private final String gitExe;
+  private final EnvVars environment;
+  private final int threshold;
+  private final String probeRef;
+  private final TaskListener listener;
+
+  /**
+   * @param threshold The number of pack files and loose objects added since the last commit-graph
+   *     write that triggers the maintenance
+   * @param probeRef The ref the merge-base of HEAD is timed with
+   */
+  MaintenanceCallable(
+      String gitExe, EnvVars environment, int threshold, String probeRef, TaskListener listener) {
+    this.gitExe = gitExe;
+    this.environment = environment;
+    this.threshold = threshold;
+    this.probeRef = probeRef;
+    this.listener = listener;
+  }
+
+  @Override
+  public Outcome invoke(File workingDirectory, VirtualChannel channel)
+      throws IOException, InterruptedException {
+    File objects = new File(git(workingDirectory, "rev-parse", "--git-path", "objects").trim());
+    if (!objects.isAbsolute()) {
+      objects = new File(workingDirectory, objects.getPath());
+    }
+
+    int staleness = staleness(objects);
+    if (staleness < threshold) {
+      return new Outcome(false, staleness, -1, -1, -1);
+    }
+
+    long probeBefore = probe(workingDirectory);
+    long start = System.nanoTime();
+    git(workingDirectory, "commit-graph", "write", "--reachable", "--split");
+    if (isAtLeast(git(workingDirectory, "version"), 2, 34)) {
+      git(workingDirectory, "multi-pack-index", "write", "--bitmap");
+    } else {
+      // Reachability bitmaps of a multi-pack-index need git 2.34
+      git(workingDirectory, "multi-pack-index", "write");
+    }
+    long writeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    File marker = new File(objects, MARKER);
+    if (!marker.createNewFile() && !marker.setLastModified(System.currentTimeMillis())) {
+      throw new IOException("Failed to touch " + marker);
+    }
+    return new Outcome(true, staleness, writeMillis, probeBefore, probe(workingDirectory));
+  }
+
+  /**
+   * @return The number of pack files and loose objects newer than the last maintenance, or {@link
+   *     Integer#MAX_VALUE} if there is no commit-graph
+   */
+  private static int staleness(File objects) {
+    long graphWrite =
+        Math.max(
+            new File(objects, "info/commit-graph").lastModified(),
+            new File(objects, "info/commit-graphs/commit-graph-chain").lastModified());
+    if (graphWrite == 0) {
+      return Integer.MAX_VALUE;
+    }
+    long lastWrite = Math.max(graphWrite, new File(objects, MARKER).lastModified());
+    int count = 0;
+    for (File packFile : list(new File(objects, "pack"))) {
+      if (packFile.getName().endsWith(".pack") && packFile.lastModified() > lastWrite) {
+        count++;
+      }
+    }
+    for (File directory : list(objects)) {
+      if (!LOOSE_OBJECT_DIRECTORY.matcher(directory.getName()).matches()) {
+        continue;
+      }
+      for (File looseObject : list(directory)) {
+        if (looseObject.lastModified() > lastWrite) {
+          count++;
+        }
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @param version The output of {@code git version}, e.g. {@code git version 2.34.1}
+   * @return True if the version is at least {@code major}.{@code minor}, false if it cannot be read
+   */
+  static boolean isAtLeast(String version, int major, int minor) {
+    Matcher matcher = VERSION.matcher(version);
+    if (!matcher.find()) {
+      return false;
+    }
+    int actualMajor = Integer.parseInt(matcher.group(1));
+    int actualMinor = Integer.parseInt(matcher.group(2));
+    return actualMajor > major || (actualMajor == major && actualMinor >= minor);
+  }
+
+  private static List<File> list(File directory) {
+    File[] files = directory.listFiles();
+    return files == null ? new ArrayList<>() : Arrays.asList(files);
+  }
+
+  /** @return The duration of the merge-base, or -1 if it could not be computed */
+  private long probe(File workingDirectory) throws InterruptedException {
+    long start = System.nanoTime();
+    try {
+      git(workingDirectory, "merge-base", "HEAD", probeRef);
+    } catch (IOException e) {
+      return -1;
+    }
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+  }
+
+  private String git(File workingDirectory, String... args)
+      throws IOException, InterruptedException {
+    return git(gitExe, environment, listener, workingDirectory, args);
+  }
+
+  /**
+   * Runs the command line git on the current node.
+   *
+   * @return The standard output of the command
+   */
+  static String git(
+      String gitExe,
+      EnvVars environment,
+      TaskListener listener,
+      File workingDirectory,
+      String... args)
+      throws IOException, InterruptedException {
+    List<String> command = new ArrayList<>();
+    command.add(gitExe);
+    command.addAll(Arrays.asList(args));
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    int status =
+        new Launcher.LocalLauncher(listener)
+            .launch()
+            .cmds(command)
+            .envs(environment)
+            .pwd(workingDirectory)
+            .stdout(output)
+            .quiet(true)
+            .join();
+    String result = new String(output.toByteArray(), StandardCharsets.UTF_8);
+    if (status != 0) {
+      throw new IOException(String.join(" ", command) + " exited with " + status + ": " + result);
+    }
+    return result;
+  }
+
+  static class Outcome implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final boolean done;
+    private final int staleness;
+    private final long writeMillis;
+    private final long probeBeforeMillis;
+    private final long probeAfterMillis;
+
+    private Outcome(
+        boolean done,
+        int staleness,
+        long writeMillis,
+        long probeBeforeMillis,
+        long probeAfterMillis) {
+      this.done = done;
+      this.staleness = staleness;
+      this.writeMillis = writeMillis;
+      this.probeBeforeMillis = probeBeforeMillis;
+      this.probeAfterMillis = probeAfterMillis;
+    }
+
+    /** @return The number of object files added since the last maintenance */
+    int getStaleness() {
+      return staleness;
+    }
+
+    /** @return True if the threshold was reached and the maintenance ran */
+    boolean isDone() {
+      return done;
+    }
+
+    /** @return The duration of the commit-graph and multi-pack-index writes, -1 if not done */
+    long getWriteMillis() {
+      return writeMillis;
+    }
+
+    /** @return The duration of the merge-bases timed around the writes, -1 if not measured */
+    long getProbeMillis() {
+      if (probeBeforeMillis < 0 || probeAfterMillis < 0) {
+        return -1;
+      }
+      return probeBeforeMillis + probeAfterMillis;
+    }
+
+    /** @return How much faster the merge-base got, or -1 if it could not be measured */
+    long getSavedMillis() {
+      if (probeBeforeMillis < 0 || probeAfterMillis < 0) {
+        return -1;
+      }
+      return Math.max(0, probeBeforeMillis - probeAfterMillis);
+    }
+  }
+}
@@ -1,28 +1,192 @@
 package io.jenkins.plugins.git_push;
 
 import hudson.Extension;
+import hudson.FilePath;
 import hudson.Launcher;
 import hudson.matrix.MatrixAggregatable;
 import hudson.matrix.MatrixAggregator;
 import hudson.matrix.MatrixBuild;
+import hudson.matrix.MatrixRun;
 import hudson.model.BuildListener;
+import hudson.model.Result;
+import hudson.plugins.git.GitException;
+import hudson.plugins.git.GitSCM;
+import hudson.plugins.git.Revision;
+import hudson.plugins.git.util.BuildData;
+import hudson.remoting.RemoteOutputStream;
+import hudson.slaves.WorkspaceList;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.CheckForNull;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.URIish;
+import org.jenkinsci.plugins.gitclient.GitClient;
 
-/** @author Réda Housni Alaoui */
+/**
+ * For a matrix project, the push only happens once, for the whole matrix.
+ *
+ * <p>With {@link GitPush#isCollectMatrixRuns()}, the commits and the tags created or moved by each
+ * configuration run are transferred to the workspace of the matrix build as soon as the run
+ * completes, through a git bundle holding only the objects the matrix build does not have. The
+ * commits are merged into HEAD at the end of the matrix build, then pushed with a single fetch,
+ * merge and push sequence. A tag already in the workspace of the matrix build with another target
+ * is reported in the build log and left out.
+ *
+ * @author Réda Housni Alaoui
+ */
 @Extension(optional = true)
 public class MatrixGitPush implements MatrixAggregatable {
-  /** For a matrix project, push should only happen once. */
+
+  /** Where the HEAD of each configuration run is kept until the end of the matrix build */
+  static final String COLLECTED = "refs/git-push/matrix/";
+
+  /** Where the tags of each configuration run are staged until compared with the existing ones */
+  static final String COLLECTED_TAGS = "refs/git-push/matrix-tags/";
+
   public MatrixAggregator createAggregator(
       MatrixBuild build, Launcher launcher, BuildListener listener) {
     return new MatrixAggregator(build, launcher, listener) {
       @Override
-      public boolean endBuild() throws InterruptedException, IOException {
-        GitPush gitPush = build.getParent().getPublishersList().get(GitPush.class);
-        if (gitPush != null) {
-          return gitPush.perform(build, launcher, listener);
+      public boolean endRun(MatrixRun run) throws InterruptedException, IOException {
+        GitPush gitPush = gitPush(build);
+        if (gitPush != null && gitPush.isCollectMatrixRuns()) {
+          collect(build, run, listener);
         }
         return true;
       }
+
+      @Override
+      public boolean endBuild() throws InterruptedException, IOException {
+        GitPush gitPush = gitPush(build);
+        if (gitPush == null) {
+          return true;
+        }
+        if (gitPush.isCollectMatrixRuns() && !mergeCollected(build, listener)) {
+          return false;
+        }
+        return gitPush.perform(build, launcher, listener);
+      }
     };
   }
+
+  @CheckForNull
+  private static GitPush gitPush(MatrixBuild build) {
+    return build.getParent().getPublishersList().get(GitPush.class);
+  }
+
+  /** Fetches the commits and tags of {@code run} into the workspace of {@code build} */
+  private static void collect(MatrixBuild build, MatrixRun run, BuildListener listener)
+      throws IOException, InterruptedException {
+    Result result = run.getResult();
+    if (result == null || result.isWorseThan(Result.SUCCESS)) {
+      listener.getLogger().println(run.getDisplayName() + " did not succeed, not collecting it");
+      return;
+    }
+    if (!(build.getParent().getScm() instanceof GitSCM)) {
+      return;
+    }
+    GitSCM scm = (GitSCM) build.getParent().getScm();
+    FilePath runWorkspace = run.getWorkspace();
+    FilePath workspace = build.getWorkspace();
+    if (runWorkspace == null || workspace == null) {
+      listener.getLogger().println("No workspace to collect " + run.getDisplayName() + " from");
+      return;
+    }
+
+    long start = System.nanoTime();
+    String id = run.getParent().getCombination().digest();
+    FilePath tempDir = WorkspaceList.tempDir(workspace);
+    tempDir.mkdirs();
+    FilePath bundle = tempDir.child("git-push-" + id + ".bundle");
+    try {
+      GitClient runGit =
+          scm.createClient(listener, run.getEnvironment(listener), run, runWorkspace);
+      int refs;
+      try (OutputStream output = bundle.write()) {
+        refs =
+            runGit.withRepository(
+                new BundleCallback(base(scm, run), new RemoteOutputStream(output)));
+      }
+      GitClient git = scm.createClient(listener, build.getEnvironment(listener), build, workspace);
+      String stagedTags = COLLECTED_TAGS + id + "/";
+      git.fetch_()
+          .from(
+              new URIish(bundle.getRemote()),
+              Arrays.asList(
+                  new RefSpec("+" + BundleCallback.HEAD_REF + ":" + COLLECTED + id),
+                  new RefSpec("+" + Constants.R_TAGS + "*:" + stagedTags + "*")))
+          .execute();
+      List<String> conflicts = git.withRepository(new CollectedTagsCallback(stagedTags));
+      for (String conflict : conflicts) {
+        listener
+            .getLogger()
+            .println(
+                "Not collecting the tag "
+                    + conflict
+                    + " of "
+                    + run.getDisplayName()
+                    + ": the matrix build already has it with another target");
+      }
+      listener
+          .getLogger()
+          .println(
+              "Collected "
+                  + (refs - conflicts.size())
+                  + " ref(s) of "
+                  + run.getDisplayName()
+                  + " ("
+                  + bundle.length() / 1024
+                  + " KiB bundle) in "
+                  + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+                  + " ms");
+    } catch (GitException | URISyntaxException e) {
+      throw new IOException("Failed to collect " + run.getDisplayName(), e);
+    } finally {
+      bundle.delete();
+    }
+  }
+
+  /** @return The revision the matrix build and its runs checked out, if known */
+  @CheckForNull
+  private static ObjectId base(GitSCM scm, MatrixRun run) {
+    BuildData buildData = scm.getBuildData(run);
+    Revision revision = buildData == null ? null : buildData.getLastBuiltRevision();
+    return revision == null ? null : revision.getSha1();
+  }
+
+  /**
+   * Merges the HEAD of every collected run into the HEAD of the matrix build, then forgets them.
+   *
+   * @return False if a merge failed
+   */
+  private static boolean mergeCollected(MatrixBuild build, BuildListener listener)
+      throws IOException, InterruptedException {
+    FilePath workspace = build.getWorkspace();
+    if (!(build.getParent().getScm() instanceof GitSCM) || workspace == null) {
+      return true;
+    }
+    GitSCM scm = (GitSCM) build.getParent().getScm();
+    GitClient git = scm.createClient(listener, build.getEnvironment(listener), build, workspace);
+    try {
+      for (String collected : git.getRefNames(COLLECTED)) {
+        ObjectId rev = git.revParse(collected);
+        git.merge().setRevisionToMerge(rev).execute();
+        listener.getLogger().println("Merged the collected " + rev.name());
+      }
+      return true;
+    } catch (GitException e) {
+      e.printStackTrace(listener.error("Failed to merge the collected configuration runs"));
+      return false;
+    } finally {
+      for (String collected : git.getRefNames(COLLECTED)) {
+        git.deleteRef(collected);
+      }
+    }
+  }
 }
@@ -0,0 +1,45 @@
+package io.jenkins.plugins.git_push;
+
+import hudson.remoting.VirtualChannel;
+import java.io.IOException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.jenkinsci.plugins.gitclient.RepositoryCallback;
+
+/**
+ * Tells whether two commits have a merge base within the history present in the local repository.
+ * In a shallow clone, the history stops at the shallow commits.
+ *
+ * @author Réda Housni Alaoui
+ */
+class MergeBaseCallback implements RepositoryCallback<Boolean> {
+
+  private static final long serialVersionUID = 1L;
+
+  private final ObjectId head;
+  private final ObjectId remoteRev;
+
+  MergeBaseCallback(ObjectId head, ObjectId remoteRev) {
+    this.head = head;
+    this.remoteRev = remoteRev;
+  }
+
+  @Override
+  public Boolean invoke(Repository repository, VirtualChannel channel) throws IOException {
+    try (RevWalk walk = new RevWalk(repository)) {
+      RevCommit headCommit = walk.parseCommit(head);
+      RevCommit remoteCommit = walk.parseCommit(remoteRev);
+      walk.setRevFilter(RevFilter.MERGE_BASE);
+      walk.markStart(headCommit);
+      walk.markStart(remoteCommit);
+      return walk.next() != null;
+    } catch (MissingObjectException e) {
+      // The walk went past the shallow commits
+      return false;
+    }
+  }
+}
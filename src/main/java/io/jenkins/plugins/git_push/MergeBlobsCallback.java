@@ -0,0 +1,78 @@
+package io.jenkins.plugins.git_push;
+
+import hudson.remoting.VirtualChannel;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.jenkinsci.plugins.gitclient.RepositoryCallback;
+
+/**
+ * Lists the blobs a merge of two commits has to read and the local repository, a partial clone,
+ * does not have. Only the files changed differently on both sides since the merge base are read
+ * by the merge, every other file is taken as is from one side.
+ *
+ * @author Réda Housni Alaoui
+ */
+class MergeBlobsCallback implements RepositoryCallback<List<String>> {
+
+  private static final long serialVersionUID = 1L;
+
+  private final ObjectId head;
+  private final ObjectId remoteRev;
+
+  MergeBlobsCallback(ObjectId head, ObjectId remoteRev) {
+    this.head = head;
+    this.remoteRev = remoteRev;
+  }
+
+  /** @return The names of the missing blobs, empty if there is no merge base */
+  @Override
+  public List<String> invoke(Repository repository, VirtualChannel channel) throws IOException {
+    Set<ObjectId> missing = new LinkedHashSet<>();
+    try (RevWalk walk = new RevWalk(repository)) {
+      RevCommit headCommit = walk.parseCommit(head);
+      RevCommit remoteCommit = walk.parseCommit(remoteRev);
+      walk.setRevFilter(RevFilter.MERGE_BASE);
+      walk.markStart(headCommit);
+      walk.markStart(remoteCommit);
+      RevCommit base = walk.next();
+      if (base == null) {
+        return new ArrayList<>();
+      }
+      try (TreeWalk treeWalk = new TreeWalk(repository)) {
+        treeWalk.setRecursive(true);
+        treeWalk.setFilter(TreeFilter.ANY_DIFF);
+        treeWalk.addTree(base.getTree());
+        treeWalk.addTree(headCommit.getTree());
+        treeWalk.addTree(remoteCommit.getTree());
+        while (treeWalk.next()) {
+          if (treeWalk.idEqual(0, 1) || treeWalk.idEqual(0, 2) || treeWalk.idEqual(1, 2)) {
+            continue;
+          }
+          for (int tree = 0; tree < 3; tree++) {
+            ObjectId id = treeWalk.getObjectId(tree);
+            if (treeWalk.getFileMode(tree).getObjectType() == Constants.OBJ_BLOB
+                && !repository.getObjectDatabase().has(id)) {
+              missing.add(id);
+            }
+          }
+        }
+      }
+    }
+    List<String> names = new ArrayList<>();
+    for (ObjectId id : missing) {
+      names.add(id.name());
+    }
+    return names;
+  }
+}
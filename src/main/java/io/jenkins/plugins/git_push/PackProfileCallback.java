@@ -0,0 +1,137 @@
+package io.jenkins.plugins.git_push;
+
+import hudson.remoting.VirtualChannel;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.List;
+import javax.annotation.CheckForNull;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.ObjectWalk;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.jenkinsci.plugins.gitclient.RepositoryCallback;
+
+/**
+ * Measures the blobs reachable from HEAD but not from the given refs, i.e. roughly the blobs the
+ * next push will send, and how much of their size is binary content. The walk stops after {@link
+ * #MAX_COMMITS} commits and {@link #MAX_OBJECTS} trees and blobs, which is enough to profile the
+ * push.
+ *
+ * @author Réda Housni Alaoui
+ */
+class PackProfileCallback implements RepositoryCallback<PackProfileCallback.Profile> {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final int MAX_COMMITS = 10_000;
+
+  private static final int MAX_OBJECTS = 100_000;
+
+  private final List<String> uninterestingRefs;
+
+  /** @param uninterestingRefs The refs whose objects the remote already has */
+  PackProfileCallback(List<String> uninterestingRefs) {
+    this.uninterestingRefs = uninterestingRefs;
+  }
+
+  /**
+   * @return The profile, or null if none of the uninteresting refs exists: the walk would then go
+   *     through the whole history
+   */
+  @Override
+  @CheckForNull
+  public Profile invoke(Repository repository, VirtualChannel channel) throws IOException {
+    ObjectId head = repository.resolve(Constants.HEAD);
+    if (head == null) {
+      return new Profile(0, 0, 0, false);
+    }
+    int objects = 0;
+    long blobBytes = 0;
+    long binaryBytes = 0;
+    boolean truncated = false;
+    try (ObjectReader reader = repository.newObjectReader();
+        ObjectWalk walk = new ObjectWalk(reader)) {
+      walk.markStart(walk.parseAny(head));
+      boolean bounded = false;
+      for (String ref : uninterestingRefs) {
+        ObjectId id = repository.resolve(ref);
+        if (id != null) {
+          walk.markUninteresting(walk.parseAny(id));
+          bounded = true;
+        }
+      }
+      if (!bounded) {
+        return null;
+      }
+      while (walk.next() != null) {
+        if (++objects >= MAX_COMMITS) {
+          // The trees of the commits walked so far are still profiled
+          truncated = true;
+          break;
+        }
+      }
+      int commits = objects;
+      for (RevObject object = walk.nextObject(); object != null; object = walk.nextObject()) {
+        if (++objects - commits > MAX_OBJECTS) {
+          return new Profile(objects - 1, blobBytes, binaryBytes, true);
+        }
+        // A partial clone lacks the blobs it did not need so far, they are not read for a profile
+        if (object.getType() != Constants.OBJ_BLOB || !reader.has(object)) {
+          continue;
+        }
+        ObjectLoader loader = reader.open(object, Constants.OBJ_BLOB);
+        long size = loader.getSize();
+        blobBytes += size;
+        try (InputStream content = loader.openStream()) {
+          if (RawText.isBinary(content)) {
+            binaryBytes += size;
+          }
+        }
+      }
+    }
+    return new Profile(objects, blobBytes, binaryBytes, truncated);
+  }
+
+  static class Profile implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int objects;
+    private final long blobBytes;
+    private final long binaryBytes;
+    private final boolean truncated;
+
+    private Profile(int objects, long blobBytes, long binaryBytes, boolean truncated) {
+      this.objects = objects;
+      this.blobBytes = blobBytes;
+      this.binaryBytes = binaryBytes;
+      this.truncated = truncated;
+    }
+
+    /** @return The uncompressed size of the blobs */
+    long getBlobBytes() {
+      return blobBytes;
+    }
+
+    /** @return The share of the blob size that is binary content, between 0 and 1 */
+    double getBinaryShare() {
+      return blobBytes == 0 ? 0 : (double) binaryBytes / blobBytes;
+    }
+
+    @Override
+    public String toString() {
+      return (truncated ? "at least " : "")
+          + objects
+          + " object(s), "
+          + blobBytes / 1024
+          + " KiB of blobs, "
+          + Math.round(getBinaryShare() * 100)
+          + "% binary";
+    }
+  }
+}
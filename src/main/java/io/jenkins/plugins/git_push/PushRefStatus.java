@@ -0,0 +1,228 @@
+package io.jenkins.plugins.git_push;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.RemoteRefUpdate;
+
+/**
+ * The outcome of a single ref update sent by a push, as reported by git.
+ *
+ * @author Réda Housni Alaoui
+ */
+public class PushRefStatus implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Matches the per-ref lines git prints at the end of a push, e.g. {@code ! [rejected] HEAD ->
+   * master (fetch first)}.
+   */
+  private static final Pattern REPORT_LINE =
+      Pattern.compile("^\\s?([ +\\-*!=]) (\\[[^\\]]+\\]|\\S+)\\s+(\\S+) -> (\\S+)(?: \\((.*)\\))?$");
+
+  /**
+   * Matches the failure the JGit client reports for the first ref a push could not update, e.g.
+   * {@code null REJECTED_NONFASTFORWARD for 'HEAD:refs/heads/master' refspec 'HEAD:master' to
+   * /tmp/origin}, where {@code null} is the message of the remote if it sent none.
+   */
+  private static final Pattern JGIT_FAILURE =
+      Pattern.compile("^(?:(.*?) )?(REJECTED_\\w+|NON_EXISTING)(?: for '([^']*)')?");
+
+  public enum Status {
+    OK,
+    UP_TO_DATE,
+    /** Rejected by the client side, e.g. because the remote ref is not an ancestor */
+    REJECTED,
+    /** A tag rejected because the remote already has a different one with that name */
+    ALREADY_EXISTS,
+    /** A forced update rejected because the remote ref is not the expected one */
+    STALE_INFO,
+    REMOTE_REJECTED,
+    /**
+     * Sent by a push that succeeded, whose per-ref report the git client does not return. The ref
+     * may as well have been updated as found up to date.
+     */
+    UNKNOWN
+  }
+
+  private final String source;
+  private final String destination;
+  private final Status status;
+  private final String reason;
+
+  public PushRefStatus(
+      @Nonnull String source,
+      @Nonnull String destination,
+      @Nonnull Status status,
+      @Nullable String reason) {
+    this.source = source;
+    this.destination = destination;
+    this.status = status;
+    this.reason = reason;
+  }
+
+  /**
+   * @param gitOutput The output of a git push, usually the message of the exception thrown by the
+   *     git client: the ref report of the command line git, or the failure of the JGit client
+   * @return The status of each ref found in the output. Empty if the output does not contain any
+   *     ref report.
+   */
+  public static List<PushRefStatus> parse(@Nullable String gitOutput) {
+    if (gitOutput == null) {
+      return Collections.emptyList();
+    }
+    List<PushRefStatus> statuses = new ArrayList<>();
+    for (String line : gitOutput.split("\\r?\\n")) {
+      Matcher matcher = REPORT_LINE.matcher(line);
+      if (!matcher.matches()) {
+        continue;
+      }
+      statuses.add(
+          new PushRefStatus(
+              matcher.group(3),
+              matcher.group(4),
+              toStatus(matcher.group(1), matcher.group(2), matcher.group(5)),
+              matcher.group(5)));
+    }
+    if (statuses.isEmpty()) {
+      for (String line : gitOutput.split("\\r?\\n")) {
+        Matcher matcher = JGIT_FAILURE.matcher(line);
+        PushRefStatus status = matcher.find() ? parseJGitFailure(matcher) : null;
+        if (status != null) {
+          statuses.add(status);
+          break;
+        }
+      }
+    }
+    return statuses;
+  }
+
+  /** @return The status of the failure, null if it is not a status of the JGit version in use */
+  @Nullable
+  private static PushRefStatus parseJGitFailure(Matcher matcher) {
+    RemoteRefUpdate.Status status;
+    try {
+      status = RemoteRefUpdate.Status.valueOf(matcher.group(2));
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+    String source = "?";
+    String destination = "?";
+    String ref = matcher.group(3);
+    if (ref != null && !ref.isEmpty()) {
+      try {
+        RefSpec refSpec = new RefSpec(ref);
+        source = refSpec.getSource() == null ? ref : refSpec.getSource();
+        destination = refSpec.getDestination() == null ? source : refSpec.getDestination();
+      } catch (IllegalArgumentException e) {
+        source = ref;
+        destination = ref;
+      }
+    }
+    String message = matcher.group(1);
+    return of(source, destination, status, "null".equals(message) ? null : message);
+  }
+
+  /**
+   * Maps the outcome of a ref update of a JGit push to the status the command line git reports for
+   * the same outcome, so that both engines are retried alike.
+   *
+   * @param message The message of the remote, if any
+   */
+  public static PushRefStatus of(
+      @Nonnull String source,
+      @Nonnull String destination,
+      @Nonnull RemoteRefUpdate.Status status,
+      @Nullable String message) {
+    switch (status) {
+      case OK:
+        return new PushRefStatus(source, destination, Status.OK, null);
+      case UP_TO_DATE:
+        return new PushRefStatus(source, destination, Status.UP_TO_DATE, null);
+      case REJECTED_NONFASTFORWARD:
+        // JGit does not tell an unknown remote commit from a diverged one, a merge fixes both
+        return destination.startsWith(Constants.R_TAGS)
+            ? new PushRefStatus(source, destination, Status.ALREADY_EXISTS, "already exists")
+            : new PushRefStatus(source, destination, Status.REJECTED, "non-fast-forward");
+      case REJECTED_REMOTE_CHANGED:
+        return new PushRefStatus(source, destination, Status.STALE_INFO, "stale info");
+      case REJECTED_NODELETE:
+        return new PushRefStatus(
+            source, destination, Status.REMOTE_REJECTED, "deletion prohibited");
+      default:
+        return new PushRefStatus(
+            source,
+            destination,
+            Status.REMOTE_REJECTED,
+            message == null ? status.name().toLowerCase(Locale.ROOT) : message);
+    }
+  }
+
+  private static Status toStatus(String flag, String summary, @Nullable String reason) {
+    switch (flag) {
+      case "!":
+        if ("[remote rejected]".equals(summary)) {
+          return Status.REMOTE_REJECTED;
+        }
+        if ("already exists".equals(reason)) {
+          return Status.ALREADY_EXISTS;
+        }
+        return "stale info".equals(reason) ? Status.STALE_INFO : Status.REJECTED;
+      case "=":
+        return Status.UP_TO_DATE;
+      default:
+        return Status.OK;
+    }
+  }
+
+  public String getSource() {
+    return source;
+  }
+
+  public String getDestination() {
+    return destination;
+  }
+
+  public Status getStatus() {
+    return status;
+  }
+
+  @Nullable
+  public String getReason() {
+    return reason;
+  }
+
+  public boolean isRejected() {
+    return status == Status.REJECTED
+        || status == Status.ALREADY_EXISTS
+        || status == Status.STALE_INFO
+        || status == Status.REMOTE_REJECTED;
+  }
+
+  /**
+   * @return True if the ref was rejected because the remote moved since the last fetch, which
+   *     fetching and merging again can fix
+   */
+  public boolean isRetryable() {
+    return status == Status.REJECTED
+        && ("fetch first".equals(reason) || "non-fast-forward".equals(reason));
+  }
+
+  @Override
+  public String toString() {
+    String value = source + " -> " + destination + ": " + status;
+    if (reason != null) {
+      value += " (" + reason + ")";
+    }
+    return value;
+  }
+}
@@ -0,0 +1,226 @@
+package io.jenkins.plugins.git_push;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.Computer;
+import hudson.model.InvisibleAction;
+import hudson.model.Node;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+import jenkins.util.SystemProperties;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.URIish;
+import org.jenkinsci.plugins.gitclient.GitClient;
+
+/**
+ * A bare repository per remote and per node, under {@code <node root>/caches/git-push/}, that the
+ * workspaces of the node borrow objects from through git alternates. The remote is fetched into
+ * the store before each push, so that a workspace fetch only negotiates what the store already has
+ * and each object crosses the network once per node.
+ *
+ * <p>Like any repository borrowing through alternates, a workspace breaks if the objects it
+ * borrows are removed from the store. The store therefore never removes an object on its own: its
+ * fetches do not prune the refs of deleted branches, and {@link ReferenceStoreGcCallable its
+ * repacks} keep the unreachable objects. Instead, a store whose objects exceed {@link
+ * #MAX_MEGABYTES} is rebuilt: the workspaces that borrowed from it, listed in the store, first copy
+ * the objects they borrowed, see {@link #release}, then the store is removed and fetched again from
+ * scratch. A workspace pushing without the store right after a build that used it copies the
+ * objects it borrowed back as well.
+ *
+ * @author Réda Housni Alaoui
+ */
+class ReferenceStore {
+
+  /** Where the stores are, relative to the root of their node */
+  static final String DIRECTORY = "caches/git-push/";
+
+  /** The size of the objects of a store above which it is repacked */
+  private static final int GC_THRESHOLD_MEGABYTES =
+      SystemProperties.getInteger(ReferenceStore.class.getName() + ".gcThresholdMegabytes", 2048);
+
+  /** The size of the objects of a store above which it is rebuilt. 0 for no limit. */
+  private static final int MAX_MEGABYTES =
+      SystemProperties.getInteger(ReferenceStore.class.getName() + ".maxMegabytes", 8192);
+
+  /** Lists, in the store, the working directories that borrowed from it, one per line */
+  private static final String BORROWERS = "git-push-borrowers";
+
+  /** Serializes the fetches, repacks and rebuilds of a store, and the borrowing from it */
+  private static final ConcurrentMap<String, ReentrantLock> LOCKS = new ConcurrentHashMap<>();
+
+  private ReferenceStore() {}
+
+  /**
+   * Fetches {@code remoteURI} into the store of the node owning {@code workingDirectory}, then
+   * makes {@code git}, the client of the workspace repository, borrow the objects of the store.
+   *
+   * @param clientFactory Creates the client fetching into the store
+   * @param gitExe The command line git of the node owning {@code workingDirectory}
+   */
+  static void prepare(
+      GitClient git,
+      FilePath workingDirectory,
+      GitPushClientFactory clientFactory,
+      URIish remoteURI,
+      List<RefSpec> fetchRefSpecs,
+      String gitExe,
+      EnvVars environment,
+      TaskListener listener)
+      throws IOException, InterruptedException {
+    Computer computer = workingDirectory.toComputer();
+    Node node = computer == null ? null : computer.getNode();
+    FilePath root = node == null ? null : node.getRootPath();
+    if (root == null) {
+      listener
+          .getLogger()
+          .println("The node of " + workingDirectory + " is offline, not using a reference store");
+      return;
+    }
+    FilePath store = root.child(DIRECTORY + Util.getDigestOf(remoteURI.toString()) + ".git");
+
+    ReentrantLock lock =
+        LOCKS.computeIfAbsent(
+            computer.getName() + ":" + store.getRemote(), key -> new ReentrantLock(true));
+    lock.lockInterruptibly();
+    try {
+      fetch(store, clientFactory, remoteURI, fetchRefSpecs, listener);
+      long size =
+          store.act(
+              new ReferenceStoreGcCallable(
+                  gitExe, environment, GC_THRESHOLD_MEGABYTES * 1024L * 1024L, listener));
+      if (MAX_MEGABYTES > 0
+          && size > MAX_MEGABYTES * 1024L * 1024L
+          && rebuild(store, size, gitExe, environment, listener)) {
+        fetch(store, clientFactory, remoteURI, fetchRefSpecs, listener);
+      }
+
+      if (git.withRepository(new AlternatesCallback(store.child("objects").getRemote()))) {
+        listener.getLogger().println("Borrowing the objects of the reference store " + store);
+      }
+      List<String> borrowers = borrowers(store);
+      if (!borrowers.contains(workingDirectory.getRemote())) {
+        borrowers.add(workingDirectory.getRemote());
+        store.child(BORROWERS).write(String.join("\n", borrowers) + "\n", "UTF-8");
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Fetches {@code remoteURI} into {@code store}, creating the store first if needed */
+  private static void fetch(
+      FilePath store,
+      GitPushClientFactory clientFactory,
+      URIish remoteURI,
+      List<RefSpec> fetchRefSpecs,
+      TaskListener listener)
+      throws IOException, InterruptedException {
+    GitClient storeGit = clientFactory.create(store, listener);
+    if (!store.child("objects").isDirectory()) {
+      listener.getLogger().println("Creating the reference store " + store);
+      store.mkdirs();
+      storeGit.init_().workspace(store.getRemote()).bare(true).execute();
+    }
+    storeGit.fetch_().from(remoteURI, fetchRefSpecs).execute();
+  }
+
+  /**
+   * Makes every workspace that borrowed from {@code store} copy the objects it borrowed, then
+   * removes the store. If a workspace fails to, the store is kept until the next push tries again.
+   *
+   * @return True if the store was removed
+   */
+  private static boolean rebuild(
+      FilePath store, long size, String gitExe, EnvVars environment, TaskListener listener)
+      throws IOException, InterruptedException {
+    listener
+        .getLogger()
+        .println(
+            "The reference store "
+                + store
+                + " holds "
+                + ReferenceStoreGcCallable.megabytes(size)
+                + " MB, more than "
+                + MAX_MEGABYTES
+                + " MB, rebuilding it");
+    for (String borrower : borrowers(store)) {
+      FilePath borrowerDirectory = new FilePath(store.getChannel(), borrower);
+      if (!borrowerDirectory.isDirectory()) {
+        continue;
+      }
+      try {
+        release(borrowerDirectory, gitExe, environment, listener);
+      } catch (IOException e) {
+        listener
+            .getLogger()
+            .println(
+                "Failed to copy the objects "
+                    + borrower
+                    + " borrowed, keeping the reference store: "
+                    + e.getMessage());
+        return false;
+      }
+    }
+    store.deleteRecursive();
+    return true;
+  }
+
+  /** @return The working directories that borrowed from {@code store} */
+  private static List<String> borrowers(FilePath store) throws IOException, InterruptedException {
+    FilePath file = store.child(BORROWERS);
+    List<String> borrowers = new ArrayList<>();
+    if (!file.exists()) {
+      return borrowers;
+    }
+    for (String line : file.readToString().split("\n")) {
+      if (!line.trim().isEmpty()) {
+        borrowers.add(line.trim());
+      }
+    }
+    return borrowers;
+  }
+
+  /**
+   * Stops the workspace of {@code workingDirectory} from borrowing the objects of the reference
+   * stores, once it copied them. Does nothing if the workspace does not borrow from a store.
+   *
+   * @param gitExe The command line git of the node owning {@code workingDirectory}
+   */
+  static void release(
+      FilePath workingDirectory, String gitExe, EnvVars environment, TaskListener listener)
+      throws IOException, InterruptedException {
+    if (workingDirectory.act(new ReferenceStoreReleaseCallable(gitExe, environment, listener))) {
+      listener
+          .getLogger()
+          .println("Copied the objects borrowed from the reference store into the workspace");
+    }
+  }
+
+  /** Remembers that {@code run} pushed through a store, so that the next build releases it */
+  static void used(Run<?, ?> run) {
+    if (run.getAction(Used.class) == null) {
+      run.addAction(new Used());
+    }
+  }
+
+  /**
+   * @return True if {@code run}, or the build before it, pushed through a store. Only then may the
+   *     workspace still borrow from one.
+   */
+  static boolean wasUsed(Run<?, ?> run) {
+    if (run.getAction(Used.class) != null) {
+      return true;
+    }
+    Run<?, ?> previousBuild = run.getPreviousBuild();
+    return previousBuild != null && previousBuild.getAction(Used.class) != null;
+  }
+
+  public static class Used extends InvisibleAction {}
+}
@@ -0,0 +1,91 @@
+package io.jenkins.plugins.git_push;
+
+import hudson.EnvVars;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import jenkins.MasterToSlaveFileCallable;
+import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.storage.file.FileBasedConfig;
+import org.eclipse.jgit.util.FS;
+
+/**
+ * Repacks a {@link ReferenceStore}, on the node owning it, once its objects exceed a threshold,
+ * then each time they grew by a quarter since the last repack. Everything is repacked into a single
+ * pack, the objects no ref reaches anymore, e.g. the former tips of force-pushed branches,
+ * included: workspaces may borrow any object the store ever had. The repack compacts the store,
+ * {@link ReferenceStore} bounds its size by rebuilding it.
+ *
+ * @author Réda Housni Alaoui
+ */
+class ReferenceStoreGcCallable extends MasterToSlaveFileCallable<Long> {
+
+  private static final long serialVersionUID = 1L;
+
+  /** Holds, in the config of the store, the size of the objects the last repack left */
+  private static final String SECTION = "gitPush";
+
+  private static final String GC_BYTES = "gcBytes";
+
+  private static final int GROWTH_PERCENT = 25;
+
+  private final String gitExe;
+  private final EnvVars environment;
+  private final long thresholdBytes;
+  private final TaskListener listener;
+
+  /** @param gitExe The command line git of the node owning the store */
+  ReferenceStoreGcCallable(
+      String gitExe, EnvVars environment, long thresholdBytes, TaskListener listener) {
+    this.gitExe = gitExe;
+    this.environment = environment;
+    this.thresholdBytes = thresholdBytes;
+    this.listener = listener;
+  }
+
+  /** @return The size of the objects of the store, once repacked if needed */
+  @Override
+  public Long invoke(File store, VirtualChannel channel) throws IOException, InterruptedException {
+    File objects = new File(store, "objects");
+    long before = size(objects);
+    FileBasedConfig config = new FileBasedConfig(new File(store, "config"), FS.DETECTED);
+    try {
+      config.load();
+    } catch (ConfigInvalidException e) {
+      throw new IOException("Failed to read the config of " + store, e);
+    }
+    long lastBytes = config.getLong(SECTION, null, GC_BYTES, 0);
+    if (before <= thresholdBytes || before < lastBytes + lastBytes * GROWTH_PERCENT / 100) {
+      return before;
+    }
+    // Unlike a gc, keeps the unreachable objects packed instead of loosening or pruning them
+    MaintenanceCallable.git(
+        gitExe, environment, listener, store, "repack", "-a", "-d", "--keep-unreachable", "-q");
+    long after = size(objects);
+    config.setLong(SECTION, null, GC_BYTES, after);
+    config.save();
+    listener
+        .getLogger()
+        .println(
+            "Repacked the reference store from "
+                + megabytes(before)
+                + " MB to "
+                + megabytes(after)
+                + " MB");
+    return after;
+  }
+
+  private static long size(File directory) throws IOException {
+    try (Stream<Path> files = Files.walk(directory.toPath())) {
+      return files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+    }
+  }
+
+  static long megabytes(long bytes) {
+    return bytes / (1024 * 1024);
+  }
+}
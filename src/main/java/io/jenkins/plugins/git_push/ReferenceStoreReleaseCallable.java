@@ -0,0 +1,73 @@
+package io.jenkins.plugins.git_push;
+
+import hudson.EnvVars;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.stream.Collectors;
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Removes the {@link ReferenceStore}s from the git alternates of a workspace repository, on the
+ * node owning it. The borrowed objects are first copied into the repository by a {@code git repack
+ * -a}, the other alternates are left as they are.
+ *
+ * @author Réda Housni Alaoui
+ */
+class ReferenceStoreReleaseCallable extends MasterToSlaveFileCallable<Boolean> {
+
+  private static final long serialVersionUID = 1L;
+
+  private final String gitExe;
+  private final EnvVars environment;
+  private final TaskListener listener;
+
+  ReferenceStoreReleaseCallable(String gitExe, EnvVars environment, TaskListener listener) {
+    this.gitExe = gitExe;
+    this.environment = environment;
+    this.listener = listener;
+  }
+
+  /** @return True if the repository borrowed from a store and no longer does */
+  @Override
+  public Boolean invoke(File workingDirectory, VirtualChannel channel)
+      throws IOException, InterruptedException {
+    File alternates = new File(objects(workingDirectory), "info/alternates");
+    if (!alternates.isFile()) {
+      return false;
+    }
+    List<String> lines = Files.readAllLines(alternates.toPath(), StandardCharsets.UTF_8);
+    List<String> kept =
+        lines.stream()
+            .filter(line -> !line.replace('\\', '/').contains("/" + ReferenceStore.DIRECTORY))
+            .collect(Collectors.toList());
+    if (kept.size() == lines.size()) {
+      return false;
+    }
+    MaintenanceCallable.git(
+        gitExe, environment, listener, workingDirectory, "repack", "-a", "-d", "-q");
+    if (kept.isEmpty()) {
+      Files.delete(alternates.toPath());
+    } else {
+      Files.write(alternates.toPath(), kept, StandardCharsets.UTF_8);
+    }
+    return true;
+  }
+
+  /** @return The objects directory, read from the file system when the repository is not linked */
+  private File objects(File workingDirectory) throws IOException, InterruptedException {
+    File gitDirectory = new File(workingDirectory, ".git");
+    if (gitDirectory.isDirectory()) {
+      return new File(gitDirectory, "objects");
+    }
+    String path =
+        MaintenanceCallable.git(
+            gitExe, environment, listener, workingDirectory, "rev-parse", "--git-path", "objects");
+    File objects = new File(path.trim());
+    return objects.isAbsolute() ? objects : new File(workingDirectory, objects.getPath());
+  }
+}
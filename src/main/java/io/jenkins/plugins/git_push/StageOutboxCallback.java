@@ -0,0 +1,177 @@
+package io.jenkins.plugins.git_push;
+
+import hudson.remoting.VirtualChannel;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.CheckForNull;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.jenkinsci.plugins.gitclient.RepositoryCallback;
+
+/**
+ * Copies the tags created or moved since the {@link TagSnapshotCallback snapshot}, and optionally
+ * the commit to push to the target branch and additional refs, under the outbox of a target.
+ * Pushing the {@link #refSpec(String) outbox refspec} then sends all of them through a single push,
+ * without git negotiating every local tag.
+ *
+ * @author Réda Housni Alaoui
+ */
+class StageOutboxCallback implements RepositoryCallback<StageOutboxCallback.TagDelta> {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final String OUTBOXES = "refs/git-push/outbox/";
+  private static final String FORCED_OUTBOXES = "refs/git-push/forced/";
+
+  private final String outbox;
+  private final boolean stageTags;
+  private final String targetBranch;
+  private final ObjectId branchRev;
+  private final LinkedHashMap<String, ObjectId> refs;
+
+  /**
+   * @param outbox The ref prefix to stage under, as returned by {@link #outbox(String, String)}
+   * @param stageTags True to stage the tags created or moved since the snapshot
+   * @param targetBranch The branch to stage along with the tags. Null to only stage the tags.
+   * @param branchRev The commit to push to {@code targetBranch}
+   * @param refs Additional refs to stage, keyed by full ref name
+   */
+  StageOutboxCallback(
+      String outbox,
+      boolean stageTags,
+      @CheckForNull String targetBranch,
+      @CheckForNull ObjectId branchRev,
+      Map<String, ObjectId> refs) {
+    this.outbox = outbox;
+    this.stageTags = stageTags;
+    this.targetBranch = targetBranch;
+    this.branchRev = branchRev;
+    this.refs = new LinkedHashMap<>(refs);
+  }
+
+  /**
+   * @return The ref prefix dedicated to a target, so that concurrent pushes to several targets do
+   *     not stage into each other's outbox
+   */
+  static String outbox(String targetRepo, String targetBranch) {
+    return OUTBOXES + targetRepo + "/" + targetBranch.replace("%", "%25").replace("/", "%2F") + "/";
+  }
+
+  /**
+   * @return The outbox of the refs of a target that must be force pushed. It is pushed separately
+   *     since the force flag of a refspec applies to every ref it matches.
+   */
+  static String forcedOutbox(String outbox) {
+    return FORCED_OUTBOXES + outbox.substring(OUTBOXES.length());
+  }
+
+  /** @return The refspec pushing every ref staged in {@code outbox} to its final name */
+  static String refSpec(String outbox) {
+    return outbox + "*:" + Constants.R_REFS + "*";
+  }
+
+  /**
+   * @return The staged tags, or null if the tags were to be staged but there is no snapshot to
+   *     compare with. Without a snapshot, the branch and the additional refs are still staged,
+   *     unless there is none of them.
+   */
+  @Override
+  @CheckForNull
+  public TagDelta invoke(Repository repository, VirtualChannel channel) throws IOException {
+    Map<String, ObjectId> snapshot = stageTags ? TagSnapshotCallback.read(repository) : null;
+    if (stageTags && snapshot == null && refs.isEmpty()) {
+      return null;
+    }
+
+    for (Ref staged : repository.getRefDatabase().getRefsByPrefix(outbox)) {
+      delete(repository, staged.getName());
+    }
+
+    TagDelta delta = new TagDelta();
+    List<Ref> tags =
+        snapshot == null
+            ? Collections.emptyList()
+            : repository.getRefDatabase().getRefsByPrefix(Constants.R_TAGS);
+    for (Ref tag : tags) {
+      ObjectId objectId = tag.getObjectId();
+      if (objectId == null) {
+        continue;
+      }
+      ObjectId snapshotId = snapshot.get(tag.getName());
+      if (snapshotId == null) {
+        delta.created.add(tag.getName());
+      } else if (!snapshotId.equals(objectId)) {
+        delta.moved.add(tag.getName());
+      } else {
+        continue;
+      }
+      stage(repository, tag.getName(), objectId);
+    }
+    if (targetBranch != null && branchRev != null) {
+      stage(repository, Constants.R_HEADS + targetBranch, branchRev);
+    }
+    for (Map.Entry<String, ObjectId> ref : refs.entrySet()) {
+      stage(repository, ref.getKey(), ref.getValue());
+    }
+    return stageTags && snapshot == null ? null : delta;
+  }
+
+  private void stage(Repository repository, String refName, ObjectId objectId) throws IOException {
+    String outboxRef = outbox + refName.substring(Constants.R_REFS.length());
+    RefUpdate update = repository.updateRef(outboxRef);
+    update.setNewObjectId(objectId);
+    update.setForceUpdate(true);
+    RefUpdate.Result result = update.update();
+    switch (result) {
+      case NEW:
+      case FORCED:
+      case NO_CHANGE:
+        return;
+      default:
+        throw new IOException("Failed to stage " + refName + " in " + outboxRef + ": " + result);
+    }
+  }
+
+  private static void delete(Repository repository, String refName) throws IOException {
+    RefUpdate update = repository.updateRef(refName);
+    update.setForceUpdate(true);
+    RefUpdate.Result result = update.delete();
+    if (result != RefUpdate.Result.FORCED && result != RefUpdate.Result.NO_CHANGE) {
+      throw new IOException("Failed to delete " + refName + ": " + result);
+    }
+  }
+
+  /** The tags created or moved since the snapshot */
+  static class TagDelta implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<String> created = new ArrayList<>();
+    private final List<String> moved = new ArrayList<>();
+
+    List<String> getCreated() {
+      return Collections.unmodifiableList(created);
+    }
+
+    List<String> getMoved() {
+      return Collections.unmodifiableList(moved);
+    }
+
+    boolean isEmpty() {
+      return created.isEmpty() && moved.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+      return created.size() + " created " + created + ", " + moved.size() + " moved " + moved;
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package io.jenkins.plugins.git_push;
+
+import hudson.remoting.VirtualChannel;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.CheckForNull;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.jenkinsci.plugins.gitclient.RepositoryCallback;
+
+/**
+ * Records every tag of the repository, with the object it points to, in a file of the git
+ * directory. {@link StageOutboxCallback} and {@link BundleCallback} later compare the tags with
+ * this snapshot to find the ones created or moved in between.
+ *
+ * @author Réda Housni Alaoui
+ */
+class TagSnapshotCallback implements RepositoryCallback<Integer> {
+
+  private static final long serialVersionUID = 1L;
+
+  static final String FILE_NAME = "git-push-tag-snapshot";
+
+  /** @return The number of recorded tags */
+  @Override
+  public Integer invoke(Repository repository, VirtualChannel channel) throws IOException {
+    List<Ref> tags = repository.getRefDatabase().getRefsByPrefix(Constants.R_TAGS);
+    File file = new File(repository.getDirectory(), FILE_NAME);
+    try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+      for (Ref tag : tags) {
+        ObjectId objectId = tag.getObjectId();
+        if (objectId == null) {
+          continue;
+        }
+        writer.write(objectId.name());
+        writer.write(' ');
+        writer.write(tag.getName());
+        writer.newLine();
+      }
+    }
+    return tags.size();
+  }
+
+  /** @return The tags of the snapshot of {@code repository}, or null if it has none */
+  @CheckForNull
+  static Map<String, ObjectId> read(Repository repository) throws IOException {
+    File snapshotFile = new File(repository.getDirectory(), FILE_NAME);
+    if (!snapshotFile.isFile()) {
+      return null;
+    }
+    Map<String, ObjectId> snapshot = new HashMap<>();
+    try (BufferedReader reader =
+        Files.newBufferedReader(snapshotFile.toPath(), StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        int separator = line.indexOf(' ');
+        if (separator > 0) {
+          snapshot.put(
+              line.substring(separator + 1), ObjectId.fromString(line.substring(0, separator)));
+        }
+      }
+    }
+    return snapshot;
+  }
+}
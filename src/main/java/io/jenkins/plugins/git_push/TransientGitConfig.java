@@ -0,0 +1,39 @@
+package io.jenkins.plugins.git_push;
+
+import hudson.EnvVars;
+import java.util.Map;
+import org.apache.commons.lang.math.NumberUtils;
+
+/**
+ * Passes git configuration entries to the git command line processes through the {@code
+ * GIT_CONFIG_COUNT}, {@code GIT_CONFIG_KEY_<n>} and {@code GIT_CONFIG_VALUE_<n>} environment
+ * variables. The entries only live as long as the processes, the workspace configuration is left
+ * untouched. Git versions older than 2.31 ignore them.
+ *
+ * @author Réda Housni Alaoui
+ */
+class TransientGitConfig {
+
+  private static final String COUNT = "GIT_CONFIG_COUNT";
+  private static final String KEY_PREFIX = "GIT_CONFIG_KEY_";
+  private static final String VALUE_PREFIX = "GIT_CONFIG_VALUE_";
+
+  private TransientGitConfig() {}
+
+  /**
+   * Appends the entries to the ones already present in the environment.
+   *
+   * @param environment The environment that will be passed to git
+   * @param entries The git configuration entries, keyed by configuration name (e.g. {@code
+   *     protocol.version})
+   */
+  static void apply(EnvVars environment, Map<String, String> entries) {
+    int count = NumberUtils.toInt(environment.get(COUNT), 0);
+    for (Map.Entry<String, String> entry : entries.entrySet()) {
+      environment.put(KEY_PREFIX + count, entry.getKey());
+      environment.put(VALUE_PREFIX + count, entry.getValue());
+      count++;
+    }
+    environment.put(COUNT, String.valueOf(count));
+  }
+}
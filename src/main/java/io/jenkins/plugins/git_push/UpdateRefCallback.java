@@ -0,0 +1,44 @@
+package io.jenkins.plugins.git_push;
+
+import hudson.remoting.VirtualChannel;
+import java.io.IOException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.jenkinsci.plugins.gitclient.RepositoryCallback;
+
+/**
+ * Points a local ref to an object, without any network access.
+ *
+ * @author Réda Housni Alaoui
+ */
+class UpdateRefCallback implements RepositoryCallback<Void> {
+
+  private static final long serialVersionUID = 1L;
+
+  private final String refName;
+  private final ObjectId objectId;
+
+  UpdateRefCallback(String refName, ObjectId objectId) {
+    this.refName = refName;
+    this.objectId = objectId;
+  }
+
+  @Override
+  public Void invoke(Repository repository, VirtualChannel channel) throws IOException {
+    RefUpdate update = repository.updateRef(refName);
+    update.setNewObjectId(objectId);
+    update.setForceUpdate(true);
+    update.setRefLogMessage("git-push: " + objectId.name() + " pushed", false);
+    RefUpdate.Result result = update.update();
+    switch (result) {
+      case NEW:
+      case FORCED:
+      case FAST_FORWARD:
+      case NO_CHANGE:
+        return null;
+      default:
+        throw new IOException("Failed to update " + refName + ": " + result);
+    }
+  }
+}
@@ -0,0 +1,50 @@
+package io.jenkins.plugins.git_push;
+
+import java.util.concurrent.TimeUnit;
+import jenkins.benchmark.jmh.BenchmarkFinder;
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the {@link jenkins.benchmark.jmh.JmhBenchmark JMH benchmarks} through {@code mvn test
+ * -Dbenchmark}. The results are written as JSON to {@code target/jmh-report.json}.
+ *
+ * <p>The shape of the synthetic repositories can be changed with comma separated lists, e.g.
+ * {@code -Dbenchmark.tagCount=0,100,10000}.
+ *
+ * @author Réda Housni Alaoui
+ */
+public class BenchmarkRunner {
+
+  private static final String[] PARAMETERS = {
+    "branchCount", "tagCount", "historyDepth", "fileCount"
+  };
+
+  @Test
+  public void runJmhBenchmarks() throws Exception {
+    ChainedOptionsBuilder options =
+        new OptionsBuilder()
+            .mode(Mode.AverageTime)
+            .timeUnit(TimeUnit.MILLISECONDS)
+            .warmupIterations(2)
+            .measurementIterations(5)
+            .threads(1)
+            .forks(1)
+            .shouldFailOnError(true)
+            .shouldDoGC(true)
+            .resultFormat(ResultFormatType.JSON)
+            .result(System.getProperty("benchmark.result", "target/jmh-report.json"));
+    for (String parameter : PARAMETERS) {
+      String values = System.getProperty("benchmark." + parameter);
+      if (values != null) {
+        options.param(parameter, values.split(","));
+      }
+    }
+    new BenchmarkFinder(getClass()).findBenchmarks(options);
+    new Runner(options.build()).run();
+  }
+}
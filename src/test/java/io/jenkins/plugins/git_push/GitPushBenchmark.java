@@ -0,0 +1,230 @@
+package io.jenkins.plugins.git_push;
+
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import hudson.model.TaskListener;
+import hudson.plugins.git.BranchSpec;
+import hudson.plugins.git.GitSCM;
+import hudson.plugins.git.UserRemoteConfig;
+import hudson.plugins.git.extensions.impl.DisableRemotePoll;
+import hudson.plugins.git.extensions.impl.UserIdentity;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import jenkins.benchmark.jmh.JmhBenchmarkState;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures {@link GitPushCommand#call(String, String)} against synthetic repositories. Before each
+ * push, a commit lands on the remote branch and another one in the workspace, so that every push
+ * fetches, merges and pushes for real.
+ *
+ * <p>The duration of each phase is reported along with the score, as the total milliseconds spent
+ * in that phase during the iteration. Run through {@link BenchmarkRunner}.
+ *
+ * @author Réda Housni Alaoui
+ */
+@JmhBenchmark
+public class GitPushBenchmark {
+
+  @Benchmark
+  public GitPushResult push(PushState state, PhaseCounters counters) throws Exception {
+    GitPushResult result =
+        new GitPushCommand(state.scm, state.build, TaskListener.NULL, state.workspace)
+            .call("master", "origin");
+    counters.record(result.getPhaseMillis());
+    return result;
+  }
+
+  public static class PushState extends JmhBenchmarkState {
+
+    @Param({"10"})
+    public int branchCount;
+
+    @Param({"10", "1000"})
+    public int tagCount;
+
+    @Param({"100"})
+    public int historyDepth;
+
+    @Param({"100"})
+    public int fileCount;
+
+    private Path directory;
+    private Git upstream;
+    private Git workspaceRepository;
+    private GitSCM scm;
+    private FreeStyleBuild build;
+    private FilePath workspace;
+    private int commitCount;
+
+    @Override
+    public void setup() throws Exception {
+      directory = Files.createTempDirectory("git-push-benchmark");
+      File origin = directory.resolve("origin.git").toFile();
+      new SyntheticRepository()
+          .branches(branchCount)
+          .tags(tagCount)
+          .historyDepth(historyDepth)
+          .files(fileCount)
+          .create(origin, directory.resolve("generator").toFile());
+      upstream =
+          Git.cloneRepository()
+              .setURI(origin.getAbsolutePath())
+              .setDirectory(directory.resolve("upstream").toFile())
+              .call();
+
+      scm =
+          new GitSCM(
+              Collections.singletonList(
+                  new UserRemoteConfig(origin.getAbsolutePath(), "origin", "", null)),
+              Collections.singletonList(new BranchSpec("master")),
+              null,
+              null,
+              Collections.singletonList(new DisableRemotePoll()));
+      scm.getExtensions().add(new UserIdentity("John Doe", "john@example.com"));
+
+      getJenkins().setNumExecutors(1);
+      FreeStyleProject project = getJenkins().createProject(FreeStyleProject.class, "benchmark");
+      project.setScm(scm);
+      build = project.scheduleBuild2(0).get();
+      if (build.getResult() != Result.SUCCESS) {
+        throw new IllegalStateException("The checkout build failed: " + build.getResult());
+      }
+      workspace = build.getWorkspace();
+      if (workspace == null) {
+        throw new IllegalStateException("No workspace for " + build);
+      }
+      workspaceRepository = Git.open(new File(workspace.getRemote()));
+    }
+
+    /** Makes the remote branch and the workspace diverge by one commit each */
+    @Setup(Level.Invocation)
+    public void diverge() throws IOException, GitAPIException {
+      commitCount++;
+      upstream.pull().call();
+      commit(upstream, "upstream-" + commitCount + ".txt");
+      upstream.push().call();
+      commit(workspaceRepository, "workspace-" + commitCount + ".txt");
+    }
+
+    private static void commit(Git git, String fileName) throws IOException, GitAPIException {
+      Path file = git.getRepository().getWorkTree().toPath().resolve(fileName);
+      Files.write(file, fileName.getBytes(StandardCharsets.UTF_8));
+      git.add().addFilepattern(fileName).call();
+      git.commit()
+          .setMessage("Add " + fileName)
+          .setAuthor(SyntheticRepository.IDENTITY)
+          .setCommitter(SyntheticRepository.IDENTITY)
+          .call();
+    }
+
+    @Override
+    public void tearDown() {
+      if (workspaceRepository != null) {
+        workspaceRepository.close();
+      }
+      if (upstream != null) {
+        upstream.close();
+      }
+      try {
+        Util.deleteRecursive(directory.toFile());
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+
+  /** The milliseconds spent in each phase of {@link GitPushSequence} during the iteration */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class PhaseCounters {
+
+    public long clientMillis;
+    public long referenceStoreMillis;
+    public long maintenanceMillis;
+    public long maintenanceSavedMillis;
+    /** The merge-bases timed around the maintenance, not part of its cost */
+    public long maintenanceProbeMillis;
+    public long preflightMillis;
+    public long fetchMillis;
+    public long mergeMillis;
+    public long stageMillis;
+    /** The branch and tags pushes */
+    public long pushMillis;
+    /** The refetch or the update of the remote-tracking ref */
+    public long updateMillis;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      clientMillis = 0;
+      referenceStoreMillis = 0;
+      maintenanceMillis = 0;
+      maintenanceSavedMillis = 0;
+      maintenanceProbeMillis = 0;
+      preflightMillis = 0;
+      fetchMillis = 0;
+      mergeMillis = 0;
+      stageMillis = 0;
+      pushMillis = 0;
+      updateMillis = 0;
+    }
+
+    void record(Map<String, Long> phaseMillis) {
+      for (Map.Entry<String, Long> phase : phaseMillis.entrySet()) {
+        long millis = phase.getValue();
+        switch (phase.getKey()) {
+          case "client":
+            clientMillis += millis;
+            break;
+          case "reference store":
+            referenceStoreMillis += millis;
+            break;
+          case "maintenance":
+            maintenanceMillis += millis;
+            break;
+          case "maintenance saved":
+            maintenanceSavedMillis += millis;
+            break;
+          case "maintenance probe":
+            maintenanceProbeMillis += millis;
+            break;
+          case "preflight":
+            preflightMillis += millis;
+            break;
+          case "fetch":
+            fetchMillis += millis;
+            break;
+          case "merge":
+            mergeMillis += millis;
+            break;
+          case "stage":
+            stageMillis += millis;
+            break;
+          case "refetch":
+          case "update remote-tracking ref":
+            updateMillis += millis;
+            break;
+          default:
+            pushMillis += millis;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,260 @@
+package io.jenkins.plugins.git_push;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.eclipse.jgit.lib.Constants.R_HEADS;
+import static org.eclipse.jgit.lib.Constants.R_REMOTES;
+import static org.eclipse.jgit.lib.Constants.R_TAGS;
+
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import hudson.plugins.git.BranchSpec;
+import hudson.plugins.git.GitSCM;
+import hudson.plugins.git.UserRemoteConfig;
+import hudson.plugins.git.extensions.impl.DisableRemotePoll;
+import hudson.plugins.git.extensions.impl.UserIdentity;
+import hudson.tasks.Builder;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.UUID;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+/**
+ * Runs the same scenarios against local bare repositories with each {@link GitPushOptions.Engine}.
+ * Each engine pushes to its own origin, both origins starting from the same commits, so that the
+ * results of the engines can be compared.
+ *
+ * @author Réda Housni Alaoui
+ */
+public class GitPushEngineTest {
+
+  /** Created once, so that the commits made with it have the same id in both origins */
+  private static final PersonIdent IDENTITY = new PersonIdent("John Doe", "john@example.com");
+
+  @Rule public JenkinsRule jenkins = new JenkinsRule();
+  @Rule public TemporaryFolder cliOriginDir = new TemporaryFolder();
+  @Rule public TemporaryFolder jgitOriginDir = new TemporaryFolder();
+  @Rule public TemporaryFolder otherGitRepoDir = new TemporaryFolder();
+
+  @Before
+  public void beforeEach() throws IOException, GitAPIException {
+    for (File origin : new File[] {cliOriginDir.getRoot(), jgitOriginDir.getRoot()}) {
+      Git.init().setBare(true).setDirectory(origin).setInitialBranch("master").call().close();
+    }
+
+    try (Git other =
+        Git.cloneRepository()
+            .setURI(cliOriginDir.getRoot().getAbsolutePath())
+            .setDirectory(otherGitRepoDir.getRoot())
+            .call()) {
+      commit(other.getRepository().getWorkTree(), "initial.txt");
+      other.push().call();
+      other.push().setRemote(jgitOriginDir.getRoot().getAbsolutePath()).add("master").call();
+      // Pushed to each origin by OtherCommitBuilder, once the workspace is checked out
+      commit(other.getRepository().getWorkTree(), "other.txt");
+    }
+  }
+
+  @Test
+  public void it_pushes_commits_and_tags() throws Exception {
+    for (GitPushOptions.Engine engine : GitPushOptions.Engine.values()) {
+      File origin = originDir(engine);
+      FreeStyleProject project = createProject(engine, origin);
+      project.getBuildersList().add(new CommitAndTagBuilder());
+      project.save();
+
+      FreeStyleBuild build = project.scheduleBuild2(0).get();
+      jenkins.assertBuildStatus(Result.SUCCESS, build);
+
+      try (Git git = Git.open(origin)) {
+        Ref master = git.getRepository().getRefDatabase().findRef(R_HEADS + "master");
+        Ref tag = git.getRepository().getRefDatabase().findRef(R_TAGS + tagName(build));
+        assertThat(master).as(engine.name()).isNotNull();
+        assertThat(tag).as(engine.name()).isNotNull();
+        assertThat(tag.getObjectId()).as(engine.name()).isEqualTo(master.getObjectId());
+      }
+    }
+  }
+
+  @Test
+  public void it_creates_the_same_merge_commit_with_each_engine() throws Exception {
+    for (GitPushOptions.Engine engine : GitPushOptions.Engine.values()) {
+      File origin = originDir(engine);
+      FreeStyleProject project = createProject(engine, origin);
+      project.getBuildersList().add(new OtherCommitBuilder(otherGitRepoDir.getRoot(), origin));
+      project.getBuildersList().add(new CommitAndTagBuilder());
+      project.save();
+
+      FreeStyleBuild build = project.scheduleBuild2(0).get();
+      jenkins.assertBuildStatus(Result.SUCCESS, build);
+
+      try (Git git = Git.open(origin)) {
+        RevCommit mergeCommit = tip(git);
+        assertThat(mergeCommit.getParentCount()).as(engine.name()).isEqualTo(2);
+        assertThat(mergeCommit.getCommitterIdent().getName())
+            .as(engine.name())
+            .isEqualTo(IDENTITY.getName());
+
+        Ref tag = git.getRepository().getRefDatabase().findRef(R_TAGS + tagName(build));
+        assertThat(tag).as(engine.name()).isNotNull();
+        RevCommit taggedCommit = git.getRepository().parseCommit(tag.getObjectId());
+        assertThat(mergeCommit.getParents()).as(engine.name()).contains(taggedCommit);
+      }
+    }
+
+    try (Git cli = Git.open(cliOriginDir.getRoot());
+        Git jgit = Git.open(jgitOriginDir.getRoot())) {
+      RevCommit cliMerge = tip(cli);
+      RevCommit jgitMerge = tip(jgit);
+      assertThat(jgitMerge.getTree()).isEqualTo(cliMerge.getTree());
+      assertThat(jgitMerge.getParents()).containsExactly(cliMerge.getParents());
+    }
+  }
+
+  @Test
+  public void it_retries_a_push_rejected_because_the_remote_moved() throws Exception {
+    for (GitPushOptions.Engine engine : GitPushOptions.Engine.values()) {
+      File origin = originDir(engine);
+      FreeStyleProject project = createProject(engine, origin);
+      project.getPublishersList().get(GitPush.class).setPushRetries(1);
+      project.getBuildersList().add(new OtherCommitBuilder(otherGitRepoDir.getRoot(), origin));
+      project.getBuildersList().add(new CommitAndTagBuilder());
+      project.getBuildersList().add(new StaleCheckpointBuilder());
+      project.save();
+
+      FreeStyleBuild build = project.scheduleBuild2(0).get();
+      jenkins.assertBuildStatus(Result.SUCCESS, build);
+      jenkins.assertLogContains("Push to origin/master rejected, retrying", build);
+
+      try (Git git = Git.open(origin)) {
+        assertThat(tip(git).getParentCount()).as(engine.name()).isEqualTo(2);
+      }
+    }
+  }
+
+  private File originDir(GitPushOptions.Engine engine) {
+    return engine == GitPushOptions.Engine.JGIT ? jgitOriginDir.getRoot() : cliOriginDir.getRoot();
+  }
+
+  private FreeStyleProject createProject(GitPushOptions.Engine engine, File origin)
+      throws IOException {
+    GitSCM scm =
+        new GitSCM(
+            Collections.singletonList(
+                new UserRemoteConfig(origin.getAbsolutePath(), "origin", "", null)),
+            Collections.singletonList(new BranchSpec("master")),
+            null,
+            null,
+            Collections.singletonList(new DisableRemotePoll()));
+    scm.getExtensions().add(new UserIdentity("John Doe", "john@example.com"));
+
+    FreeStyleProject project = jenkins.createFreeStyleProject();
+    project.setScm(scm);
+    GitPush gitPush = new GitPush();
+    gitPush.setTargetBranch("master");
+    gitPush.setTargetRepo("origin");
+    gitPush.setEngine(engine);
+    project.getPublishersList().add(gitPush);
+    return project;
+  }
+
+  private static RevCommit tip(Git git) throws IOException {
+    Ref master = git.getRepository().getRefDatabase().findRef(R_HEADS + "master");
+    assertThat(master).isNotNull();
+    return git.getRepository().parseCommit(master.getObjectId());
+  }
+
+  private static String tagName(FreeStyleBuild build) {
+    return build.getDescription();
+  }
+
+  private static void commit(File workTree, String fileName) throws IOException, GitAPIException {
+    Files.createFile(workTree.toPath().resolve(fileName));
+    try (Git git = Git.open(workTree)) {
+      git.add().addFilepattern(fileName).call();
+      git.commit()
+          .setMessage("Add " + fileName)
+          .setAuthor(IDENTITY)
+          .setCommitter(IDENTITY)
+          .call();
+    }
+  }
+
+  /**
+   * Commits in the workspace and tags the commit, the tag name becoming the build description. The
+   * commit is the same in every workspace checked out from the same commit.
+   */
+  private static class CommitAndTagBuilder extends Builder {
+    @Override
+    public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+        throws IOException {
+      File workspace = Paths.get(build.getWorkspace().getRemote()).toFile();
+      try (Git git = Git.open(workspace)) {
+        commit(workspace, "local.txt");
+        String tagName = UUID.randomUUID().toString();
+        git.tag().setName(tagName).setAnnotated(false).call();
+        build.setDescription(tagName);
+      } catch (GitAPIException e) {
+        throw new RuntimeException(e);
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Records a checkpoint of HEAD as fetched before the remote branch moved, so that the first push
+   * attempt skips the fetch and gets rejected.
+   */
+  private static class StaleCheckpointBuilder extends Builder {
+    @Override
+    public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+        throws IOException {
+      try (Git git = Git.open(new File(build.getWorkspace().getRemote()))) {
+        GitPushCheckpoint checkpoint =
+            new GitPushCheckpoint(git.getRepository().resolve(Constants.HEAD));
+        checkpoint.fetched(git.getRepository().resolve(R_REMOTES + "origin/master"));
+        GitPushAction.of(build).putCheckpoint("origin/master", checkpoint);
+      }
+      return true;
+    }
+  }
+
+  /** Moves the remote branch from another clone, so that the push needs a merge */
+  private static class OtherCommitBuilder extends Builder {
+
+    private final File workTree;
+    private final File origin;
+
+    OtherCommitBuilder(File workTree, File origin) {
+      this.workTree = workTree;
+      this.origin = origin;
+    }
+
+    @Override
+    public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+        throws IOException {
+      try (Git git = Git.open(workTree)) {
+        git.push().setRemote(origin.getAbsolutePath()).add("master").call();
+      } catch (GitAPIException e) {
+        throw new RuntimeException(e);
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package io.jenkins.plugins.git_push;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import hudson.model.TaskListener;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.eclipse.jgit.transport.URIish;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+/** @author Réda Housni Alaoui */
+public class GitPushLimitsTest {
+
+  @Rule public JenkinsRule jenkins = new JenkinsRule();
+
+  private GitPushLimits limits;
+
+  @Before
+  public void beforeEach() {
+    limits = GitPushLimits.get();
+  }
+
+  @Test
+  public void it_limits_the_pushes_per_host() throws Exception {
+    limits.setMaxPushesPerHost(1);
+
+    GitPushLimits.Permit first =
+        limits.acquire(new URIish("https://a.example.com/repo.git"), TaskListener.NULL);
+
+    CompletableFuture<GitPushLimits.Permit> sameHost =
+        acquireAsync("https://a.example.com/other.git");
+    assertThat(isDoneWithin(sameHost)).isFalse();
+    acquireAsync("https://b.example.com/repo.git").get(10, TimeUnit.SECONDS).close();
+
+    first.close();
+    sameHost.get(10, TimeUnit.SECONDS).close();
+
+    assertThat(limits.getLimits())
+        .filteredOn(limit -> limit.getScope().equals("a.example.com"))
+        .singleElement()
+        .satisfies(
+            limit -> {
+              assertThat(limit.getWaits()).isEqualTo(1);
+              assertThat(limit.getRunning()).isZero();
+            });
+  }
+
+  @Test
+  public void it_limits_the_pushes_globally() throws Exception {
+    limits.setMaxPushes(1);
+
+    GitPushLimits.Permit first =
+        limits.acquire(new URIish("https://a.example.com/repo.git"), TaskListener.NULL);
+
+    CompletableFuture<GitPushLimits.Permit> otherHost =
+        acquireAsync("https://b.example.com/repo.git");
+    assertThat(isDoneWithin(otherHost)).isFalse();
+
+    first.close();
+    otherHost.get(10, TimeUnit.SECONDS).close();
+  }
+
+  @Test
+  public void a_host_limit_overrides_the_default_per_host_limit() throws Exception {
+    limits.setMaxPushesPerHost(1);
+    limits.setHostLimits(Collections.singletonList(new HostLimit("a.example.com", 2)));
+
+    GitPushLimits.Permit first =
+        limits.acquire(new URIish("https://a.example.com/repo.git"), TaskListener.NULL);
+    acquireAsync("https://a.example.com/repo.git").get(10, TimeUnit.SECONDS).close();
+    first.close();
+  }
+
+  private CompletableFuture<GitPushLimits.Permit> acquireAsync(String remoteURI) {
+    return CompletableFuture.supplyAsync(
+        () -> {
+          try {
+            return limits.acquire(new URIish(remoteURI), TaskListener.NULL);
+          } catch (Exception e) {
+            throw new IllegalStateException(e);
+          }
+        });
+  }
+
+  private static boolean isDoneWithin(CompletableFuture<?> future) throws Exception {
+    try {
+      future.get(500, TimeUnit.MILLISECONDS);
+      return true;
+    } catch (TimeoutException e) {
+      return false;
+    }
+  }
+}
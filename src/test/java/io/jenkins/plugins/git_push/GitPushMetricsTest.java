@@ -0,0 +1,65 @@
+package io.jenkins.plugins.git_push;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+/** @author Réda Housni Alaoui */
+public class GitPushMetricsTest {
+
+  private final GitPushMetrics metrics = new GitPushMetrics();
+
+  @Test
+  public void it_computes_percentiles_per_remote() {
+    for (int millis = 1; millis <= 100; millis++) {
+      metrics.record("file:///origin", entry(millis, 1, 0, true));
+    }
+    metrics.record("file:///mirror", entry(5, 1, 0, true));
+
+    assertThat(metrics.getRemotes())
+        .extracting(GitPushMetrics.Remote::getRemote)
+        .containsExactly("file:///mirror", "file:///origin");
+    GitPushMetrics.Remote origin = metrics.getRemotes().get(1);
+    assertThat(origin.getPushes()).isEqualTo(100);
+    assertThat(origin.getP50Millis()).isEqualTo(50);
+    assertThat(origin.getP95Millis()).isEqualTo(95);
+    assertThat(origin.getP99Millis()).isEqualTo(99);
+  }
+
+  @Test
+  public void it_computes_the_rejection_and_failure_rates() {
+    metrics.record("file:///origin", entry(10, 3, 2, true));
+    metrics.record("file:///origin", entry(10, 1, 1, false));
+
+    GitPushMetrics.Remote origin = metrics.getRemotes().get(0);
+    assertThat(origin.getRejectionRate()).isEqualTo(0.75);
+    assertThat(origin.getFailureRate()).isEqualTo(0.5);
+  }
+
+  @Test
+  public void it_only_keeps_the_last_pushes() {
+    for (int i = 0; i < GitPushMetrics.WINDOW; i++) {
+      metrics.record("file:///origin", entry(1000, 1, 0, true));
+    }
+    for (int i = 0; i < GitPushMetrics.WINDOW; i++) {
+      metrics.record("file:///origin", entry(10, 1, 0, true));
+    }
+
+    GitPushMetrics.Remote origin = metrics.getRemotes().get(0);
+    assertThat(origin.getPushes()).isEqualTo(GitPushMetrics.WINDOW);
+    assertThat(origin.getP99Millis()).isEqualTo(10);
+  }
+
+  private static GitPushAction.Entry entry(
+      long totalMillis, int attempts, int rejections, boolean success) {
+    GitPushAction.Entry entry = new GitPushAction.Entry("origin/master");
+    for (int i = 0; i < attempts; i++) {
+      entry.recordAttempt(i < rejections);
+    }
+    entry.setTotalMillis(totalMillis);
+    if (!success) {
+      entry.failed(new Exception("rejected"));
+    }
+    return entry;
+  }
+}
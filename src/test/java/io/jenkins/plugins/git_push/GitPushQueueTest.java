@@ -0,0 +1,84 @@
+package io.jenkins.plugins.git_push;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import hudson.model.TaskListener;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.Test;
+
+/** @author Réda Housni Alaoui */
+public class GitPushQueueTest {
+
+  private final GitPushQueue queue = new GitPushQueue();
+
+  @Test
+  public void it_serializes_pushes_to_the_same_branch() throws Exception {
+    GitPushQueue.Permit first = queue.acquire("file:///origin", "master", TaskListener.NULL);
+
+    CompletableFuture<GitPushQueue.Permit> second = acquireAsync("master");
+    assertThat(isDoneWithin(second)).isFalse();
+    assertThat(queue.getLanes())
+        .singleElement()
+        .extracting(GitPushQueue.Lane::getDepth)
+        .isEqualTo(2);
+
+    first.close();
+    second.get(10, TimeUnit.SECONDS).close();
+
+    assertThat(queue.getLanes()).isEmpty();
+  }
+
+  @Test
+  public void it_does_not_serialize_pushes_to_different_branches() throws Exception {
+    GitPushQueue.Permit master = queue.acquire("file:///origin", "master", TaskListener.NULL);
+
+    CompletableFuture<GitPushQueue.Permit> develop = acquireAsync("develop");
+    develop.get(10, TimeUnit.SECONDS).close();
+
+    master.close();
+    assertThat(queue.getLanes()).isEmpty();
+  }
+
+  @Test
+  public void it_keeps_the_statistics_of_an_idle_branch() throws Exception {
+    GitPushQueue.Permit first = queue.acquire("file:///origin", "master", TaskListener.NULL);
+    CompletableFuture<GitPushQueue.Permit> second = acquireAsync("master");
+    assertThat(isDoneWithin(second)).isFalse();
+    first.recordRejection();
+    first.close();
+    second.get(10, TimeUnit.SECONDS).close();
+
+    assertThat(queue.getLanes()).isEmpty();
+    assertThat(queue.getBranches())
+        .singleElement()
+        .satisfies(
+            branch -> {
+              assertThat(branch.getTargetBranch()).isEqualTo("master");
+              assertThat(branch.getDepth()).isZero();
+              assertThat(branch.getRejections()).isEqualTo(1);
+              assertThat(branch.getMaxWaitMillis()).isPositive();
+            });
+  }
+
+  private CompletableFuture<GitPushQueue.Permit> acquireAsync(String branch) {
+    return CompletableFuture.supplyAsync(
+        () -> {
+          try {
+            return queue.acquire("file:///origin", branch, TaskListener.NULL);
+          } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+          }
+        });
+  }
+
+  private static boolean isDoneWithin(CompletableFuture<?> future) throws Exception {
+    try {
+      future.get(500, TimeUnit.MILLISECONDS);
+      return true;
+    } catch (TimeoutException e) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,182 @@
+package io.jenkins.plugins.git_push;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.eclipse.jgit.lib.Constants.R_HEADS;
+
+import hudson.model.Result;
+import hudson.model.TaskListener;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.transport.URIish;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.RestartableJenkinsRule;
+
+/**
+ * Runs the {@code gitPush} step in pipelines, the origin living in the Jenkins home so that it
+ * survives the restarts.
+ *
+ * @author Réda Housni Alaoui
+ */
+public class GitPushStepTest {
+
+  @Rule public RestartableJenkinsRule story = new RestartableJenkinsRule();
+
+  @Test
+  public void it_pushes_from_a_pipeline() {
+    story.then(
+        r -> {
+          File origin = createOrigin(r);
+          WorkflowRun run = r.buildAndAssertSuccess(createJob(r, origin));
+          r.assertLogContains("Pushed " + tip(origin).name(), run);
+        });
+  }
+
+  @Test
+  public void it_does_not_fail_on_a_single_best_effort_target() {
+    story.then(
+        r -> {
+          File origin = createOrigin(r);
+          WorkflowJob job =
+              createJob(
+                  r,
+                  origin,
+                  "targets: [[targetRepo: 'mirror', targetBranch: 'master', bestEffort: true]]",
+                  "mirror/master");
+          WorkflowRun run = r.buildAndAssertSuccess(job);
+          r.assertLogContains("Best-effort push to mirror/master failed", run);
+        });
+  }
+
+  @Test
+  public void it_stops_a_queued_push_without_holding_a_step_slot() {
+    story.then(
+        r -> {
+          File origin = createOrigin(r);
+          ObjectId initialTip = tip(origin);
+          WorkflowJob job = createJob(r, origin);
+
+          WorkflowRun run;
+          try (GitPushQueue.Permit ignored = holdQueue(origin)) {
+            run = job.scheduleBuild2(0).waitForStart();
+            r.waitForMessage("Waiting for 1 other push(es) to master", run);
+            assertThat(GitPushLimits.get().getLimits())
+                .filteredOn(limit -> "gitPush steps".equals(limit.getScope()))
+                .allSatisfy(limit -> assertThat(limit.getRunning()).isZero());
+
+            run.doStop();
+            r.assertBuildStatus(Result.ABORTED, r.waitForCompletion(run));
+          }
+
+          // The interrupted push left the queue instead of pushing once the queue was released
+          long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+          while (!GitPushQueue.get().getLanes().isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(100);
+          }
+          assertThat(GitPushQueue.get().getLanes()).isEmpty();
+          assertThat(tip(origin)).isEqualTo(initialTip);
+        });
+  }
+
+  @Test
+  public void it_resumes_a_push_interrupted_by_a_restart() {
+    story.then(
+        r -> {
+          File origin = createOrigin(r);
+          WorkflowJob job = createJob(r, origin);
+          // Never released, the queue does not survive the restart
+          holdQueue(origin);
+          WorkflowRun run = job.scheduleBuild2(0).waitForStart();
+          r.waitForMessage("Waiting for 1 other push(es) to master", run);
+        });
+    story.then(
+        r -> {
+          WorkflowRun run = r.jenkins.getItemByFullName("p", WorkflowJob.class).getBuildByNumber(1);
+          r.assertBuildStatus(Result.SUCCESS, r.waitForCompletion(run));
+          r.assertLogContains("Resuming the push to [origin/master]", run);
+          r.assertLogContains("Pushed " + tip(originDir(r)).name(), run);
+        });
+  }
+
+  private static File originDir(JenkinsRule r) {
+    return new File(r.jenkins.getRootDir(), "origin");
+  }
+
+  private static File createOrigin(JenkinsRule r) throws IOException, GitAPIException {
+    File origin = originDir(r);
+    Git.init().setBare(true).setDirectory(origin).setInitialBranch("master").call().close();
+    File seed = new File(r.jenkins.getRootDir(), "seed");
+    try (Git git =
+        Git.cloneRepository().setURI(origin.getAbsolutePath()).setDirectory(seed).call()) {
+      Files.createFile(seed.toPath().resolve("initial.txt"));
+      git.add().addFilepattern("initial.txt").call();
+      git.commit()
+          .setMessage("Add initial.txt")
+          .setAuthor("John Doe", "john@example.com")
+          .setCommitter("John Doe", "john@example.com")
+          .call();
+      git.push().call();
+    }
+    return origin;
+  }
+
+  private static WorkflowJob createJob(JenkinsRule r, File origin) throws IOException {
+    return createJob(
+        r, origin, "targetBranch: 'master', targetRepo: 'origin', queue: true", "origin/master");
+  }
+
+  /**
+   * @param arguments The arguments of the {@code gitPush} step, besides {@code gitScm}
+   * @param target The target whose pushed revision is printed
+   */
+  private static WorkflowJob createJob(
+      JenkinsRule r, File origin, String arguments, String target) throws IOException {
+    WorkflowJob job = r.createProject(WorkflowJob.class, "p");
+    job.setDefinition(
+        new CpsFlowDefinition(
+            "def gitScm = [$class: 'GitSCM',\n"
+                + "  userRemoteConfigs: [[url: '"
+                + origin.getAbsolutePath()
+                + "', name: 'origin']],\n"
+                + "  branches: [[name: 'master']],\n"
+                + "  extensions: [[$class: 'UserIdentity', name: 'John Doe',"
+                + " email: 'john@example.com']]]\n"
+                + "node {\n"
+                + "  checkout(gitScm)\n"
+                + "  sh 'git -c user.name=\"John Doe\" -c user.email=john@example.com"
+                + " commit -q --allow-empty -m \"Build $BUILD_NUMBER\"'\n"
+                + "  def results = gitPush(gitScm: gitScm, "
+                + arguments
+                + ")\n"
+                + "  echo \"Pushed ${results['"
+                + target
+                + "'].pushedRev}\"\n"
+                + "}\n",
+            true));
+    return job;
+  }
+
+  /** @return A permit making the pushes of the step wait in the queue of the origin */
+  private static GitPushQueue.Permit holdQueue(File origin) throws Exception {
+    return GitPushQueue.get()
+        .acquire(new URIish(origin.getAbsolutePath()).toString(), "master", TaskListener.NULL);
+  }
+
+  private static ObjectId tip(File origin) throws IOException {
+    try (Git git = Git.open(origin)) {
+      Ref master = git.getRepository().getRefDatabase().findRef(R_HEADS + "master");
+      assertThat(master).isNotNull();
+      return master.getObjectId();
+    }
+  }
+}
@@ -4,9 +4,16 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatCode;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.eclipse.jgit.lib.Constants.R_HEADS;
+import static org.eclipse.jgit.lib.Constants.R_REMOTES;
 import static org.eclipse.jgit.lib.Constants.R_TAGS;
 
+import hudson.EnvVars;
 import hudson.Launcher;
+import hudson.matrix.AxisList;
+import hudson.matrix.MatrixBuild;
+import hudson.matrix.MatrixProject;
+import hudson.matrix.MatrixRun;
+import hudson.matrix.TextAxis;
 import hudson.model.AbstractBuild;
 import hudson.model.Action;
 import hudson.model.BuildListener;
@@ -16,15 +23,20 @@ import hudson.model.Result;
 import hudson.plugins.git.BranchSpec;
 import hudson.plugins.git.GitSCM;
 import hudson.plugins.git.UserRemoteConfig;
+import hudson.plugins.git.extensions.impl.CloneOption;
 import hudson.plugins.git.extensions.impl.DisableRemotePoll;
 import hudson.plugins.git.extensions.impl.UserIdentity;
+import hudson.slaves.DumbSlave;
 import hudson.tasks.Builder;
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 import java.util.UUID;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
@@ -32,7 +44,10 @@ import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.revwalk.ObjectWalk;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.RefSpec;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -48,6 +63,8 @@ public class GitPushTest {
   @Rule public JenkinsRule jenkins = new JenkinsRule();
   @Rule public TemporaryFolder originGitRepoDir = new TemporaryFolder();
   @Rule public TemporaryFolder noneJenkinsGitRepoDir = new TemporaryFolder();
+  @Rule public TemporaryFolder mirrorGitRepoDir = new TemporaryFolder();
+  @Rule public TemporaryFolder mirrorCloneDir = new TemporaryFolder();
 
   private Git noneJenkinsGitRepo;
   private FreeStyleProject project;
@@ -132,36 +149,775 @@ public class GitPushTest {
     }
   }
 
+  @Test
+  public void it_records_the_push_in_a_build_action() throws Exception {
+    project.getBuildersList().add(new CommitBuilder());
+    project.getPublishersList().add(createGitPush("master", "origin"));
+    project.save();
+
+    FreeStyleBuild build = project.scheduleBuild2(0).get();
+    jenkins.assertBuildStatus(Result.SUCCESS, build);
+    jenkins.assertLogContains("Pushed to origin/master in ", build);
+
+    GitPushAction action = build.getAction(GitPushAction.class);
+    assertThat(action).isNotNull();
+    assertThat(action.getEntries())
+        .singleElement()
+        .satisfies(
+            entry -> {
+              assertThat(entry.getTarget()).isEqualTo("origin/master");
+              assertThat(entry.isSuccess()).isTrue();
+              assertThat(entry.getAttempts()).isEqualTo(1);
+              assertThat(entry.getPhaseMillis()).containsKeys("client", "fetch", "merge");
+            });
+    assertThat(GitPushMetrics.get().getRemotes())
+        .extracting(GitPushMetrics.Remote::getPushes)
+        .containsExactly(1);
+  }
+
+  @Test
+  public void it_borrows_the_objects_of_a_reference_store() throws Exception {
+    project.getBuildersList().add(new CommitBuilder());
+    GitPush gitPush = createGitPush("master", "origin");
+    gitPush.setReferenceStore(true);
+    project.getPublishersList().add(gitPush);
+    project.save();
+
+    FreeStyleBuild build = project.scheduleBuild2(0).get();
+    jenkins.assertBuildStatus(Result.SUCCESS, build);
+    jenkins.assertLogContains("Borrowing the objects of the reference store", build);
+
+    Path alternates = Paths.get(build.getWorkspace().getRemote(), ".git/objects/info/alternates");
+    List<String> lines = Files.readAllLines(alternates);
+    assertThat(lines).singleElement().asString().contains("caches", "git-push");
+    assertThat(Paths.get(lines.get(0))).isDirectory();
+
+    CommitAction commitAction = build.getAction(CommitAction.class);
+    assertThat(commitAction).isNotNull();
+    try (Git origin = Git.open(originGitRepoDir.getRoot())) {
+      assertThat(
+              origin
+                  .getRepository()
+                  .parseCommit(ObjectId.fromString(commitAction.commit.name())))
+          .isNotNull();
+    }
+  }
+
+  @Test
+  public void it_stops_borrowing_once_the_reference_store_is_disabled() throws Exception {
+    // Fetched through the store by the push, so that the workspace borrows its objects
+    project
+        .getBuildersList()
+        .add(
+            new CommitBuilder()
+                .gitDir(noneJenkinsGitRepoDir.getRoot().getAbsolutePath())
+                .push(true)
+                .publishCommitAction(false));
+    project.getBuildersList().add(new CommitBuilder());
+    GitPush gitPush = createGitPush("master", "origin");
+    gitPush.setReferenceStore(true);
+    project.getPublishersList().add(gitPush);
+    project.save();
+    FreeStyleBuild firstBuild = project.scheduleBuild2(0).get();
+    jenkins.assertBuildStatus(Result.SUCCESS, firstBuild);
+
+    gitPush.setReferenceStore(false);
+    project.save();
+    FreeStyleBuild build = project.scheduleBuild2(0).get();
+    jenkins.assertBuildStatus(Result.SUCCESS, build);
+    jenkins.assertLogContains("Copied the objects borrowed from the reference store", build);
+
+    Path workspace = Paths.get(build.getWorkspace().getRemote());
+    assertThat(workspace.resolve(".git/objects/info/alternates")).doesNotExist();
+    // Throws a MissingObjectException if an object reachable from the refs is missing
+    try (Git git = Git.open(workspace.toFile());
+        ObjectWalk walk = new ObjectWalk(git.getRepository())) {
+      for (Ref ref : git.getRepository().getRefDatabase().getRefs()) {
+        walk.markStart(walk.parseCommit(ref.getObjectId()));
+      }
+      while (walk.next() != null) {
+        // The trees and blobs are walked by nextObject()
+      }
+      while (walk.nextObject() != null) {
+        // Each object is parsed by the walk
+      }
+    }
+  }
+
+  @Test
+  public void it_writes_the_commit_graph_before_pushing() throws Exception {
+    project.getBuildersList().add(new CommitBuilder());
+    GitPush gitPush = createGitPush("master", "origin");
+    gitPush.setMaintenanceThreshold(1);
+    project.getPublishersList().add(gitPush);
+    project.save();
+
+    FreeStyleBuild build = project.scheduleBuild2(0).get();
+    jenkins.assertBuildStatus(Result.SUCCESS, build);
+    jenkins.assertLogContains("Wrote the commit-graph and the multi-pack-index", build);
+
+    assertThat(
+            Paths.get(
+                build.getWorkspace().getRemote(),
+                ".git/objects/info/commit-graphs/commit-graph-chain"))
+        .isRegularFile();
+    assertThat(build.getAction(GitPushAction.class).getEntries())
+        .singleElement()
+        .satisfies(entry -> assertThat(entry.getPhaseMillis()).containsKey("maintenance"));
+  }
+
+  @Test
+  public void it_disables_compression_for_binary_content() throws Exception {
+    project.getBuildersList().add(new CommitBuilder().binaryBytes(64 * 1024));
+    GitPush gitPush = createGitPush("master", "origin");
+    gitPush.setPackTuning(GitPushOptions.PackTuning.AUTO);
+    project.getPublishersList().add(gitPush);
+    project.save();
+
+    FreeStyleBuild build = project.scheduleBuild2(0).get();
+    jenkins.assertBuildStatus(Result.SUCCESS, build);
+    jenkins.assertLogContains("100% binary", build);
+    jenkins.assertLogContains("pack.compression=0", build);
+
+    CommitAction commitAction = build.getAction(CommitAction.class);
+    try (Git origin = Git.open(originGitRepoDir.getRoot())) {
+      assertThat(origin.getRepository().resolve("master").name())
+          .isEqualTo(commitAction.commit.name());
+    }
+  }
+
+  @Test
+  public void it_pushes_the_commits_and_tags_of_every_matrix_configuration() throws Exception {
+    // Checked out by every run, so not collected
+    noneJenkinsGitRepo.tag().setName("v0").call();
+    noneJenkinsGitRepo.push().setPushTags().call();
+    MatrixProject matrixProject = jenkins.createProject(MatrixProject.class);
+    matrixProject.setAxes(new AxisList(new TextAxis("x", "a", "b")));
+    matrixProject.setScm(project.getScm());
+    matrixProject.getBuildersList().add(new CommitBuilder());
+    matrixProject.getBuildersList().add(new TagBuilder());
+    GitPush gitPush = createGitPush("master", "origin");
+    gitPush.setCollectMatrixRuns(true);
+    matrixProject.getPublishersList().add(gitPush);
+    matrixProject.save();
+
+    MatrixBuild build = matrixProject.scheduleBuild2(0).get();
+    jenkins.assertBuildStatus(Result.SUCCESS, build);
+    assertThat(build.getExactRuns()).hasSize(2);
+    // The HEAD and the tag of the run
+    assertThat(build.getLog(Integer.MAX_VALUE))
+        .filteredOn(line -> line.startsWith("Collected 2 ref(s) of "))
+        .hasSize(2);
+
+    try (Git origin = Git.open(originGitRepoDir.getRoot());
+        RevWalk walk = new RevWalk(origin.getRepository())) {
+      RevCommit master = walk.parseCommit(origin.getRepository().resolve("master"));
+      for (MatrixRun run : build.getExactRuns()) {
+        RevCommit commit =
+            walk.parseCommit(ObjectId.fromString(run.getAction(CommitAction.class).commit.name()));
+        assertThat(walk.isMergedInto(commit, master)).isTrue();
+        assertThat(origin.getRepository().findRef(run.getAction(TagAction.class).tagName))
+            .isNotNull();
+      }
+    }
+  }
+
+  @Test
+  public void it_skips_a_tag_the_matrix_configurations_disagree_on() throws Exception {
+    MatrixProject matrixProject = jenkins.createProject(MatrixProject.class);
+    matrixProject.setAxes(new AxisList(new TextAxis("x", "a", "b")));
+    matrixProject.setScm(project.getScm());
+    matrixProject.getBuildersList().add(new CommitBuilder());
+    // Each run tags its own commit
+    matrixProject.getBuildersList().add(new TagBuilder("release"));
+    GitPush gitPush = createGitPush("master", "origin");
+    gitPush.setCollectMatrixRuns(true);
+    matrixProject.getPublishersList().add(gitPush);
+    matrixProject.save();
+
+    MatrixBuild build = matrixProject.scheduleBuild2(0).get();
+    jenkins.assertBuildStatus(Result.SUCCESS, build);
+    assertThat(build.getLog(Integer.MAX_VALUE))
+        .filteredOn(line -> line.startsWith("Not collecting the tag release of "))
+        .hasSize(1);
+
+    try (Git origin = Git.open(originGitRepoDir.getRoot());
+        RevWalk walk = new RevWalk(origin.getRepository())) {
+      RevCommit master = walk.parseCommit(origin.getRepository().resolve("master"));
+      for (MatrixRun run : build.getExactRuns()) {
+        RevCommit commit =
+            walk.parseCommit(ObjectId.fromString(run.getAction(CommitAction.class).commit.name()));
+        assertThat(walk.isMergedInto(commit, master)).isTrue();
+      }
+      assertThat(origin.getRepository().findRef(R_TAGS + "release")).isNotNull();
+    }
+  }
+
   @Test
   public void it_pushes_tags() throws Exception {
     project.getBuildersList().add(new CommitBuilder());
-    project.getBuildersList().add(new TagBuilder());
+    project.getBuildersList().add(new TagBuilder());
+    project.getPublishersList().add(createGitPush("master", "origin"));
+    project.save();
+
+    FreeStyleBuild build = project.scheduleBuild2(0).get();
+    jenkins.assertBuildStatus(Result.SUCCESS, build);
+
+    CommitAction commitAction = build.getAction(CommitAction.class);
+    assertThat(commitAction).isNotNull();
+    TagAction tagAction = build.getAction(TagAction.class);
+    assertThat(tagAction).isNotNull();
+
+    try (Git origin = Git.open(originGitRepoDir.getRoot())) {
+      ObjectId commitId = ObjectId.fromString(commitAction.commit.name());
+      List<Ref> tags = origin.getRepository().getRefDatabase().getRefsByPrefix(R_TAGS);
+      assertThat(tags)
+          .anySatisfy(
+              ref -> {
+                assertThat(ref.getName()).isEqualTo(R_TAGS + tagAction.tagName);
+                try {
+                  assertThat(origin.getRepository().getRefDatabase().peel(ref).getPeeledObjectId())
+                      .isEqualTo(commitId);
+                } catch (IOException e) {
+                  throw new RuntimeException(e);
+                }
+              });
+    }
+  }
+
+  @Test
+  public void it_only_pushes_the_tags_created_since_checkout() throws Exception {
+    noneJenkinsGitRepo.tag().setName("old").call();
+    noneJenkinsGitRepo.push().setPushTags().call();
+
+    project.getBuildersList().add(new CommitBuilder());
+    project.getBuildersList().add(new TagBuilder());
+    project.getBuildersList().add(new DeleteTagBuilder(originGitRepoDir.getRoot(), "old"));
+    GitPush gitPush = createGitPush("master", "origin");
+    gitPush.setPushTags(GitPushOptions.PushTags.CREATED);
+    project.getPublishersList().add(gitPush);
+    project.save();
+
+    FreeStyleBuild build = project.scheduleBuild2(0).get();
+    jenkins.assertBuildStatus(Result.SUCCESS, build);
+    jenkins.assertLogContains("Recorded a snapshot of 1 tags", build);
+    jenkins.assertLogContains("Tags since the snapshot: 1 created", build);
+
+    TagAction tagAction = build.getAction(TagAction.class);
+    assertThat(tagAction).isNotNull();
+
+    try (Git origin = Git.open(originGitRepoDir.getRoot())) {
+      assertThat(origin.getRepository().getRefDatabase().findRef(R_TAGS + tagAction.tagName))
+          .isNotNull();
+      assertThat(origin.getRepository().getRefDatabase().findRef(R_TAGS + "old")).isNull();
+    }
+    try (Git workspace = Git.open(new File(build.getWorkspace().getRemote()))) {
+      assertThat(workspace.getRepository().getRefDatabase().getRefsByPrefix("refs/git-push/"))
+          .isEmpty();
+    }
+  }
+
+  @Test
+  public void it_pushes_commits_and_tags_in_a_single_push() throws Exception {
+    project.getBuildersList().add(new CommitBuilder());
+    project.getBuildersList().add(new TagBuilder());
+    GitPush gitPush = createGitPush("master", "origin");
+    gitPush.setSinglePush(true);
+    project.getPublishersList().add(gitPush);
+    project.save();
+
+    FreeStyleBuild build = project.scheduleBuild2(0).get();
+    jenkins.assertBuildStatus(Result.SUCCESS, build);
+
+    CommitAction commitAction = build.getAction(CommitAction.class);
+    assertThat(commitAction).isNotNull();
+    TagAction tagAction = build.getAction(TagAction.class);
+    assertThat(tagAction).isNotNull();
+
+    try (Git origin = Git.open(originGitRepoDir.getRoot())) {
+      ObjectId commitId = ObjectId.fromString(commitAction.commit.name());
+      Ref master = origin.getRepository().getRefDatabase().findRef(R_HEADS + "master");
+      assertThat(master).isNotNull();
+      assertThat(master.getObjectId()).isEqualTo(commitId);
+      Ref tag = origin.getRepository().getRefDatabase().findRef(R_TAGS + tagAction.tagName);
+      assertThat(tag).isNotNull();
+    }
+  }
+
+  @Test
+  public void it_only_fetches_the_target_branch() throws Exception {
+    project
+        .getBuildersList()
+        .add(new BranchBuilder(noneJenkinsGitRepoDir.getRoot().getAbsolutePath(), "other"));
+    project.getBuildersList().add(new CommitBuilder());
+    GitPush gitPush = createGitPush("master", "origin");
+    gitPush.setNarrowFetch(true);
+    project.getPublishersList().add(gitPush);
+    project.save();
+
+    FreeStyleBuild build = project.scheduleBuild2(0).get();
+    jenkins.assertBuildStatus(Result.SUCCESS, build);
+
+    CommitAction commitAction = build.getAction(CommitAction.class);
+    assertThat(commitAction).isNotNull();
+
+    try (Git origin = Git.open(originGitRepoDir.getRoot())) {
+      Ref master = origin.getRepository().getRefDatabase().findRef(R_HEADS + "master");
+      assertThat(master).isNotNull();
+      assertThat(master.getObjectId()).isEqualTo(commitAction.commit.getId());
+    }
+    try (Git workspace = Git.open(new File(build.getWorkspace().getRemote()))) {
+      assertThat(workspace.getRepository().getRefDatabase().findRef(R_REMOTES + "origin/other"))
+          .isNull();
+    }
+  }
+
+  @Test
+  public void it_updates_the_remote_tracking_ref_without_fetching() throws Exception {
+    project.getBuildersList().add(new CommitBuilder());
+    project.getPublishersList().add(createGitPush("master", "origin"));
+    project.save();
+
+    FreeStyleBuild build = project.scheduleBuild2(0).get();
+    jenkins.assertBuildStatus(Result.SUCCESS, build);
+
+    CommitAction commitAction = build.getAction(CommitAction.class);
+    assertThat(commitAction).isNotNull();
+
+    try (Git workspace = Git.open(new File(build.getWorkspace().getRemote()))) {
+      Ref remoteMaster =
+          workspace.getRepository().getRefDatabase().findRef(R_REMOTES + "origin/master");
+      assertThat(remoteMaster).isNotNull();
+      assertThat(remoteMaster.getObjectId()).isEqualTo(commitAction.commit.getId());
+    }
+  }
+
+  @Test
+  public void it_skips_fetch_and_merge_when_the_remote_did_not_move() throws Exception {
+    project.getBuildersList().add(new CommitBuilder());
+    GitPush gitPush = createGitPush("master", "origin");
+    gitPush.setPreflight(true);
+    project.getPublishersList().add(gitPush);
+    project.save();
+
+    FreeStyleBuild build = project.scheduleBuild2(0).get();
+    jenkins.assertBuildStatus(Result.SUCCESS, build);
+    jenkins.assertLogContains("is an ancestor of HEAD, skipping fetch and merge", build);
+
+    CommitAction commitAction = build.getAction(CommitAction.class);
+    assertThat(commitAction).isNotNull();
+
+    try (Git origin = Git.open(originGitRepoDir.getRoot())) {
+      Ref master = origin.getRepository().getRefDatabase().findRef(R_HEADS + "master");
+      assertThat(master).isNotNull();
+      assertThat(master.getObjectId()).isEqualTo(commitAction.commit.getId());
+    }
+  }
+
+  @Test
+  public void it_merges_when_the_remote_moved_despite_preflight() throws Exception {
+    project
+        .getBuildersList()
+        .add(
+            new CommitBuilder()
+                .gitDir(noneJenkinsGitRepoDir.getRoot().getAbsolutePath())
+                .push(true)
+                .publishCommitAction(false));
+    project.getBuildersList().add(new CommitBuilder());
+    GitPush gitPush = createGitPush("master", "origin");
+    gitPush.setPreflight(true);
+    project.getPublishersList().add(gitPush);
+    project.save();
+
+    FreeStyleBuild build = project.scheduleBuild2(0).get();
+    jenkins.assertBuildStatus(Result.SUCCESS, build);
+    jenkins.assertLogContains("has moved, fetching and merging", build);
+
+    try (Git origin = Git.open(originGitRepoDir.getRoot())) {
+      Ref master = origin.getRepository().getRefDatabase().findRef(R_HEADS + "master");
+      assertThat(master).isNotNull();
+      assertThat(origin.getRepository().parseCommit(master.getObjectId()).getParentCount())
+          .isEqualTo(2);
+    }
+  }
+
+  @Test
+  public void it_runs_the_push_sequence_on_the_agent() throws Exception {
+    DumbSlave agent = jenkins.createOnlineSlave();
+    project.setAssignedNode(agent);
+    project
+        .getBuildersList()
+        .add(
+            new CommitBuilder()
+                .gitDir(noneJenkinsGitRepoDir.getRoot().getAbsolutePath())
+                .push(true)
+                .publishCommitAction(false));
+    project.getBuildersList().add(new CommitBuilder());
+    GitPush gitPush = createGitPush("master", "origin");
+    gitPush.setRunOnAgent(true);
+    project.getPublishersList().add(gitPush);
+    project.save();
+
+    FreeStyleBuild build = project.scheduleBuild2(0).get();
+    jenkins.assertBuildStatus(Result.SUCCESS, build);
+    jenkins.assertLogContains("Push sequence ran on " + agent.getNodeName(), build);
+
+    CommitAction commitAction = build.getAction(CommitAction.class);
+    assertThat(commitAction).isNotNull();
+
+    try (Git origin = Git.open(originGitRepoDir.getRoot())) {
+      ObjectId commitId = ObjectId.fromString(commitAction.commit.name());
+      assertThatCode(() -> origin.getRepository().parseCommit(commitId)).doesNotThrowAnyException();
+
+      Ref master = origin.getRepository().getRefDatabase().findRef(R_HEADS + "master");
+      assertThat(master).isNotNull();
+      assertThat(origin.getRepository().parseCommit(master.getObjectId()).getParentCount())
+          .isEqualTo(2);
+    }
+  }
+
+  @Test
+  public void it_merges_in_core_without_touching_the_working_tree() throws Exception {
+    project
+        .getBuildersList()
+        .add(
+            new CommitBuilder()
+                .gitDir(noneJenkinsGitRepoDir.getRoot().getAbsolutePath())
+                .push(true)
+                .publishCommitAction(false));
+    project.getBuildersList().add(new CommitBuilder());
+    GitPush gitPush = createGitPush("master", "origin");
+    gitPush.setMergeMode(GitPushOptions.MergeMode.IN_CORE);
+    project.getPublishersList().add(gitPush);
+    project.save();
+
+    FreeStyleBuild build = project.scheduleBuild2(0).get();
+    jenkins.assertBuildStatus(Result.SUCCESS, build);
+    jenkins.assertLogContains("into HEAD in-core, pushing merge commit", build);
+
+    CommitAction commitAction = build.getAction(CommitAction.class);
+    assertThat(commitAction).isNotNull();
+
+    try (Git origin = Git.open(originGitRepoDir.getRoot())) {
+      Ref master = origin.getRepository().getRefDatabase().findRef(R_HEADS + "master");
+      assertThat(master).isNotNull();
+      RevCommit masterHead = origin.getRepository().parseCommit(master.getObjectId());
+      assertThat(masterHead.getParentCount()).isEqualTo(2);
+      assertThat(masterHead.getParent(0).getId()).isEqualTo(commitAction.commit.getId());
+    }
+    try (Git workspace = Git.open(new File(build.getWorkspace().getRemote()))) {
+      assertThat(workspace.getRepository().resolve("HEAD")).isEqualTo(commitAction.commit.getId());
+      assertThat(workspace.status().call().isClean()).isTrue();
+    }
+  }
+
+  @Test
+  public void it_refuses_to_merge_when_fast_forward_only() throws Exception {
+    project
+        .getBuildersList()
+        .add(
+            new CommitBuilder()
+                .gitDir(noneJenkinsGitRepoDir.getRoot().getAbsolutePath())
+                .push(true)
+                .publishCommitAction(false));
+    project.getBuildersList().add(new CommitBuilder());
+    GitPush gitPush = createGitPush("master", "origin");
+    gitPush.setMergeMode(GitPushOptions.MergeMode.FAST_FORWARD_ONLY);
+    project.getPublishersList().add(gitPush);
+    project.save();
+
+    FreeStyleBuild build = project.scheduleBuild2(0).get();
+    jenkins.assertBuildStatus(Result.FAILURE, build);
+    jenkins.assertLogContains("a merge is needed", build);
+
+    CommitAction commitAction = build.getAction(CommitAction.class);
+    assertThat(commitAction).isNotNull();
+
+    try (Git origin = Git.open(originGitRepoDir.getRoot())) {
+      assertThatThrownBy(
+              () ->
+                  origin
+                      .getRepository()
+                      .parseCommit(ObjectId.fromString(commitAction.commit.name())))
+          .isInstanceOf(MissingObjectException.class);
+    }
+  }
+
+  @Test
+  public void it_pushes_to_several_targets() throws Exception {
+    Git.init()
+        .setBare(true)
+        .setDirectory(mirrorGitRepoDir.getRoot())
+        .setInitialBranch("master")
+        .call()
+        .close();
+    noneJenkinsGitRepo
+        .push()
+        .setRemote(mirrorGitRepoDir.getRoot().getAbsolutePath())
+        .setRefSpecs(new RefSpec("master:master"))
+        .call();
+
+    GitSCM scm =
+        new GitSCM(
+            Arrays.asList(
+                new UserRemoteConfig(
+                    originGitRepoDir.getRoot().getAbsolutePath(), "origin", "", null),
+                new UserRemoteConfig(
+                    mirrorGitRepoDir.getRoot().getAbsolutePath(), "mirror", "", null)),
+            Collections.singletonList(new BranchSpec("origin/master")),
+            null,
+            null,
+            Collections.singletonList(new DisableRemotePoll()));
+    scm.getExtensions().add(new UserIdentity("John Doe", "john@example.com"));
+    project.setScm(scm);
+
+    project.getBuildersList().add(new CommitBuilder());
+    GitPush gitPush = createGitPush("master", "origin");
+    GitPushTarget unknownTarget = new GitPushTarget("unknown", "master");
+    unknownTarget.setBestEffort(true);
+    gitPush.setTargets(Arrays.asList(new GitPushTarget("mirror", "master"), unknownTarget));
+    project.getPublishersList().add(gitPush);
+    project.save();
+
+    FreeStyleBuild build = project.scheduleBuild2(0).get();
+    jenkins.assertBuildStatus(Result.SUCCESS, build);
+    jenkins.assertLogContains("Best-effort push to unknown/master failed", build);
+
+    CommitAction commitAction = build.getAction(CommitAction.class);
+    assertThat(commitAction).isNotNull();
+
+    for (File remote : Arrays.asList(originGitRepoDir.getRoot(), mirrorGitRepoDir.getRoot())) {
+      try (Git git = Git.open(remote)) {
+        Ref master = git.getRepository().getRefDatabase().findRef(R_HEADS + "master");
+        assertThat(master).isNotNull();
+        assertThat(master.getObjectId()).isEqualTo(commitAction.commit.getId());
+      }
+    }
+  }
+
+  @Test
+  public void it_pushes_its_own_merge_to_each_target() throws Exception {
+    Git.init()
+        .setBare(true)
+        .setDirectory(mirrorGitRepoDir.getRoot())
+        .setInitialBranch("master")
+        .call()
+        .close();
+    noneJenkinsGitRepo
+        .push()
+        .setRemote(mirrorGitRepoDir.getRoot().getAbsolutePath())
+        .setRefSpecs(new RefSpec("master:master"))
+        .call();
+    Git.cloneRepository()
+        .setURI(mirrorGitRepoDir.getRoot().getAbsolutePath())
+        .setDirectory(mirrorCloneDir.getRoot())
+        .call()
+        .close();
+
+    GitSCM scm =
+        new GitSCM(
+            Arrays.asList(
+                new UserRemoteConfig(
+                    originGitRepoDir.getRoot().getAbsolutePath(), "origin", "", null),
+                new UserRemoteConfig(
+                    mirrorGitRepoDir.getRoot().getAbsolutePath(), "mirror", "", null)),
+            Collections.singletonList(new BranchSpec("origin/master")),
+            null,
+            null,
+            Collections.singletonList(new DisableRemotePoll()));
+    scm.getExtensions().add(new UserIdentity("John Doe", "john@example.com"));
+    project.setScm(scm);
+
+    // Both remotes move, each with its own commit
+    project
+        .getBuildersList()
+        .add(
+            new CommitBuilder()
+                .gitDir(noneJenkinsGitRepoDir.getRoot().getAbsolutePath())
+                .push(true)
+                .publishCommitAction(false));
+    project
+        .getBuildersList()
+        .add(
+            new CommitBuilder()
+                .gitDir(mirrorCloneDir.getRoot().getAbsolutePath())
+                .push(true)
+                .publishCommitAction(false));
+    project.getBuildersList().add(new CommitBuilder());
+    GitPush gitPush = createGitPush("master", "origin");
+    gitPush.setTargets(Collections.singletonList(new GitPushTarget("mirror", "master")));
+    project.getPublishersList().add(gitPush);
+    project.save();
+
+    FreeStyleBuild build = project.scheduleBuild2(0).get();
+    jenkins.assertBuildStatus(Result.SUCCESS, build);
+
+    RevCommit local = build.getAction(CommitAction.class).commit;
+    ObjectId originCommit = noneJenkinsGitRepo.getRepository().resolve("master");
+    ObjectId mirrorCommit;
+    try (Git mirrorClone = Git.open(mirrorCloneDir.getRoot())) {
+      mirrorCommit = mirrorClone.getRepository().resolve("master");
+    }
+    try (Git origin = Git.open(originGitRepoDir.getRoot())) {
+      RevCommit master =
+          origin.getRepository().parseCommit(origin.getRepository().resolve("master"));
+      assertThat(master.getParents())
+          .extracting(RevCommit::getId)
+          .containsExactly(local, originCommit);
+      assertThat(origin.getRepository().getObjectDatabase().has(mirrorCommit)).isFalse();
+    }
+    try (Git mirror = Git.open(mirrorGitRepoDir.getRoot())) {
+      RevCommit master =
+          mirror.getRepository().parseCommit(mirror.getRepository().resolve("master"));
+      assertThat(master.getParents())
+          .extracting(RevCommit::getId)
+          .containsExactly(local, mirrorCommit);
+      assertThat(mirror.getRepository().getObjectDatabase().has(originCommit)).isFalse();
+    }
+  }
+
+  @Test
+  public void it_maintains_the_workspace_once_for_all_the_targets() throws Exception {
+    Git.init()
+        .setBare(true)
+        .setDirectory(mirrorGitRepoDir.getRoot())
+        .setInitialBranch("master")
+        .call()
+        .close();
+    noneJenkinsGitRepo
+        .push()
+        .setRemote(mirrorGitRepoDir.getRoot().getAbsolutePath())
+        .setRefSpecs(new RefSpec("master:master"))
+        .call();
+    GitSCM scm =
+        new GitSCM(
+            Arrays.asList(
+                new UserRemoteConfig(
+                    originGitRepoDir.getRoot().getAbsolutePath(), "origin", "", null),
+                new UserRemoteConfig(
+                    mirrorGitRepoDir.getRoot().getAbsolutePath(), "mirror", "", null)),
+            Collections.singletonList(new BranchSpec("origin/master")),
+            null,
+            null,
+            Collections.singletonList(new DisableRemotePoll()));
+    scm.getExtensions().add(new UserIdentity("John Doe", "john@example.com"));
+    project.setScm(scm);
+
+    project.getBuildersList().add(new CommitBuilder());
+    GitPush gitPush = createGitPush("master", "origin");
+    gitPush.setTargets(Collections.singletonList(new GitPushTarget("mirror", "master")));
+    gitPush.setMaintenanceThreshold(1);
+    project.getPublishersList().add(gitPush);
+    project.save();
+
+    FreeStyleBuild build = project.scheduleBuild2(0).get();
+    jenkins.assertBuildStatus(Result.SUCCESS, build);
+    assertThat(build.getLog(Integer.MAX_VALUE))
+        .filteredOn(line -> line.startsWith("Wrote the commit-graph and the multi-pack-index"))
+        .hasSize(1);
+    assertThat(build.getAction(GitPushAction.class).getEntries())
+        .hasSize(2)
+        .allSatisfy(entry -> assertThat(entry.getPhaseMillis()).containsKey("maintenance"));
+  }
+
+  @Test
+  public void it_resumes_from_the_checkpoint() throws Exception {
+    project.getBuildersList().add(new CommitBuilder());
+    project.getBuildersList().add(new CheckpointBuilder());
     project.getPublishersList().add(createGitPush("master", "origin"));
     project.save();
 
     FreeStyleBuild build = project.scheduleBuild2(0).get();
     jenkins.assertBuildStatus(Result.SUCCESS, build);
+    jenkins.assertLogContains("Resuming from the checkpoint", build);
 
+    // The checkpoint claims everything was pushed already
     CommitAction commitAction = build.getAction(CommitAction.class);
-    assertThat(commitAction).isNotNull();
-    TagAction tagAction = build.getAction(TagAction.class);
-    assertThat(tagAction).isNotNull();
+    try (Git origin = Git.open(originGitRepoDir.getRoot())) {
+      assertThat(origin.getRepository().resolve("master").name())
+          .isNotEqualTo(commitAction.commit.name());
+    }
+    assertThat(build.getAction(GitPushAction.class).getCheckpoints()).isEmpty();
+  }
+
+  @Test
+  public void it_does_not_resume_from_a_rejected_push() throws Exception {
+    project.getBuildersList().add(new CommitBuilder());
+    project.getBuildersList().add(new RejectedPushBuilder(originGitRepoDir.getRoot()));
+    project.getPublishersList().add(createGitPush("master", "origin"));
+    project.save();
+
+    FreeStyleBuild build = project.scheduleBuild2(0).get();
+    jenkins.assertBuildStatus(Result.SUCCESS, build);
+    jenkins.assertLogContains("pre-receive hook declined", build);
+    jenkins.assertLogNotContains("Resuming from the checkpoint", build);
 
+    CommitAction commitAction = build.getAction(CommitAction.class);
     try (Git origin = Git.open(originGitRepoDir.getRoot())) {
-      ObjectId commitId = ObjectId.fromString(commitAction.commit.name());
-      List<Ref> tags = origin.getRepository().getRefDatabase().getRefsByPrefix(R_TAGS);
-      assertThat(tags)
-          .anySatisfy(
-              ref -> {
-                assertThat(ref.getName()).isEqualTo(R_TAGS + tagAction.tagName);
-                try {
-                  assertThat(origin.getRepository().getRefDatabase().peel(ref).getPeeledObjectId())
-                      .isEqualTo(commitId);
-                } catch (IOException e) {
-                  throw new RuntimeException(e);
-                }
-              });
+      RevCommit master =
+          origin.getRepository().parseCommit(origin.getRepository().resolve("master"));
+      assertThat(master.getId()).isEqualTo(commitAction.commit.getId());
+    }
+    assertThat(build.getAction(GitPushAction.class).getCheckpoints()).isEmpty();
+  }
+
+  @Test
+  public void it_skips_a_push_the_remote_already_has() throws Exception {
+    project.getBuildersList().add(new CommitBuilder());
+    GitPush gitPush = createGitPush("master", "origin");
+    gitPush.setDeduplicate(true);
+    project.getPublishersList().add(gitPush);
+    project.save();
+
+    FreeStyleBuild build = project.scheduleBuild2(0).get();
+    jenkins.assertBuildStatus(Result.SUCCESS, build);
+    GitPushDedupCache cache = GitPushDedupCache.get();
+    assertThat(cache.getSize()).isPositive();
+    assertThat(cache.getHits()).isZero();
+
+    // The next build checks out the pushed commit and has nothing new to push
+    project.getBuildersList().clear();
+    FreeStyleBuild rebuild = project.scheduleBuild2(0).get();
+    jenkins.assertBuildStatus(Result.SUCCESS, rebuild);
+    jenkins.assertLogContains("HEAD was recently pushed to refs/heads/master", rebuild);
+    assertThat(cache.getHits()).isEqualTo(1);
+    assertThat(rebuild.getAction(GitPushAction.class).getEntries())
+        .singleElement()
+        .satisfies(
+            entry ->
+                assertThat(entry.getPhaseMillis())
+                    .containsKey("dedup")
+                    .doesNotContainKeys("fetch", "push branch"));
+  }
+
+  @Test
+  public void it_pushes_additional_refspecs_in_the_same_push() throws Exception {
+    project.getBuildersList().add(new CommitBuilder());
+    GitPush gitPush = createGitPush("master", "origin");
+    gitPush.setRefSpecs("HEAD:latest\nHEAD:refs/ci/last-build\n");
+    project.getPublishersList().add(gitPush);
+    project.save();
+
+    FreeStyleBuild build = project.scheduleBuild2(0).get();
+    jenkins.assertBuildStatus(Result.SUCCESS, build);
+
+    CommitAction commitAction = build.getAction(CommitAction.class);
+    assertThat(commitAction).isNotNull();
+    try (Git origin = Git.open(originGitRepoDir.getRoot())) {
+      for (String refName :
+          Arrays.asList(R_HEADS + "master", R_HEADS + "latest", "refs/ci/last-build")) {
+        Ref ref = origin.getRepository().getRefDatabase().findRef(refName);
+        assertThat(ref).as(refName).isNotNull();
+        assertThat(ref.getObjectId()).isEqualTo(commitAction.commit.getId());
+      }
     }
+    assertThat(build.getAction(GitPushAction.class).getEntries())
+        .singleElement()
+        .satisfies(
+            entry -> {
+              assertThat(entry.getPhaseMillis()).containsKey("push").doesNotContainKey("push tags");
+              assertThat(entry.getPushedRefs()).isEqualTo(4);
+            });
   }
 
   @Test
@@ -196,6 +952,167 @@ public class GitPushTest {
     }
   }
 
+  @Test
+  public void it_deepens_a_shallow_clone_only_as_needed() throws Exception {
+    for (int i = 0; i < 40; i++) {
+      noneJenkinsGitRepo.commit().setMessage("Commit " + i).setCommitter(IDENTITY).call();
+    }
+    noneJenkinsGitRepo.push().call();
+    ObjectId root;
+    try (Git origin = Git.open(originGitRepoDir.getRoot());
+        RevWalk walk = new RevWalk(origin.getRepository())) {
+      walk.markStart(walk.parseCommit(origin.getRepository().resolve("master")));
+      RevCommit last = null;
+      for (RevCommit commit : walk) {
+        last = commit;
+      }
+      root = last;
+    }
+
+    // Local paths are cloned in full, whatever the depth
+    CloneOption shallowClone = new CloneOption(true, false, null, null);
+    shallowClone.setDepth(1);
+    GitSCM scm =
+        new GitSCM(
+            Collections.singletonList(
+                new UserRemoteConfig(
+                    "file://" + originGitRepoDir.getRoot().getAbsolutePath(), "origin", "", null)),
+            Collections.singletonList(new BranchSpec("master")),
+            null,
+            null,
+            Arrays.asList(new DisableRemotePoll(), shallowClone));
+    scm.getExtensions().add(new UserIdentity("John Doe", "john@example.com"));
+    project.setScm(scm);
+    project
+        .getBuildersList()
+        .add(
+            new CommitBuilder()
+                .gitDir(noneJenkinsGitRepoDir.getRoot().getAbsolutePath())
+                .push(true)
+                .publishCommitAction(false));
+    project.getBuildersList().add(new CommitBuilder());
+    project.getPublishersList().add(createGitPush("master", "origin"));
+    project.save();
+
+    FreeStyleBuild build = project.scheduleBuild2(0).get();
+    jenkins.assertBuildStatus(Result.SUCCESS, build);
+    jenkins.assertLogContains("Shallow clone: found a merge base with origin/master", build);
+
+    CommitAction commitAction = build.getAction(CommitAction.class);
+    try (Git origin = Git.open(originGitRepoDir.getRoot());
+        RevWalk walk = new RevWalk(origin.getRepository())) {
+      RevCommit master = walk.parseCommit(origin.getRepository().resolve("master"));
+      assertThat(master.getParentCount()).isEqualTo(2);
+      assertThat(walk.isMergedInto(walk.parseCommit(commitAction.commit), master)).isTrue();
+    }
+    Path workspace = Paths.get(build.getWorkspace().getRemote());
+    assertThat(workspace.resolve(".git/shallow")).exists();
+    try (Git git = Git.open(workspace.toFile())) {
+      assertThat(git.getRepository().getObjectDatabase().has(root)).isFalse();
+    }
+  }
+
+  @Test
+  public void it_does_not_shorten_the_history_of_a_shallow_clone() throws Exception {
+    for (int i = 0; i < 40; i++) {
+      noneJenkinsGitRepo.commit().setMessage("Commit " + i).setCommitter(IDENTITY).call();
+    }
+    noneJenkinsGitRepo.push().call();
+
+    CloneOption shallowClone = new CloneOption(true, false, null, null);
+    shallowClone.setDepth(30);
+    GitSCM scm =
+        new GitSCM(
+            Collections.singletonList(
+                new UserRemoteConfig(
+                    "file://" + originGitRepoDir.getRoot().getAbsolutePath(), "origin", "", null)),
+            Collections.singletonList(new BranchSpec("master")),
+            null,
+            null,
+            Arrays.asList(new DisableRemotePoll(), shallowClone));
+    scm.getExtensions().add(new UserIdentity("John Doe", "john@example.com"));
+    project.setScm(scm);
+    project
+        .getBuildersList()
+        .add(
+            new CommitBuilder()
+                .gitDir(noneJenkinsGitRepoDir.getRoot().getAbsolutePath())
+                .push(true)
+                .publishCommitAction(false));
+    project.getBuildersList().add(new CommitBuilder());
+    project.getPublishersList().add(createGitPush("master", "origin"));
+    project.save();
+
+    FreeStyleBuild build = project.scheduleBuild2(0).get();
+    jenkins.assertBuildStatus(Result.SUCCESS, build);
+    jenkins.assertLogContains("Shallow clone: found a merge base with origin/master", build);
+
+    CommitAction commitAction = build.getAction(CommitAction.class);
+    Path workspace = Paths.get(build.getWorkspace().getRemote());
+    try (Git git = Git.open(workspace.toFile());
+        RevWalk walk = new RevWalk(git.getRepository())) {
+      // The commit of the build and the 30 commits cloned
+      walk.markStart(walk.parseCommit(commitAction.commit));
+      int depth = 0;
+      for (RevCommit ignored : walk) {
+        depth++;
+      }
+      assertThat(depth).isGreaterThanOrEqualTo(31);
+    }
+  }
+
+  @Test
+  public void it_reuses_the_push_session_of_the_build() throws Exception {
+    project.getBuildersList().add(new CommitBuilder().publishCommitAction(false));
+    project.getBuildersList().add(new SessionPushBuilder());
+    project.getBuildersList().add(new CommitBuilder());
+    project.getBuildersList().add(new SessionPushBuilder());
+    project.save();
+
+    FreeStyleBuild build = project.scheduleBuild2(0).get();
+    jenkins.assertBuildStatus(Result.SUCCESS, build);
+    jenkins.assertLogContains("item(s) of the push session, saving", build);
+
+    CommitAction commitAction = build.getAction(CommitAction.class);
+    try (Git origin = Git.open(originGitRepoDir.getRoot())) {
+      assertThat(origin.getRepository().resolve("master")).isEqualTo(commitAction.commit.getId());
+    }
+    assertThat(build.getAction(GitPushAction.class).getEntries()).hasSize(2);
+  }
+
+  @Test
+  public void it_resolves_each_push_of_a_session_with_its_own_environment() throws Exception {
+    Git.init()
+        .setBare(true)
+        .setDirectory(mirrorGitRepoDir.getRoot())
+        .setInitialBranch("master")
+        .call()
+        .close();
+    noneJenkinsGitRepo
+        .push()
+        .setRemote(mirrorGitRepoDir.getRoot().getAbsolutePath())
+        .setRefSpecs(new RefSpec("master:master"))
+        .call();
+    project.getBuildersList().add(new CommitBuilder());
+    project
+        .getBuildersList()
+        .add(new EnvironmentPushBuilder(originGitRepoDir.getRoot().getAbsolutePath()));
+    project
+        .getBuildersList()
+        .add(new EnvironmentPushBuilder(mirrorGitRepoDir.getRoot().getAbsolutePath()));
+    project.save();
+
+    FreeStyleBuild build = project.scheduleBuild2(0).get();
+    jenkins.assertBuildStatus(Result.SUCCESS, build);
+
+    CommitAction commitAction = build.getAction(CommitAction.class);
+    for (File remote : new File[] {originGitRepoDir.getRoot(), mirrorGitRepoDir.getRoot()}) {
+      try (Git git = Git.open(remote)) {
+        assertThat(git.getRepository().resolve("master")).isEqualTo(commitAction.commit.getId());
+      }
+    }
+  }
+
   private GitPush createGitPush(String targetBranch, String targetRepo) {
     GitPush gitPush = new GitPush();
     gitPush.setTargetBranch(targetBranch);
@@ -208,6 +1125,7 @@ public class GitPushTest {
     private String gitDir;
     private boolean push;
     private boolean publishCommitAction = true;
+    private int binaryBytes;
 
     CommitBuilder() {}
 
@@ -226,6 +1144,12 @@ public class GitPushTest {
       return this;
     }
 
+    /** Commits a file of {@code binaryBytes} random bytes instead of an empty text file */
+    CommitBuilder binaryBytes(int binaryBytes) {
+      this.binaryBytes = binaryBytes;
+      return this;
+    }
+
     @Override
     public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
         throws IOException {
@@ -236,8 +1160,18 @@ public class GitPushTest {
         finalGitDir = Paths.get(gitDir);
       }
 
-      String fileName = UUID.randomUUID() + ".txt";
-      Files.createFile(finalGitDir.resolve(fileName));
+      String fileName;
+      if (binaryBytes > 0) {
+        fileName = UUID.randomUUID() + ".bin";
+        byte[] content = new byte[binaryBytes];
+        new Random().nextBytes(content);
+        // A NUL byte marks the content as binary
+        content[0] = 0;
+        Files.write(finalGitDir.resolve(fileName), content);
+      } else {
+        fileName = UUID.randomUUID() + ".txt";
+        Files.createFile(finalGitDir.resolve(fileName));
+      }
       try (Git git = Git.open(finalGitDir.toFile())) {
         git.add().addFilepattern(fileName).call();
         RevCommit commit = git.commit().setMessage("Add " + fileName).setCommitter(IDENTITY).call();
@@ -254,13 +1188,149 @@ public class GitPushTest {
     }
   }
 
+  private static class BranchBuilder extends Builder {
+
+    private final String gitDir;
+    private final String branchName;
+
+    BranchBuilder(String gitDir, String branchName) {
+      this.gitDir = gitDir;
+      this.branchName = branchName;
+    }
+
+    @Override
+    public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+        throws IOException {
+      try (Git git = Git.open(new File(gitDir))) {
+        git.branchCreate().setName(branchName).call();
+        git.push().setRefSpecs(new RefSpec(branchName + ":" + branchName)).call();
+      } catch (GitAPIException e) {
+        throw new RuntimeException(e);
+      }
+      return true;
+    }
+  }
+
+  /** Pushes HEAD to origin/master within the push session of the build */
+  private static class SessionPushBuilder extends Builder {
+    @Override
+    public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+        throws IOException, InterruptedException {
+      try {
+        GitSCM scm = (GitSCM) build.getProject().getScm();
+        new GitPushCommand(scm, build, listener, build.getWorkspace())
+            .options(new GitPushOptions().session(GitPushOptions.Session.REUSE))
+            .call("master", "origin");
+      } catch (GitPushCommand.Failure e) {
+        throw new IOException(e);
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Pushes HEAD to origin/master while a hook of the origin rejects every push, then removes the
+   * hook. Fails unless the rejection left no checkpoint behind.
+   */
+  private static class RejectedPushBuilder extends Builder {
+
+    private final File origin;
+
+    RejectedPushBuilder(File origin) {
+      this.origin = origin;
+    }
+
+    @Override
+    public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+        throws IOException, InterruptedException {
+      Path hook = origin.toPath().resolve("hooks/pre-receive");
+      Files.createDirectories(hook.getParent());
+      Files.write(hook, Arrays.asList("#!/bin/sh", "exit 1"));
+      assertThat(hook.toFile().setExecutable(true)).isTrue();
+      try {
+        GitSCM scm = (GitSCM) build.getProject().getScm();
+        new GitPushCommand(scm, build, listener, build.getWorkspace()).call("master", "origin");
+        throw new IOException("The push was not rejected");
+      } catch (GitPushCommand.Failure e) {
+        e.printStackTrace(listener.getLogger());
+      } finally {
+        Files.delete(hook);
+      }
+      return GitPushAction.of(build).getCheckpoints().isEmpty();
+    }
+  }
+
+  /**
+   * Pushes HEAD to the master branch of a remote named origin whose URL is read from the
+   * environment given to the push, within the push session of the build
+   */
+  private static class EnvironmentPushBuilder extends Builder {
+
+    private final String pushUrl;
+
+    EnvironmentPushBuilder(String pushUrl) {
+      this.pushUrl = pushUrl;
+    }
+
+    @Override
+    public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+        throws IOException, InterruptedException {
+      GitSCM scm =
+          new GitSCM(
+              Collections.singletonList(new UserRemoteConfig("${PUSH_URL}", "origin", "", null)),
+              Collections.singletonList(new BranchSpec("master")),
+              null,
+              null,
+              Collections.singletonList(new DisableRemotePoll()));
+      EnvVars environment = build.getEnvironment(listener);
+      environment.put("PUSH_URL", pushUrl);
+      try {
+        new GitPushCommand(scm, build, listener, build.getWorkspace())
+            .environment(environment)
+            .options(new GitPushOptions().session(GitPushOptions.Session.REUSE))
+            .call("master", "origin");
+      } catch (GitPushCommand.Failure e) {
+        throw new IOException(e);
+      }
+      return true;
+    }
+  }
+
+  /** Records a checkpoint of origin/master where HEAD was merged and pushed with the tags */
+  private static class CheckpointBuilder extends Builder {
+    @Override
+    public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+        throws IOException {
+      try (Git workspaceGit = Git.open(new File(build.getWorkspace().getRemote()))) {
+        ObjectId head = workspaceGit.getRepository().resolve("HEAD");
+        GitPushCheckpoint checkpoint = new GitPushCheckpoint(head);
+        checkpoint.merged(head);
+        checkpoint.pushed(Arrays.asList(R_HEADS + "master", GitPushSequence.ALL_TAGS));
+        GitPushAction.of(build).putCheckpoint("origin/master", checkpoint);
+      }
+      return true;
+    }
+  }
+
   private static class TagBuilder extends Builder {
+
+    private final String tagName;
+
+    TagBuilder() {
+      this(null);
+    }
+
+    /** @param tagName The name of the tag, a random one if null */
+    TagBuilder(String tagName) {
+      this.tagName = tagName;
+    }
+
     @Override
     public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
         throws IOException {
       Path workspacePath = Paths.get(build.getWorkspace().getRemote());
       try (Git workspaceGit = Git.open(workspacePath.toFile())) {
-        String tagName = UUID.randomUUID().toString();
+        String tagName = this.tagName == null ? UUID.randomUUID().toString() : this.tagName;
         workspaceGit.tag().setName(tagName).call();
         build.addAction(new TagAction(tagName));
       } catch (GitAPIException e) {
@@ -270,6 +1340,28 @@ public class GitPushTest {
     }
   }
 
+  private static class DeleteTagBuilder extends Builder {
+
+    private final File gitDir;
+    private final String tagName;
+
+    DeleteTagBuilder(File gitDir, String tagName) {
+      this.gitDir = gitDir;
+      this.tagName = tagName;
+    }
+
+    @Override
+    public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+        throws IOException {
+      try (Git git = Git.open(gitDir)) {
+        git.tagDelete().setTags(tagName).call();
+      } catch (GitAPIException e) {
+        throw new RuntimeException(e);
+      }
+      return true;
+    }
+  }
+
   private static class TestAction implements Action {
 
     @Override
@@ -0,0 +1,18 @@
+package io.jenkins.plugins.git_push;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+/** @author Réda Housni Alaoui */
+public class MaintenanceCallableTest {
+
+  @Test
+  public void it_reads_the_git_version() {
+    assertThat(MaintenanceCallable.isAtLeast("git version 2.34.1\n", 2, 34)).isTrue();
+    assertThat(MaintenanceCallable.isAtLeast("git version 2.39.2.windows.1\n", 2, 34)).isTrue();
+    assertThat(MaintenanceCallable.isAtLeast("git version 3.0.0\n", 2, 34)).isTrue();
+    assertThat(MaintenanceCallable.isAtLeast("git version 2.30.2\n", 2, 34)).isFalse();
+    assertThat(MaintenanceCallable.isAtLeast("unknown\n", 2, 34)).isFalse();
+  }
+}
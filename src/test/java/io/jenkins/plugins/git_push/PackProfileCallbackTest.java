@@ -0,0 +1,60 @@
+package io.jenkins.plugins.git_push;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Collections;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** @author Réda Housni Alaoui */
+public class PackProfileCallbackTest {
+
+  private static final PersonIdent IDENTITY = new PersonIdent("John Doe", "john@example.com");
+
+  @Rule public TemporaryFolder repositoryDir = new TemporaryFolder();
+
+  @Test
+  public void it_profiles_the_commits_the_remote_lacks() throws Exception {
+    try (Git git = Git.init().setDirectory(repositoryDir.getRoot()).call()) {
+      RevCommit pushed = commit(git);
+      RefUpdate update = git.getRepository().updateRef("refs/remotes/origin/master");
+      update.setNewObjectId(pushed);
+      update.update();
+      commit(git);
+
+      PackProfileCallback.Profile profile =
+          new PackProfileCallback(Collections.singletonList("refs/remotes/origin/master"))
+              .invoke(git.getRepository(), null);
+
+      assertThat(profile).isNotNull();
+      // Only the new commit, its empty tree being the tree of the pushed commit
+      assertThat(profile.toString()).startsWith("1 object(s)");
+    }
+  }
+
+  @Test
+  public void it_skips_the_profile_without_remote_tracking_ref() throws Exception {
+    try (Git git = Git.init().setDirectory(repositoryDir.getRoot()).call()) {
+      commit(git);
+
+      assertThat(
+              new PackProfileCallback(Collections.singletonList("refs/remotes/origin/master"))
+                  .invoke(git.getRepository(), null))
+          .isNull();
+    }
+  }
+
+  private static RevCommit commit(Git git) throws Exception {
+    return git.commit()
+        .setAllowEmpty(true)
+        .setMessage("Commit")
+        .setAuthor(IDENTITY)
+        .setCommitter(IDENTITY)
+        .call();
+  }
+}
@@ -0,0 +1,107 @@
+package io.jenkins.plugins.git_push;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import org.eclipse.jgit.transport.RemoteRefUpdate;
+import org.junit.Test;
+
+/** @author Réda Housni Alaoui */
+public class PushRefStatusTest {
+
+  @Test
+  public void it_parses_the_ref_report_of_a_failed_push() {
+    String output =
+        "Command \"git push /tmp/origin HEAD:master --tags\" returned status code 1:\n"
+            + "stdout: \n"
+            + "stderr: To /tmp/origin\n"
+            + " ! [rejected]        HEAD -> master (fetch first)\n"
+            + " * [new tag]         v1 -> v1\n"
+            + " ! [remote rejected] v2 -> v2 (pre-receive hook declined)\n"
+            + "error: failed to push some refs to '/tmp/origin'\n";
+
+    List<PushRefStatus> statuses = PushRefStatus.parse(output);
+
+    assertThat(statuses).hasSize(3);
+    assertThat(statuses.get(0).getSource()).isEqualTo("HEAD");
+    assertThat(statuses.get(0).getDestination()).isEqualTo("master");
+    assertThat(statuses.get(0).getStatus()).isEqualTo(PushRefStatus.Status.REJECTED);
+    assertThat(statuses.get(0).getReason()).isEqualTo("fetch first");
+    assertThat(statuses.get(1).getStatus()).isEqualTo(PushRefStatus.Status.OK);
+    assertThat(statuses.get(1).getReason()).isNull();
+    assertThat(statuses.get(2).getStatus()).isEqualTo(PushRefStatus.Status.REMOTE_REJECTED);
+  }
+
+  @Test
+  public void it_only_retries_the_rejections_a_merge_can_fix() {
+    String output =
+        "stderr: To /tmp/origin\n"
+            + " ! [rejected]        HEAD -> master (fetch first)\n"
+            + " ! [rejected]        HEAD -> develop (non-fast-forward)\n"
+            + " ! [rejected]        v1 -> v1 (already exists)\n"
+            + " ! [rejected]        HEAD -> release (stale info)\n"
+            + " ! [remote rejected] HEAD -> main (pre-receive hook declined)\n";
+
+    List<PushRefStatus> statuses = PushRefStatus.parse(output);
+
+    assertThat(statuses)
+        .extracting(PushRefStatus::getStatus)
+        .containsExactly(
+            PushRefStatus.Status.REJECTED,
+            PushRefStatus.Status.REJECTED,
+            PushRefStatus.Status.ALREADY_EXISTS,
+            PushRefStatus.Status.STALE_INFO,
+            PushRefStatus.Status.REMOTE_REJECTED);
+    assertThat(statuses).allMatch(PushRefStatus::isRejected);
+    assertThat(statuses)
+        .extracting(PushRefStatus::isRetryable)
+        .containsExactly(true, true, false, false, false);
+  }
+
+  @Test
+  public void it_parses_the_failure_of_the_jgit_client() {
+    List<PushRefStatus> statuses =
+        PushRefStatus.parse(
+            "null REJECTED_NONFASTFORWARD for '0123abcd:refs/heads/master'"
+                + " refspec '0123abcd:refs/heads/master' to /tmp/origin");
+
+    assertThat(statuses).hasSize(1);
+    assertThat(statuses.get(0).getSource()).isEqualTo("0123abcd");
+    assertThat(statuses.get(0).getDestination()).isEqualTo("refs/heads/master");
+    assertThat(statuses.get(0).getStatus()).isEqualTo(PushRefStatus.Status.REJECTED);
+    assertThat(statuses.get(0).getReason()).isEqualTo("non-fast-forward");
+    assertThat(statuses.get(0).isRetryable()).isTrue();
+  }
+
+  @Test
+  public void it_maps_the_jgit_statuses_like_the_command_line() {
+    assertThat(
+            PushRefStatus.of(
+                    "v1", "refs/tags/v1", RemoteRefUpdate.Status.REJECTED_NONFASTFORWARD, null)
+                .getStatus())
+        .isEqualTo(PushRefStatus.Status.ALREADY_EXISTS);
+    assertThat(
+            PushRefStatus.of(
+                    "HEAD",
+                    "refs/heads/master",
+                    RemoteRefUpdate.Status.REJECTED_REMOTE_CHANGED,
+                    null)
+                .getStatus())
+        .isEqualTo(PushRefStatus.Status.STALE_INFO);
+    PushRefStatus declined =
+        PushRefStatus.of(
+            "HEAD",
+            "refs/heads/master",
+            RemoteRefUpdate.Status.REJECTED_OTHER_REASON,
+            "pre-receive hook declined");
+    assertThat(declined.getStatus()).isEqualTo(PushRefStatus.Status.REMOTE_REJECTED);
+    assertThat(declined.getReason()).isEqualTo("pre-receive hook declined");
+    assertThat(declined.isRetryable()).isFalse();
+  }
+
+  @Test
+  public void it_returns_nothing_without_ref_report() {
+    assertThat(PushRefStatus.parse("fatal: unable to access remote")).isEmpty();
+    assertThat(PushRefStatus.parse(null)).isEmpty();
+  }
+}
@@ -0,0 +1,267 @@
+package io.jenkins.plugins.git_push;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.plugins.git.BranchSpec;
+import hudson.plugins.git.GitSCM;
+import hudson.plugins.git.UserRemoteConfig;
+import hudson.plugins.git.extensions.impl.DisableRemotePoll;
+import hudson.plugins.git.extensions.impl.UserIdentity;
+import hudson.tasks.Builder;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import net.sf.json.JSONObject;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+/**
+ * Launches builds pushing concurrently to the master branch of a local bare repository, through
+ * {@link GitPush} and {@code gitPush}, and measures how the pushes cope with the contention. Run
+ * through {@code mvn test -Dstress}.
+ *
+ * <p>The load is set by {@code -Dstress.builds} (8 by default), {@code -Dstress.commitBytes} (the
+ * size of the random file each build commits, 1024 by default), {@code -Dstress.jobType} ({@code
+ * freestyle}, {@code pipeline} or {@code mixed}, the default) and {@code -Dstress.pushRetries} (20
+ * by default).
+ *
+ * <p>The run fails when more than {@code -Dstress.maxFailures} builds fail (0 by default), when a
+ * pushed commit is missing from master, and, if set, when fewer than {@code
+ * -Dstress.minPushesPerMinute} pushes complete per minute or when the p95 latency of a push exceeds
+ * {@code -Dstress.maxP95Millis}. The measures are written as JSON to {@code
+ * target/stress-report.json}.
+ *
+ * @author Réda Housni Alaoui
+ */
+public class StressRunner {
+
+  private static final String PREFIX = "stress.";
+
+  @Rule public JenkinsRule jenkins = new JenkinsRule();
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  public StressRunner() {
+    // A heavy load outlasts the default timeout of the rule
+    jenkins.timeout = 0;
+  }
+
+  @Test
+  public void runStress() throws Exception {
+    int builds = Integer.getInteger(PREFIX + "builds", 8);
+    int commitBytes = Integer.getInteger(PREFIX + "commitBytes", 1024);
+    String jobType = System.getProperty(PREFIX + "jobType", "mixed");
+    int pushRetries = Integer.getInteger(PREFIX + "pushRetries", 20);
+
+    File origin = folder.newFolder("origin.git");
+    new SyntheticRepository().create(origin, folder.newFolder("generator"));
+
+    jenkins.jenkins.setNumExecutors(builds);
+    List<Runnable> schedules = new ArrayList<>();
+    List<Future<? extends Run<?, ?>>> futures = new ArrayList<>();
+    for (int i = 0; i < builds; i++) {
+      boolean pipeline = "pipeline".equals(jobType) || ("mixed".equals(jobType) && i % 2 == 1);
+      if (pipeline) {
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class, "pipeline-" + i);
+        job.setDefinition(
+            new CpsFlowDefinition(pipelineScript(origin, commitBytes, pushRetries), true));
+        schedules.add(() -> futures.add(job.scheduleBuild2(0)));
+      } else {
+        FreeStyleProject project = jenkins.createFreeStyleProject("freestyle-" + i);
+        project.setScm(createGitSCM(origin));
+        project.getBuildersList().add(new RandomCommitBuilder(commitBytes));
+        GitPush gitPush = new GitPush();
+        gitPush.setTargetBranch("master");
+        gitPush.setTargetRepo("origin");
+        gitPush.setPushRetries(pushRetries);
+        project.getPublishersList().add(gitPush);
+        schedules.add(() -> futures.add(project.scheduleBuild2(0)));
+      }
+    }
+
+    long start = System.nanoTime();
+    schedules.forEach(Runnable::run);
+    List<Run<?, ?>> runs = new ArrayList<>();
+    for (Future<? extends Run<?, ?>> future : futures) {
+      runs.add(future.get());
+    }
+    long wallMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    int failures = 0;
+    int entries = 0;
+    int attempts = 0;
+    int rejections = 0;
+    List<Long> latencies = new ArrayList<>();
+    List<String> pushedRevs = new ArrayList<>();
+    for (Run<?, ?> run : runs) {
+      if (run.getResult() != Result.SUCCESS) {
+        failures++;
+        System.out.println(run + " failed:");
+        System.out.println(JenkinsRule.getLog(run));
+      }
+      GitPushAction action = run.getAction(GitPushAction.class);
+      if (action == null) {
+        continue;
+      }
+      for (GitPushAction.Entry entry : action.getEntries()) {
+        entries++;
+        attempts += entry.getAttempts();
+        rejections += entry.getRejections();
+        if (entry.isSuccess()) {
+          latencies.add(entry.getTotalMillis());
+          pushedRevs.add(entry.getPushedRev());
+        }
+      }
+    }
+    Collections.sort(latencies);
+    int pushes = latencies.size();
+    double pushesPerMinute = wallMillis == 0 ? 0 : pushes * 60_000.0 / wallMillis;
+
+    JSONObject report = new JSONObject();
+    report.put("builds", builds);
+    report.put("commitBytes", commitBytes);
+    report.put("jobType", jobType);
+    report.put("wallMillis", wallMillis);
+    report.put("pushes", pushes);
+    report.put("failures", failures);
+    report.put("pushesPerMinute", pushesPerMinute);
+    report.put("attempts", attempts);
+    report.put("retries", attempts - entries);
+    report.put("rejections", rejections);
+    report.put("p50Millis", percentile(latencies, 50));
+    report.put("p95Millis", percentile(latencies, 95));
+    report.put("p99Millis", percentile(latencies, 99));
+    report.put("maxMillis", latencies.isEmpty() ? 0 : latencies.get(latencies.size() - 1));
+    System.out.println("Stress report: " + report.toString(2));
+    Path reportFile = Paths.get(System.getProperty(PREFIX + "result", "target/stress-report.json"));
+    Files.createDirectories(reportFile.toAbsolutePath().getParent());
+    Files.write(reportFile, report.toString(2).getBytes(StandardCharsets.UTF_8));
+
+    assertThat(failures)
+        .as("failed builds")
+        .isLessThanOrEqualTo(Integer.getInteger(PREFIX + "maxFailures", 0));
+    assertThat(missingFromMaster(origin, pushedRevs)).as("pushed commits missing").isEmpty();
+    int minPushesPerMinute = Integer.getInteger(PREFIX + "minPushesPerMinute", 0);
+    if (minPushesPerMinute > 0) {
+      assertThat(pushesPerMinute)
+          .as("pushes per minute")
+          .isGreaterThanOrEqualTo(minPushesPerMinute);
+    }
+    long maxP95Millis = Long.getLong(PREFIX + "maxP95Millis", 0);
+    if (maxP95Millis > 0) {
+      assertThat(percentile(latencies, 95)).as("p95 latency").isLessThanOrEqualTo(maxP95Millis);
+    }
+  }
+
+  /** @return The pushed commits master of {@code origin} does not contain */
+  private static List<String> missingFromMaster(File origin, List<String> pushedRevs)
+      throws IOException {
+    List<String> missing = new ArrayList<>();
+    try (Git git = Git.open(origin);
+        RevWalk walk = new RevWalk(git.getRepository())) {
+      ObjectId master = git.getRepository().resolve("master");
+      for (String pushedRev : pushedRevs) {
+        if (!walk.isMergedInto(
+            walk.parseCommit(ObjectId.fromString(pushedRev)), walk.parseCommit(master))) {
+          missing.add(pushedRev);
+        }
+      }
+    }
+    return missing;
+  }
+
+  /** Nearest-rank percentile of sorted values */
+  private static long percentile(List<Long> sortedValues, int percent) {
+    if (sortedValues.isEmpty()) {
+      return 0;
+    }
+    int rank = (int) Math.ceil(percent / 100.0 * sortedValues.size());
+    return sortedValues.get(Math.max(rank, 1) - 1);
+  }
+
+  private static GitSCM createGitSCM(File origin) {
+    GitSCM scm =
+        new GitSCM(
+            Collections.singletonList(
+                new UserRemoteConfig(origin.getAbsolutePath(), "origin", "", null)),
+            Collections.singletonList(new BranchSpec("master")),
+            null,
+            null,
+            Collections.singletonList(new DisableRemotePoll()));
+    scm.getExtensions().add(new UserIdentity("John Doe", "john@example.com"));
+    return scm;
+  }
+
+  private static String pipelineScript(File origin, int commitBytes, int pushRetries) {
+    return "def gitScm = [$class: 'GitSCM',\n"
+        + "  userRemoteConfigs: [[url: '"
+        + origin.getAbsolutePath()
+        + "', name: 'origin']],\n"
+        + "  branches: [[name: 'master']],\n"
+        + "  extensions: [[$class: 'UserIdentity', name: 'John Doe', email: 'john@example.com']]]\n"
+        + "node {\n"
+        + "  checkout(gitScm)\n"
+        + "  sh 'head -c "
+        + commitBytes
+        + " /dev/urandom > \"$BUILD_TAG.bin\" && git add \"$BUILD_TAG.bin\""
+        + " && git -c user.name=\"John Doe\" -c user.email=john@example.com"
+        + " commit -q -m \"Add $BUILD_TAG\"'\n"
+        + "  gitPush(gitScm: gitScm, targetBranch: 'master', targetRepo: 'origin', pushRetries: "
+        + pushRetries
+        + ")\n"
+        + "}\n";
+  }
+
+  /** Commits a file of random bytes */
+  private static class RandomCommitBuilder extends Builder {
+
+    private final int bytes;
+
+    RandomCommitBuilder(int bytes) {
+      this.bytes = bytes;
+    }
+
+    @Override
+    public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+        throws IOException {
+      Path workspace = Paths.get(build.getWorkspace().getRemote());
+      String fileName = build.getExternalizableId().replace('#', '-') + ".bin";
+      byte[] content = new byte[bytes];
+      new Random().nextBytes(content);
+      Files.write(workspace.resolve(fileName), content);
+      try (Git git = Git.open(workspace.toFile())) {
+        git.add().addFilepattern(fileName).call();
+        git.commit()
+            .setMessage("Add " + fileName)
+            .setAuthor(SyntheticRepository.IDENTITY)
+            .setCommitter(SyntheticRepository.IDENTITY)
+            .call();
+      } catch (GitAPIException e) {
+        throw new IOException(e);
+      }
+      return true;
+    }
+  }
+}
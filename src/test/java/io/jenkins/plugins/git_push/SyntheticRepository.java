@@ -0,0 +1,120 @@
+package io.jenkins.plugins.git_push;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.transport.RefSpec;
+
+/**
+ * Generates a bare repository of a given shape: the number of branches and tags, the depth of the
+ * history of the default branch and the number of files of its working tree.
+ *
+ * @author Réda Housni Alaoui
+ */
+class SyntheticRepository {
+
+  static final PersonIdent IDENTITY = new PersonIdent("John Doe", "john@example.com");
+
+  private static final int FILE_SIZE = 1024;
+
+  private int branchCount;
+  private int tagCount;
+  private int historyDepth = 1;
+  private int fileCount = 1;
+
+  /** @param branchCount The number of branches besides master */
+  SyntheticRepository branches(int branchCount) {
+    this.branchCount = branchCount;
+    return this;
+  }
+
+  SyntheticRepository tags(int tagCount) {
+    this.tagCount = tagCount;
+    return this;
+  }
+
+  /** @param historyDepth The number of commits of master */
+  SyntheticRepository historyDepth(int historyDepth) {
+    this.historyDepth = Math.max(historyDepth, 1);
+    return this;
+  }
+
+  /** @param fileCount The number of files of the working tree, of 1 KiB each */
+  SyntheticRepository files(int fileCount) {
+    this.fileCount = Math.max(fileCount, 1);
+    return this;
+  }
+
+  /**
+   * Creates the bare repository in {@code bareDirectory}, building its history in {@code
+   * workDirectory}. The branches and tags are spread over the history of master.
+   */
+  void create(File bareDirectory, File workDirectory) throws IOException, GitAPIException {
+    Git.init().setBare(true).setDirectory(bareDirectory).setInitialBranch("master").call();
+
+    try (Git git =
+        Git.cloneRepository()
+            .setURI(bareDirectory.getAbsolutePath())
+            .setDirectory(workDirectory)
+            .call()) {
+      Path root = workDirectory.toPath();
+      for (int i = 0; i < fileCount; i++) {
+        Files.write(root.resolve(fileName(i)), content(i));
+      }
+      git.add().addFilepattern(".").call();
+      List<RevCommit> history = new ArrayList<>();
+      history.add(git.commit().setMessage("Initial commit").setCommitter(IDENTITY).call());
+
+      for (int i = 1; i < historyDepth; i++) {
+        String fileName = fileName(i % fileCount);
+        Files.write(
+            root.resolve(fileName),
+            ("Commit " + i + "\n").getBytes(StandardCharsets.UTF_8),
+            StandardOpenOption.APPEND);
+        git.add().addFilepattern(fileName).call();
+        history.add(git.commit().setMessage("Commit " + i).setCommitter(IDENTITY).call());
+      }
+
+      for (int i = 0; i < branchCount; i++) {
+        git.branchCreate()
+            .setName("branch-" + i)
+            .setStartPoint(history.get(i * history.size() / branchCount))
+            .call();
+      }
+      for (int i = 0; i < tagCount; i++) {
+        git.tag()
+            .setName("tag-" + i)
+            .setObjectId(history.get(i * history.size() / tagCount))
+            .setAnnotated(false)
+            .call();
+      }
+
+      git.push()
+          .setRefSpecs(
+              new RefSpec("refs/heads/*:refs/heads/*"), new RefSpec("refs/tags/*:refs/tags/*"))
+          .call();
+    }
+  }
+
+  private static String fileName(int index) {
+    return "file-" + index + ".txt";
+  }
+
+  private static byte[] content(int index) {
+    StringBuilder content = new StringBuilder(FILE_SIZE);
+    while (content.length() < FILE_SIZE) {
+      content.append("Line ").append(content.length()).append(" of file ").append(index);
+      content.append('\n');
+    }
+    return content.toString().getBytes(StandardCharsets.UTF_8);
+  }
+}